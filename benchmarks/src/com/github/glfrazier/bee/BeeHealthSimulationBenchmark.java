@@ -0,0 +1,78 @@
+package com.github.glfrazier.bee;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per-year work of {@link BeeHealthSimulation} that is not attributable to
+ * a single site: shuffling the hives before they swarm, and the end-of-summer
+ * census of every site.
+ *
+ * @author Greg Frazier
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeeHealthSimulationBenchmark {
+
+	/**
+	 * A list of hives to shuffle. The list is sized directly, rather than by a
+	 * grid, because the shuffle is quadratic: a full 1000x1000 grid would not
+	 * finish.
+	 */
+	@State(Scope.Benchmark)
+	public static class HiveListFixture {
+
+		@Param({ "1000", "10000", "100000" })
+		public int listSize;
+
+		BeeHealthSimulation sim;
+		List<Hive> hives;
+
+		@Setup
+		public void setUp() throws IOException {
+			sim = SimulationFixture.createSimulation(20, 0.25, "three-way-norm");
+			List<Hive> all = new ArrayList<>();
+			for (Site site : sim.getGrid()) {
+				all.addAll(site.syncCopyHives());
+			}
+			hives = new ArrayList<>(listSize);
+			for (int i = 0; i < listSize; i++) {
+				hives.add(all.get(i % all.size()));
+			}
+		}
+	}
+
+	/** As in {@link BeeHealthSimulation#process(boolean)}, the list is linked. */
+	@Benchmark
+	public List<Hive> randomizeList(HiveListFixture fixture) {
+		return fixture.sim.randomizeList(new LinkedList<>(fixture.hives));
+	}
+
+	/** The census of every site in the grid. */
+	@Benchmark
+	public Statistics hivesAtEndOfSummer(SimulationFixture fixture) {
+		for (Site site : fixture.grid) {
+			fixture.stats.hivesAtEndOfSummer(site);
+		}
+		return fixture.stats;
+	}
+}
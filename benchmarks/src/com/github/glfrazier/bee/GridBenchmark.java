@@ -0,0 +1,46 @@
+package com.github.glfrazier.bee;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The neighborhood queries of {@link Grid}, which dominate the mating flights
+ * and the swarms. The default radius is 2 (see 'drone_participation_distance'
+ * and 'swarm_distance').
+ *
+ * @author Greg Frazier
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GridBenchmark {
+
+	@Param({ "1", "2", "4", "8" })
+	public int radius;
+
+	@Benchmark
+	public Set<Site> getNeighborsOf(SimulationFixture fixture) {
+		return fixture.grid.getNeighborsOf(fixture.nextSite(), radius);
+	}
+
+	@Benchmark
+	public List<Hive> getNeighborhoodLivingHives(SimulationFixture fixture) {
+		return fixture.grid.getNeighborhoodLivingHives(fixture.nextSite(), radius);
+	}
+}
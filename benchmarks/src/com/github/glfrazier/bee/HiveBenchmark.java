@@ -0,0 +1,37 @@
+package com.github.glfrazier.bee;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Over-wintering a hive. The hive is revived (and made young) before each
+ * call, so that every call takes the survival path rather than returning early
+ * for a dead hive; the cost of the reset is a few field writes.
+ *
+ * @author Greg Frazier
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HiveBenchmark {
+
+	@Benchmark
+	public void overWinter(SimulationFixture fixture, Blackhole bh) {
+		Hive hive = fixture.nextLiveHive();
+		hive.dead = false;
+		hive.age = 0;
+		hive.overWinter();
+		bh.consume(hive.dead);
+	}
+}
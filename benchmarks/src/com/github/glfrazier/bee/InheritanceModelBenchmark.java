@@ -0,0 +1,44 @@
+package com.github.glfrazier.bee;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The genetic arithmetic of {@link InheritanceModel} and
+ * {@link BeeHealthSimulation#cappedNormal(java.util.Random, double, double, double)},
+ * applied to the queens and drones of the fixture's hives.
+ *
+ * @author Greg Frazier
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InheritanceModelBenchmark {
+
+	@Benchmark
+	public double getChildQueen(SimulationFixture fixture) {
+		Hive hive = fixture.nextLiveHive();
+		return fixture.iModel.getChildQueen(hive.queenGene, hive.droneGenes, fixture.random, false);
+	}
+
+	@Benchmark
+	public double getHiveStrength(SimulationFixture fixture) {
+		Hive hive = fixture.nextLiveHive();
+		return fixture.iModel.getHiveStrength(hive.queenGene, hive.droneGenes);
+	}
+
+	@Benchmark
+	public double cappedNormal(SimulationFixture fixture) {
+		return BeeHealthSimulation.cappedNormal(fixture.random, 0.82, 0.05, 0.9);
+	}
+}
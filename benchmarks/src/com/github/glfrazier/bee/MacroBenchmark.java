@@ -0,0 +1,388 @@
+package com.github.glfrazier.bee;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * End-to-end benchmarks: whole simulations of a fixed corpus of scenarios
+ * (<code>propertyfiles/benchmark/*.prop</code>) at a range of grid sizes, timed
+ * phase by phase. Each scenario and size is run in its own JVM, so that the runs
+ * do not share a heap or the JIT's profile.
+ *
+ * Run it from the top of the repository:
+ *
+ * <pre>
+ * java -cp bin com.github.glfrazier.bee.MacroBenchmark sizes=10000,100000 output=macro.csv
+ * </pre>
+ *
+ * The properties are:
+ * <dl>
+ * <dt>scenarios</dt>
+ * <dd>Comma-separated scenario names (default: feral, domestic_baseline,
+ * queen_breeders, apiary100).</dd>
+ * <dt>sizes</dt>
+ * <dd>Comma-separated numbers of sites; each is rounded to a square grid
+ * (default: 10000, 100000, 1000000, 10000000).</dd>
+ * <dt>years</dt>
+ * <dd>The number of years to simulate (default 10).</dd>
+ * <dt>threads, seed</dt>
+ * <dd>Passed to the simulation (defaults 8 and 1).</dd>
+ * <dt>jvm_args</dt>
+ * <dd>Space-separated JVM arguments for each run (e.g., <code>-Xmx32g</code>).</dd>
+ * <dt>timeout_minutes</dt>
+ * <dd>A run that takes longer is killed and reported as timed out (default
+ * 60).</dd>
+ * <dt>output</dt>
+ * <dd>The CSV file to write (default <code>macro_benchmark.csv</code>).</dd>
+ * <dt>baseline</dt>
+ * <dd>A CSV file written by an earlier run. Each phase's hive-years/sec is
+ * compared to the baseline's, and the process exits with status 1 if any is
+ * slower by more than <code>tolerance</code> (default 0.10).</dd>
+ * </dl>
+ *
+ * The CSV has one row per scenario, size and phase (overWinter,
+ * winterCensus, replace, shuffle, swarm, summerCensus), plus a row for the
+ * initialization and a <code>total</code> row (which includes the
+ * initialization), with the columns listed in {@link #HEADER}. Sites/sec and
+ * hive-years/sec count each site or living or dead hive once per simulated
+ * year. The peak heap is the sum of the peaks of the heap memory pools. The
+ * allocated bytes are those of every thread, where the JVM can report them
+ * (Java 21 and later), and -1 otherwise.
+ *
+ * @author Greg Frazier
+ *
+ */
+public class MacroBenchmark {
+
+	static final String HEADER = "scenario,sites,phase,status,years,seconds,sites_per_sec,hive_years_per_sec,"
+			+ "peak_heap_bytes,gc_seconds,allocated_bytes,alloc_bytes_per_sec";
+
+	static final String[] PHASES = { "init", "overWinter", "winterCensus", "replace", "shuffle", "swarm",
+			"summerCensus", "total" };
+
+	/** Child runs prefix their result lines with this. */
+	private static final String RESULT_PREFIX = "MACRO_RESULT,";
+
+	public static void main(String[] args) throws IOException {
+		Properties props = BeeHealthSimulation.parseArguments(args);
+		if (props.containsKey("macro_scenario")) {
+			runOne(props);
+			return;
+		}
+		String[] scenarios = props.getProperty("scenarios", "feral,domestic_baseline,queen_breeders,apiary100")
+				.split(",");
+		String[] sizes = props.getProperty("sizes", "10000,100000,1000000,10000000").split(",");
+		File output = new File(props.getProperty("output", "macro_benchmark.csv"));
+		long timeoutMinutes = Long.parseLong(props.getProperty("timeout_minutes", "60"));
+
+		List<String> rows = new ArrayList<>();
+		for (String scenario : scenarios) {
+			for (String size : sizes) {
+				int sites = Integer.parseInt(size.trim());
+				int edgeLength = (int) Math.round(Math.sqrt(sites));
+				System.out.println("Running " + scenario.trim() + " with " + edgeLength * edgeLength + " sites.");
+				rows.addAll(launch(props, scenario.trim(), edgeLength, timeoutMinutes));
+			}
+		}
+		PrintStream out = new PrintStream(new FileOutputStream(output));
+		out.println(HEADER);
+		for (String row : rows) {
+			out.println(row);
+		}
+		out.close();
+		System.out.println("Wrote " + output);
+
+		if (props.containsKey("baseline")) {
+			double tolerance = Double.parseDouble(props.getProperty("tolerance", "0.10"));
+			if (!compare(rows, new File(props.getProperty("baseline")), tolerance)) {
+				System.exit(1);
+			}
+		}
+	}
+
+	/**
+	 * Run one scenario and size in a new JVM, and collect its result rows.
+	 */
+	private static List<String> launch(Properties props, String scenario, int edgeLength, long timeoutMinutes)
+			throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(ProcessHandle.current().info().command().orElse("java"));
+		String jvmArgs = props.getProperty("jvm_args", "").trim();
+		if (!jvmArgs.isEmpty()) {
+			command.addAll(Arrays.asList(jvmArgs.split("\\s+")));
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(MacroBenchmark.class.getName());
+		command.add("macro_scenario=" + scenario);
+		command.add("properties_file=propertyfiles/benchmark/" + scenario + ".prop");
+		command.add("edge_length=" + edgeLength);
+		command.add("sim_length=" + props.getProperty("years", "10"));
+		command.add("threads=" + props.getProperty("threads", "8"));
+		command.add("seed=" + props.getProperty("seed", "1"));
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectErrorStream(true);
+		Process p = pb.start();
+		List<String> rows = new ArrayList<>();
+		Thread reader = new Thread("Reader for " + scenario) {
+			public void run() {
+				try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+					String line;
+					while ((line = in.readLine()) != null) {
+						if (line.startsWith(RESULT_PREFIX)) {
+							synchronized (rows) {
+								rows.add(line.substring(RESULT_PREFIX.length()));
+							}
+						} else {
+							System.out.println("\t" + line);
+						}
+					}
+				} catch (IOException e) {
+					// The process was killed
+				}
+			}
+		};
+		reader.start();
+		String status = "ok";
+		try {
+			if (!p.waitFor(timeoutMinutes, TimeUnit.MINUTES)) {
+				p.destroyForcibly();
+				status = "timeout";
+			} else if (p.exitValue() != 0) {
+				status = "failed";
+			}
+			reader.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+		synchronized (rows) {
+			if (!status.equals("ok")) {
+				rows.add(scenario + "," + edgeLength * edgeLength + ",total," + status + ",,,,,,,,");
+			}
+			return new ArrayList<>(rows);
+		}
+	}
+
+	/**
+	 * Compare the hive-years/sec of each row to the matching baseline row.
+	 *
+	 * @return <code>false</code> if any phase regressed by more than
+	 *         <code>tolerance</code>
+	 */
+	static boolean compare(List<String> rows, File baselineFile, double tolerance) throws IOException {
+		Map<String, Double> baseline = new HashMap<>();
+		try (BufferedReader in = new BufferedReader(new FileReader(baselineFile))) {
+			String line = in.readLine(); // the header
+			while ((line = in.readLine()) != null) {
+				String[] tokens = line.split(",", -1);
+				if (tokens[3].equals("ok") && !tokens[7].isEmpty()) {
+					baseline.put(tokens[0] + "," + tokens[1] + "," + tokens[2], Double.parseDouble(tokens[7]));
+				}
+			}
+		}
+		boolean ok = true;
+		for (String row : rows) {
+			String[] tokens = row.split(",", -1);
+			String key = tokens[0] + "," + tokens[1] + "," + tokens[2];
+			Double base = baseline.get(key);
+			if (base == null) {
+				continue;
+			}
+			if (!tokens[3].equals("ok")) {
+				System.out.println("REGRESSION " + key + ": " + tokens[3]);
+				ok = false;
+				continue;
+			}
+			double current = Double.parseDouble(tokens[7]);
+			double change = (current - base) / base;
+			String verdict = change < -tolerance ? "REGRESSION" : "ok";
+			System.out.println(String.format("%-10s %s: %.4g -> %.4g hive-years/sec (%+.1f%%)", verdict, key, base,
+					current, 100 * change));
+			if (change < -tolerance) {
+				ok = false;
+			}
+		}
+		return ok;
+	}
+
+	/**
+	 * Run one simulation, timing each phase, and print the result rows. Each year
+	 * is run by {@link BeeHealthSimulation#processNextYear()}, exactly as a
+	 * simulation runs it, and the phases are timed at the boundaries that it
+	 * reports to its {@link Instrumentation}.
+	 */
+	private static void runOne(Properties props) {
+		BeeHealthSimulation.LOGGER.setLevel(Level.WARNING);
+		String scenario = props.getProperty("macro_scenario");
+		int years = BeeHealthSimulation.getIntProperty(props, "sim_length");
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			pool.resetPeakUsage();
+		}
+		PhaseCounters[] counters = new PhaseCounters[PHASES.length];
+		for (int i = 0; i < PHASES.length; i++) {
+			counters[i] = new PhaseCounters();
+		}
+		PhaseCounters total = counters[PHASES.length - 1];
+		total.start();
+		counters[0].start();
+		BeeHealthSimulation sim = new BeeHealthSimulation();
+		sim.initialize(props, false);
+		counters[0].stop(0, 0);
+
+		PhaseTimer timer = new PhaseTimer(sim.getGrid(), counters);
+		sim.getInstrumentation().addListener(timer);
+		for (int year = 0; year < years; year++) {
+			sim.processNextYear();
+		}
+		total.stop(timer.siteYears, timer.hiveYears);
+		int sites = timer.sites;
+
+		long peakHeap = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+				peakHeap += pool.getPeakUsage().getUsed();
+			}
+		}
+		for (int i = 0; i < PHASES.length; i++) {
+			PhaseCounters c = counters[i];
+			double seconds = c.nanos / 1e9;
+			StringBuffer row = new StringBuffer(RESULT_PREFIX);
+			row.append(scenario).append(',').append(sites).append(',').append(PHASES[i]).append(",ok,");
+			row.append(i == 0 ? 0 : years).append(',').append(seconds).append(',');
+			row.append(i == 0 ? "" : Double.toString(c.sites / seconds)).append(',');
+			row.append(i == 0 ? "" : Double.toString(c.hives / seconds)).append(',');
+			row.append(peakHeap).append(',').append(c.gcMillis / 1000.0).append(',');
+			row.append(c.allocatedBytes).append(',');
+			row.append(c.allocatedBytes < 0 ? -1 : c.allocatedBytes / seconds);
+			System.out.println(row);
+		}
+	}
+
+	/**
+	 * Times each phase of each year, in the counters of {@link #PHASES}: the
+	 * phases of {@link Instrumentation.Phase} are in the same order, with startup
+	 * as init, census as winterCensus and endOfSummer as summerCensus. The hives
+	 * are counted before each year's first phase begins.
+	 */
+	private static class PhaseTimer implements Instrumentation.PhaseListener {
+		private final Grid grid;
+		private final PhaseCounters[] counters;
+		final int sites;
+		long hives;
+		long siteYears;
+		long hiveYears;
+
+		PhaseTimer(Grid grid, PhaseCounters[] counters) {
+			this.grid = grid;
+			this.counters = counters;
+			this.sites = grid.size();
+		}
+
+		@Override
+		public void startPhase(int year, Instrumentation.Phase phase) {
+			if (phase == Instrumentation.Phase.overWinter) {
+				hives = 0;
+				for (Site site : grid) {
+					hives += site.syncCopyHives().size();
+				}
+				siteYears += sites;
+				hiveYears += hives;
+			}
+			counters[phase.ordinal()].start();
+		}
+
+		@Override
+		public void endPhase(int year, Instrumentation.Phase phase) {
+			counters[phase.ordinal()].stop(sites, hives);
+		}
+	}
+
+	/**
+	 * The time, garbage collection and allocation accumulated by one phase.
+	 */
+	private static class PhaseCounters {
+		long nanos;
+		long gcMillis;
+		long allocatedBytes;
+		long sites;
+		long hives;
+
+		private long startNanos;
+		private long startGcMillis;
+		private long startAllocatedBytes;
+
+		void start() {
+			startGcMillis = gcMillis();
+			startAllocatedBytes = allocatedBytes();
+			startNanos = System.nanoTime();
+		}
+
+		void stop(long sites, long hives) {
+			nanos += System.nanoTime() - startNanos;
+			gcMillis += gcMillis() - startGcMillis;
+			long allocated = allocatedBytes();
+			if (allocated < 0 || allocatedBytes < 0) {
+				allocatedBytes = -1;
+			} else {
+				allocatedBytes += allocated - startAllocatedBytes;
+			}
+			this.sites += sites;
+			this.hives += hives;
+		}
+	}
+
+	private static long gcMillis() {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionTime());
+		}
+		return total;
+	}
+
+	private static Method totalAllocatedBytes;
+
+	static {
+		try {
+			totalAllocatedBytes = Class.forName("com.sun.management.ThreadMXBean")
+					.getMethod("getTotalThreadAllocatedBytes");
+		} catch (Exception e) {
+			totalAllocatedBytes = null;
+		}
+	}
+
+	/**
+	 * The bytes allocated by every thread since the JVM started (including
+	 * threads that have terminated), or -1 if the JVM cannot report it.
+	 */
+	private static long allocatedBytes() {
+		if (totalAllocatedBytes == null) {
+			return -1;
+		}
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		try {
+			return (Long) totalAllocatedBytes.invoke(threads);
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+}
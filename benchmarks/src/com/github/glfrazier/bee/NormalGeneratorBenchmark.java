@@ -0,0 +1,64 @@
+package com.github.glfrazier.bee;
+
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link NormalGenerator}s. It does not need a grid, so it does not use the
+ * {@link SimulationFixture}.
+ *
+ * @author Greg Frazier
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NormalGeneratorBenchmark {
+
+	/** The value of 'gaussian_generator'. */
+	@Param({ "java", "ziggurat" })
+	public String generator;
+
+	/** The value of 'capped_normal'. */
+	@Param({ "clip", "truncate" })
+	public String cappedNormal;
+
+	private NormalGenerator normal;
+	private Random random;
+
+	@Setup
+	public void setUp() {
+		Properties props = new Properties();
+		props.setProperty("gaussian_generator", generator);
+		props.setProperty("capped_normal", cappedNormal);
+		normal = NormalGenerator.create(props);
+		random = new Random(SimulationFixture.SEED);
+	}
+
+	@Benchmark
+	public double nextGaussian() {
+		return normal.nextGaussian(random);
+	}
+
+	/** The initial genes, with the default g0_feral, stddev_g and max_g. */
+	@Benchmark
+	public double cappedNormal() {
+		return normal.cappedNormal(random, 0.82, 0.05, 0.9);
+	}
+}
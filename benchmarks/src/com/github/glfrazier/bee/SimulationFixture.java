@@ -0,0 +1,140 @@
+package com.github.glfrazier.bee;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * An initialized simulation for the benchmarks to exercise. The simulation is
+ * configured by <code>propertyfiles/defaultvalues.prop</code> (or the file named
+ * by the system property <code>bee.properties</code>), overridden by the
+ * parameters below, and is always seeded with {@link #SEED}; so a given set of
+ * parameters produces the same grid on every commit.
+ *
+ * The benchmarks cycle through fixed samples of sites and hives, chosen with
+ * their own seeded random number generator, so that they do not measure the
+ * same (cached) site over and over.
+ *
+ * The benchmarks must always run forked, so that each measures a freshly
+ * constructed grid.
+ *
+ * @author Greg Frazier
+ *
+ */
+@State(Scope.Benchmark)
+public class SimulationFixture {
+
+	public static final long SEED = 20240601L;
+
+	private static final int SAMPLE_SIZE = 1024;
+
+	@Param({ "100", "300", "1000" })
+	public int edgeLength;
+
+	@Param({ "0.0", "0.25", "0.75" })
+	public double probDomestic;
+
+	/** The value of 'number_of_hives_distribution'. */
+	@Param({ "three-way-norm", "linear" })
+	public String apiaryDistribution;
+
+	BeeHealthSimulation sim;
+	Grid grid;
+	InheritanceModel iModel;
+	Statistics stats;
+
+	/** Used by the benchmarks where the simulation would use a site's random. */
+	Random random;
+
+	private Site[] sites;
+	private Site[] domesticSites;
+	private Hive[] liveHives;
+	private int nextSite;
+	private int nextDomesticSite;
+	private int nextLiveHive;
+
+	@Setup
+	public void setUp() throws IOException {
+		sim = createSimulation(edgeLength, probDomestic, apiaryDistribution);
+		grid = sim.getGrid();
+		iModel = sim.getSimulationInheritanceModel();
+		stats = sim.getSimulationStatistics();
+		random = new Random(SEED);
+
+		Random picker = new Random(SEED);
+		sites = new Site[SAMPLE_SIZE];
+		for (int i = 0; i < SAMPLE_SIZE; i++) {
+			sites[i] = grid.getSite(picker.nextInt(edgeLength), picker.nextInt(edgeLength));
+		}
+		List<Site> domestic = new ArrayList<>();
+		List<Hive> live = new ArrayList<>();
+		for (Site site : grid) {
+			if (site.domestic) {
+				domestic.add(site);
+			}
+			for (Hive hive : site.syncCopyHives()) {
+				if (!hive.dead) {
+					live.add(hive);
+				}
+			}
+		}
+		domesticSites = new Site[SAMPLE_SIZE];
+		liveHives = new Hive[SAMPLE_SIZE];
+		for (int i = 0; i < SAMPLE_SIZE; i++) {
+			domesticSites[i] = domestic.get(picker.nextInt(domestic.size()));
+			liveHives[i] = live.get(picker.nextInt(live.size()));
+		}
+	}
+
+	/** The next site of the sample. */
+	Site nextSite() {
+		return sites[nextSite++ & (SAMPLE_SIZE - 1)];
+	}
+
+	/**
+	 * The next domestic site of the sample. (The queen breeders are domestic, so
+	 * there is always at least one.)
+	 */
+	Site nextDomesticSite() {
+		return domesticSites[nextDomesticSite++ & (SAMPLE_SIZE - 1)];
+	}
+
+	/** The next hive of the sample; it was alive when the sample was taken. */
+	Hive nextLiveHive() {
+		return liveHives[nextLiveHive++ & (SAMPLE_SIZE - 1)];
+	}
+
+	/**
+	 * Create and initialize a simulation that does not record results.
+	 */
+	static BeeHealthSimulation createSimulation(int edgeLength, double probDomestic, String apiaryDistribution)
+			throws IOException {
+		Properties props = new Properties();
+		File f = new File(System.getProperty("bee.properties", "../propertyfiles/defaultvalues.prop"));
+		try (Reader in = new FileReader(f)) {
+			props.load(in);
+		}
+		props.setProperty("seed", Long.toString(SEED));
+		props.setProperty("edge_length", Integer.toString(edgeLength));
+		props.setProperty("prob_domestic", Double.toString(probDomestic));
+		props.setProperty("number_of_hives_distribution", apiaryDistribution);
+		props.setProperty("number_of_hives_min", props.getProperty("number_of_hives_min", "1"));
+		props.setProperty("number_of_hives_max", props.getProperty("number_of_hives_max", "50"));
+		// The last-queen-breeder messages would swamp the benchmark output
+		BeeHealthSimulation.LOGGER.setLevel(Level.WARNING);
+		BeeHealthSimulation sim = new BeeHealthSimulation();
+		sim.initialize(props, false);
+		return sim;
+	}
+}
@@ -0,0 +1,37 @@
+package com.github.glfrazier.bee;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A queen's mating flight, and the purchase of a mated queen from a queen
+ * breeder (which includes a mating flight from the breeder's site).
+ *
+ * @author Greg Frazier
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SiteBenchmark {
+
+	@Benchmark
+	public double[] matingFlight(SimulationFixture fixture) {
+		Hive hive = fixture.nextLiveHive();
+		return hive.getSite().matingFlight(hive);
+	}
+
+	@Benchmark
+	public Hive purchaseMatedQueen(SimulationFixture fixture) {
+		return fixture.grid.purchaseMatedQueen(fixture.nextDomesticSite(), fixture.random);
+	}
+}
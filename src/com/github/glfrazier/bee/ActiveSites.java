@@ -0,0 +1,185 @@
+package com.github.glfrazier.bee;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The sets of sites that the phases of a year visit, so that the cost of a year
+ * scales with the living hives rather than with the area of the grid. The sets
+ * are bitmaps over the sites' positions in the layout (see
+ * {@link Site#index}), and are iterated in layout order, which is the order of
+ * {@link Grid#iterator()}; so the hives are visited in the same order as they
+ * would be by a loop over the whole grid.
+ * <dl>
+ * <dt>live sites</dt>
+ * <dd>The sites with at least one living hive. Over-wintering, the census of
+ * the living hives and the swarm list visit only these sites. The dead hives
+ * are carried by counters of the hives and living hives of each kind, so the
+ * census does not visit them at all.</dd>
+ * <dt>domestic sites</dt>
+ * <dd>The sites at which the keepers replace dead hives and requeen living ones.
+ * Every domestic site is visited each year, as each of its queens that is old
+ * enough draws to decide whether she is replaced; the feral sites are
+ * skipped.</dd>
+ * </dl>
+ *
+ * The live sites and the counters are kept current by {@link Site#changed()},
+ * which marks the site dirty (from any thread); {@link #refresh()}, called on
+ * the simulation's thread between phases, recounts only the dirty sites.
+ *
+ * @author Greg Frazier
+ *
+ */
+class ActiveSites {
+
+	private final Grid grid;
+
+	/** The sites that have changed since the last {@link #refresh()}. */
+	private final AtomicLongArray dirty;
+	private volatile boolean anyDirty;
+
+	private final BitSet live;
+	private final BitSet domestic;
+
+	/** The number of hives, and of living hives, at each site when last counted. */
+	private final int[] hives;
+	private final int[] livingHives;
+
+	private long domesticHives;
+	private long domesticLivingHives;
+	private long feralHives;
+	private long feralLivingHives;
+
+	ActiveSites(Grid grid) {
+		this.grid = grid;
+		int size = grid.size();
+		dirty = new AtomicLongArray((size + 63) >>> 6);
+		live = new BitSet(size);
+		domestic = new BitSet(size);
+		hives = new int[size];
+		livingHives = new int[size];
+	}
+
+	/**
+	 * Count every site. Called once the grid has been initialized. The sites that
+	 * the grid does not construct (see {@link Grid#Grid(int, BeeHealthSimulation, java.util.Random, boolean[])})
+	 * are never counted.
+	 */
+	void rebuild() {
+		domestic.clear();
+		for (int i = 0; i < hives.length; i++) {
+			Site site = grid.getSite(i);
+			if (site == null) {
+				continue;
+			}
+			if (site.domestic) {
+				domestic.set(i);
+			}
+			changed(i);
+		}
+		refresh();
+	}
+
+	/**
+	 * Record that the hives at a site have changed. Thread-safe.
+	 */
+	void changed(int index) {
+		int word = index >>> 6;
+		long bit = 1L << index;
+		long bits = dirty.get(word);
+		while ((bits & bit) == 0) {
+			if (dirty.compareAndSet(word, bits, bits | bit)) {
+				anyDirty = true;
+				return;
+			}
+			bits = dirty.get(word);
+		}
+	}
+
+	/**
+	 * Recount the sites that have changed since the last refresh. Must not be
+	 * called while the sites are being changed.
+	 */
+	void refresh() {
+		if (!anyDirty) {
+			return;
+		}
+		anyDirty = false;
+		for (int word = 0; word < dirty.length(); word++) {
+			long bits = dirty.getAndSet(word, 0);
+			while (bits != 0) {
+				int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				recount(index);
+			}
+		}
+	}
+
+	private void recount(int index) {
+		Site site = grid.getSite(index);
+		int n = site.hiveCount();
+		int living = site.livingHiveCount();
+		if (site.domestic) {
+			domesticHives += n - hives[index];
+			domesticLivingHives += living - livingHives[index];
+		} else {
+			feralHives += n - hives[index];
+			feralLivingHives += living - livingHives[index];
+		}
+		hives[index] = n;
+		livingHives[index] = living;
+		live.set(index, living > 0);
+	}
+
+	/** The sites with at least one living hive, in layout order. */
+	Iterable<Site> liveSites() {
+		refresh();
+		return () -> new SiteIterator(live, 0, hives.length);
+	}
+
+	/** The domestic sites in <code>[from .. to)</code>, in layout order. */
+	Iterable<Site> domesticSites(int from, int to) {
+		return () -> new SiteIterator(domestic, from, to);
+	}
+
+	/** @return the number of hives (living or dead) at sites of the given kind */
+	long hives(boolean isDomestic) {
+		refresh();
+		return isDomestic ? domesticHives : feralHives;
+	}
+
+	/** @return the number of living hives at sites of the given kind */
+	long livingHives(boolean isDomestic) {
+		refresh();
+		return isDomestic ? domesticLivingHives : feralLivingHives;
+	}
+
+	private class SiteIterator implements Iterator<Site> {
+		private final BitSet bits;
+		private final int to;
+		private int next;
+
+		SiteIterator(BitSet bits, int from, int to) {
+			this.bits = bits;
+			this.to = to;
+			this.next = bits.nextSetBit(from);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next >= 0 && next < to;
+		}
+
+		@Override
+		public Site next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Site site = grid.getSite(next);
+			next = bits.nextSetBit(next + 1);
+			return site;
+		}
+	}
+}
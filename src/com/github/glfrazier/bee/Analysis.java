@@ -6,7 +6,9 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.IntStream;
 
 public class Analysis {
 
@@ -37,6 +39,10 @@ public class Analysis {
 		int edgeLength = 0;
 		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(sitesFile)));
 		String line = in.readLine();
+		// Skip the header row
+		if (line != null && line.equals(com.github.glfrazier.bee.Site.getStateCSVHeader())) {
+			line = in.readLine();
+		}
 		while (line != null) {
 			Site s = new Site(line);
 			if (s.x >= edgeLength) {
@@ -49,10 +55,328 @@ public class Analysis {
 		for (Site s : siteList) {
 			sites[s.x][s.y] = s;
 		}
+		in.close();
 		return sites;
 	}
-	
-	
+
+	/**
+	 * Load a sites.csv file into primitive columns. Much faster, and much more
+	 * compact, than {@link #loadSites(File)}.
+	 * 
+	 * @see SiteColumns#load(File)
+	 */
+	public static SiteColumns loadColumns(File sitesFile) throws IOException {
+		return SiteColumns.load(sitesFile);
+	}
+
+	/**
+	 * The Manhattan distance between two sites on the torus.
+	 */
+	public static int torusDistance(int x0, int y0, int x1, int y1, int edgeLength) {
+		int dx = Math.abs(x0 - x1);
+		int dy = Math.abs(y0 - y1);
+		return Math.min(dx, edgeLength - dx) + Math.min(dy, edgeLength - dy);
+	}
+
+	/**
+	 * The mean of the average live hive strength over the sites that have live
+	 * hives. Sites without live hives are excluded from all of the spatial
+	 * statistics.
+	 */
+	public static double meanLiveHiveStrength(SiteColumns c) {
+		double[] rowTotals = new double[c.edgeLength];
+		int[] rowCounts = new int[c.edgeLength];
+		IntStream.range(0, c.edgeLength).parallel().forEach(x -> {
+			for (int y = 0; y < c.edgeLength; y++) {
+				int i = c.index(x, y);
+				if (c.hasLiveHives(i)) {
+					rowTotals[x] += c.avgLiveHiveStrength[i];
+					rowCounts[x]++;
+				}
+			}
+		});
+		double total = 0;
+		long count = 0;
+		for (int x = 0; x < c.edgeLength; x++) {
+			total += rowTotals[x];
+			count += rowCounts[x];
+		}
+		return count == 0 ? 0 : total / count;
+	}
+
+	/**
+	 * Moran's I for the average live hive strength. Two sites are neighbors (have a
+	 * weight of one) if they are within <code>radius</code> steps of each other on
+	 * the torus (see {@link #torusDistance(int, int, int, int, int)}), else they
+	 * have a weight of zero; a site is never its own neighbor, and a neighbor that
+	 * can be reached by more than one path around a small grid is counted once. A
+	 * radius of one is rook contiguity. Values
+	 * near +1 indicate that strong (and weak) hives cluster; values near
+	 * <code>-1/(N-1)</code> indicate no spatial structure.
+	 * 
+	 * The rows of the grid are processed in parallel. Each row's partial sums are
+	 * combined in row order, so the result does not depend upon the number of
+	 * threads.
+	 * 
+	 * @param c      the site columns
+	 * @param radius the neighborhood radius (Manhattan distance)
+	 * @return Moran's I, or NaN if there are fewer than two sites with live hives
+	 */
+	public static double moransI(SiteColumns c, int radius) {
+		final double mean = meanLiveHiveStrength(c);
+		final int edge = c.edgeLength;
+		// The distinct offsets (dx, dy) to the neighbors
+		List<int[]> offsets = new ArrayList<>();
+		for (int dx = 0; dx < edge; dx++) {
+			for (int dy = 0; dy < edge; dy++) {
+				int h = torusDistance(0, 0, dx, dy, edge);
+				if (h > 0 && h <= radius) {
+					offsets.add(new int[] { dx, dy });
+				}
+			}
+		}
+		double[] rowCrossProducts = new double[edge];
+		double[] rowSquares = new double[edge];
+		long[] rowWeights = new long[edge];
+		long[] rowCounts = new long[edge];
+		IntStream.range(0, edge).parallel().forEach(x -> {
+			for (int y = 0; y < edge; y++) {
+				int i = c.index(x, y);
+				if (!c.hasLiveHives(i)) {
+					continue;
+				}
+				double zi = c.avgLiveHiveStrength[i] - mean;
+				rowSquares[x] += zi * zi;
+				rowCounts[x]++;
+				for (int[] o : offsets) {
+					int j = c.index((x + o[0]) % edge, (y + o[1]) % edge);
+					if (!c.hasLiveHives(j)) {
+						continue;
+					}
+					rowCrossProducts[x] += zi * (c.avgLiveHiveStrength[j] - mean);
+					rowWeights[x]++;
+				}
+			}
+		});
+		double crossProducts = 0;
+		double squares = 0;
+		long weights = 0;
+		long n = 0;
+		for (int x = 0; x < edge; x++) {
+			crossProducts += rowCrossProducts[x];
+			squares += rowSquares[x];
+			weights += rowWeights[x];
+			n += rowCounts[x];
+		}
+		if (n < 2 || weights == 0 || squares == 0) {
+			return Double.NaN;
+		}
+		return (n / (double) weights) * (crossProducts / squares);
+	}
+
+	/**
+	 * The empirical semivariogram of the average live hive strength, by Manhattan
+	 * distance on the torus (see {@link #torusDistance(int, int, int, int, int)}):
+	 * 
+	 * <pre>
+	 * gamma(h) = sum((z_i - z_j)^2) / (2 * N(h))
+	 * </pre>
+	 * 
+	 * where the sum is over the N(h) unordered pairs of sites (with live hives)
+	 * that are exactly <code>h</code> steps apart. Each pair is counted once. Element
+	 * zero of the result is zero.
+	 * 
+	 * @param c      the site columns
+	 * @param maxLag the largest distance to compute
+	 * @return the semivariance for each distance 0..maxLag; NaN where there are no
+	 *         pairs
+	 */
+	public static double[] semivariogram(SiteColumns c, int maxLag) {
+		final int edge = c.edgeLength;
+		// The offsets (dx, dy) to the sites within maxLag. Offsets o and -o join the
+		// same pairs of sites, so only one of them is kept; an offset that is its own
+		// inverse (half way around the torus) is kept, but counts only the pairs
+		// whose first site has the smaller index.
+		List<int[]> offsets = new ArrayList<>();
+		for (int dx = 0; dx < edge; dx++) {
+			for (int dy = 0; dy < edge; dy++) {
+				int h = torusDistance(0, 0, dx, dy, edge);
+				if (h == 0 || h > maxLag) {
+					continue;
+				}
+				int ix = (edge - dx) % edge;
+				int iy = (edge - dy) % edge;
+				if (dx < ix || (dx == ix && dy <= iy)) {
+					offsets.add(new int[] { dx, dy, h, (dx == ix && dy == iy) ? 1 : 0 });
+				}
+			}
+		}
+		double[][] rowSums = new double[edge][];
+		long[][] rowPairs = new long[edge][];
+		IntStream.range(0, edge).parallel().forEach(x -> {
+			double[] sums = new double[maxLag + 1];
+			long[] pairs = new long[maxLag + 1];
+			for (int y = 0; y < edge; y++) {
+				int i = c.index(x, y);
+				if (!c.hasLiveHives(i)) {
+					continue;
+				}
+				double zi = c.avgLiveHiveStrength[i];
+				for (int[] o : offsets) {
+					int j = c.index((x + o[0]) % edge, (y + o[1]) % edge);
+					if (!c.hasLiveHives(j) || (o[3] == 1 && j < i)) {
+						continue;
+					}
+					double d = zi - c.avgLiveHiveStrength[j];
+					sums[o[2]] += d * d;
+					pairs[o[2]]++;
+				}
+			}
+			rowSums[x] = sums;
+			rowPairs[x] = pairs;
+		});
+		double[] gamma = new double[maxLag + 1];
+		for (int h = 1; h <= maxLag; h++) {
+			double sum = 0;
+			long pairs = 0;
+			for (int x = 0; x < edge; x++) {
+				sum += rowSums[x][h];
+				pairs += rowPairs[x][h];
+			}
+			gamma[h] = pairs == 0 ? Double.NaN : sum / (2 * pairs);
+		}
+		return gamma;
+	}
+
+	/**
+	 * For every site, the Manhattan distance (on the torus) to the nearest queen
+	 * breeder. Computed with a breadth-first search outward from all of the queen
+	 * breeders at once, so the cost is linear in the number of sites.
+	 * 
+	 * @param c the site columns
+	 * @return the distances, indexed by {@link SiteColumns#index(int, int)};
+	 *         <code>-1</code> everywhere if there are no queen breeders
+	 */
+	public static int[] distanceToNearestQueenBreeder(SiteColumns c) {
+		final int edge = c.edgeLength;
+		int[] distance = new int[c.size()];
+		Arrays.fill(distance, -1);
+		int[] queue = new int[c.size()];
+		int head = 0;
+		int tail = 0;
+		for (int i = 0; i < c.size(); i++) {
+			if (c.queenBreeder[i]) {
+				distance[i] = 0;
+				queue[tail++] = i;
+			}
+		}
+		while (head < tail) {
+			int i = queue[head++];
+			int x = c.x(i);
+			int y = c.y(i);
+			for (int k = 0; k < 4; k++) {
+				int xN = (k == 0 || k == 2 ? x : k == 1 ? x + 1 : x - 1);
+				int yN = (k == 1 || k == 3 ? y : k == 0 ? y + 1 : y - 1);
+				int j = c.index(fixIndex(xN, edge), fixIndex(yN, edge));
+				if (distance[j] < 0) {
+					distance[j] = distance[i] + 1;
+					queue[tail++] = j;
+				}
+			}
+		}
+		return distance;
+	}
+
+	/**
+	 * The Pearson correlation between a site's average live hive strength and its
+	 * distance to the nearest queen breeder. Only sites with live hives are
+	 * included.
+	 * 
+	 * @param c the site columns
+	 * @return the correlation coefficient, or NaN if there are no queen breeders
+	 *         or the correlation is undefined
+	 */
+	public static double queenBreederDistanceCorrelation(SiteColumns c) {
+		final int edge = c.edgeLength;
+		final int[] distance = distanceToNearestQueenBreeder(c);
+		// sums of d, s, d*d, s*s, d*s and the count, per row
+		double[][] rowMoments = new double[edge][6];
+		IntStream.range(0, edge).parallel().forEach(x -> {
+			double[] m = rowMoments[x];
+			for (int y = 0; y < edge; y++) {
+				int i = c.index(x, y);
+				if (!c.hasLiveHives(i) || distance[i] < 0) {
+					continue;
+				}
+				double d = distance[i];
+				double s = c.avgLiveHiveStrength[i];
+				m[0] += d;
+				m[1] += s;
+				m[2] += d * d;
+				m[3] += s * s;
+				m[4] += d * s;
+				m[5]++;
+			}
+		});
+		double[] m = new double[6];
+		for (int x = 0; x < edge; x++) {
+			for (int k = 0; k < m.length; k++) {
+				m[k] += rowMoments[x][k];
+			}
+		}
+		double n = m[5];
+		if (n < 2) {
+			return Double.NaN;
+		}
+		double covariance = m[4] - m[0] * m[1] / n;
+		double varianceD = m[2] - m[0] * m[0] / n;
+		double varianceS = m[3] - m[1] * m[1] / n;
+		if (varianceD <= 0 || varianceS <= 0) {
+			return Double.NaN;
+		}
+		return covariance / Math.sqrt(varianceD * varianceS);
+	}
+
+	/**
+	 * Print the spatial statistics of a sites.csv file.
+	 * 
+	 * <pre>
+	 * java -cp bin com.github.glfrazier.bee.Analysis results/000/sites.csv [radius [max_lag]]
+	 * </pre>
+	 * 
+	 * @param args the sites file, and optionally the Moran's I radius (default 1)
+	 *             and the largest semivariogram distance (default 10)
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: Analysis <sites.csv> [radius [max_lag]]");
+			System.exit(-1);
+		}
+		int radius = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		int maxLag = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		if (radius < 1) {
+			System.err.println("The Moran's I radius must be at least 1. You specified " + radius);
+			System.exit(-1);
+		}
+		if (maxLag < 0) {
+			System.err.println("The largest semivariogram distance must not be negative. You specified " + maxLag);
+			System.exit(-1);
+		}
+		long start = System.currentTimeMillis();
+		SiteColumns c = loadColumns(new File(args[0]));
+		System.out.println("Loaded " + c.size() + " sites in " + (System.currentTimeMillis() - start) + "ms");
+		System.out.println("mean live hive strength = " + meanLiveHiveStrength(c));
+		System.out.println("Moran's I (radius " + radius + ") = " + moransI(c, radius));
+		double[] gamma = semivariogram(c, maxLag);
+		System.out.println("semivariogram:");
+		for (int h = 1; h < gamma.length; h++) {
+			System.out.println(String.format("%d \t%.6f", h, gamma[h]));
+		}
+		System.out.println("correlation of strength with distance to nearest queen breeder = "
+				+ queenBreederDistanceCorrelation(c));
+		System.out.println("Completed in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
 
 	public class Site {
 		public final int x;
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
@@ -83,6 +84,9 @@ public class BeeHealthSimulation implements Serializable, Runnable {
 
 	private Statistics stats;
 
+	/** Set by the property instrumentation; see {@link Instrumentation}. */
+	private transient Instrumentation instrumentation = new Instrumentation(false);
+
 	private Properties props;
 
 	/** Set by the property feral_uses_domestic_survival_model */
@@ -91,6 +95,41 @@ public class BeeHealthSimulation implements Serializable, Runnable {
 	/** Set by the property survivalprob.F */
 	public double feedingFactor;
 
+	/** Set by the property survivalprob.model; linear if it is not specified. */
+	private HiveSurvivalProbabilityModel survivalModel;
+
+	/**
+	 * Set by the property active_sites (default false): if true, the phases of a
+	 * year visit only the sites in the grid's {@link ActiveSites}.
+	 */
+	private boolean activeSites;
+
+	/** Set by the properties gaussian_generator and capped_normal. */
+	private NormalGenerator normal;
+
+	/** Set by the property max_g. */
+	private double maxG;
+
+	/** Set by the property vector_kernels; see {@link SeasonKernels}. */
+	private SeasonKernels seasonKernels;
+
+	private WinterBatch winterBatch;
+
+	/** Set by the property event_trace; see {@link EventTrace}. */
+	private transient EventTrace trace;
+
+	/** Set by the property tile_aggregates; see {@link TileAggregates}. */
+	private transient TileAggregates tiles;
+
+	/** Set by the property live_metrics; see {@link LiveMetrics}. */
+	private transient LiveMetrics liveMetrics;
+
+	/**
+	 * Set by the property queen_purchasing (default order_book); null if it is
+	 * direct. See {@link QueenOrderBook}.
+	 */
+	private QueenOrderBook queenOrderBook;
+
 	public BeeHealthSimulation() {
 		random = new Random();
 	}
@@ -103,29 +142,76 @@ public class BeeHealthSimulation implements Serializable, Runnable {
 	 * @param props the properties that configure the simulation
 	 */
 	public void initialize(Properties props) {
+		initialize(props, true);
+	}
+
+	/**
+	 * Initialize the simulation.
+	 * 
+	 * @param props         the properties that configure the simulation
+	 * @param recordResults <code>false</code> if this simulation should not create
+	 *                      a results directory (e.g., it is one tile of a
+	 *                      {@link DistributedSimulation})
+	 */
+	void initialize(Properties props, boolean recordResults) {
+		initialize(props, recordResults, null);
+	}
+
+	/**
+	 * Initialize the simulation, constructing only some rows of the grid.
+	 * 
+	 * @param props         the properties that configure the simulation
+	 * @param recordResults <code>false</code> if this simulation should not create
+	 *                      a results directory
+	 * @param rows          the rows of the grid whose sites are constructed and
+	 *                      initialized, or <code>null</code> for every row (see
+	 *                      {@link Grid#Grid(int, BeeHealthSimulation, Random, boolean[])})
+	 */
+	void initialize(Properties props, boolean recordResults, boolean[] rows) {
 		LOGGER.fine("Entered simulation initialization.");
 		this.props = props;
-		String seedStr = props.getProperty("seed");
-		long seed = 0;
-		if (seedStr == null || seedStr.equals("")) {
-			seed = System.currentTimeMillis();
-			props.setProperty("seed", Long.toString(seed));
-		} else {
-			seed = Long.parseLong(seedStr);
-		}
+		long seed = resolveSeed(props);
 		random.setSeed(seed);
 		feralUsesDomesticSurvivalModel = getBooleanProperty("feral_uses_domestic_survival_model");
 		feedingFactor = getProbabilityProperty("survivalprob.F");
+		if (!props.containsKey("survivalprob.model")) {
+			props.setProperty("survivalprob.model", "linear");
+		}
+		survivalModel = HiveSurvivalProbabilityModel.getModel(props);
+		seasonKernels = SeasonKernels.create(props);
+		normal = NormalGenerator.create(props);
+		maxG = getProbabilityProperty("max_g");
+		activeSites = Boolean.parseBoolean(props.getProperty("active_sites", "false"));
+		winterBatch = new WinterBatch(this);
+		String purchasing = props.getProperty("queen_purchasing", "order_book");
+		if (purchasing.equals("order_book")) {
+			queenOrderBook = new QueenOrderBook(this);
+		} else if (!purchasing.equals("direct")) {
+			System.err.println("'queen_purchasing=" + purchasing + "' is not supported. Use order_book or direct.");
+			System.exit(-1);
+		}
 		iModel = new InheritanceModel(props);
-		stats = new Statistics(props, this);
+		stats = new Statistics(props, this, recordResults);
+		instrumentation = new Instrumentation(Boolean.parseBoolean(props.getProperty("instrumentation", "false")));
+		liveMetrics = LiveMetrics.create(props, stats);
+		if (liveMetrics != null) {
+			instrumentation.addListener(liveMetrics);
+		}
+		trace = EventTrace.create(props, stats.getResultsDir());
+		tiles = TileAggregates.create(props, this, stats.getResultsDir());
 		edgeLength = Integer.parseInt(props.getProperty("edge_length"));
 		simLength = Integer.parseInt(props.getProperty("sim_length"));
 		if (props.containsKey("seed")) {
 			random.setSeed(Long.parseLong(props.getProperty("seed")));
 		}
-		grid = new Grid(edgeLength, this, random);
+		instrumentation.startPhase(-1, Instrumentation.Phase.startup);
+		grid = new Grid(edgeLength, this, random, rows);
 		LOGGER.fine("Grid constructed.");
 		grid.initialize(random, props);
+		instrumentation.endPhase();
+		if (trace != null) {
+			trace.flush();
+		}
 		// This is a light hack. The simulator, in the results directory, creates
 		// a file for every property whose name begins "name" or "desc". The filename
 		// is "<property_name>.txt", and in the file is the value of that property.
@@ -146,10 +232,16 @@ public class BeeHealthSimulation implements Serializable, Runnable {
 		stats.startSimulation();
 		// Record the statistics of the initial system, before it has processed any
 		// years
+		if (tiles != null) {
+			tiles.start(getNumberOfThreads());
+		}
 		for (Site site : grid) {
 			stats.hivesAtEndOfSummer(site);
 		}
 		stats.endOfSummer();
+		if (tiles != null) {
+			tiles.finish();
+		}
 
 		// Now simulate the years.
 		int progressInterval = -1;
@@ -168,6 +260,18 @@ public class BeeHealthSimulation implements Serializable, Runnable {
 		}
 		try {
 			stats.endSimulation();
+			if (instrumentation.enabled) {
+				stats.writeLines("timings.csv", Instrumentation.HEADER, instrumentation.getRows().iterator());
+			}
+			if (trace != null) {
+				trace.close();
+			}
+			if (tiles != null) {
+				tiles.close();
+			}
+			if (liveMetrics != null) {
+				liveMetrics.close();
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.exit(-1);
@@ -182,56 +286,182 @@ public class BeeHealthSimulation implements Serializable, Runnable {
 		return iModel;
 	}
 
+	public HiveSurvivalProbabilityModel getSurvivalModel() {
+		return survivalModel;
+	}
+
+	/**
+	 * @return the number of worker threads (the property 'threads', default 20)
+	 */
+	int getNumberOfThreads() {
+		if (props.containsKey("threads")) {
+			return getIntProperty("threads");
+		}
+		return 20;
+	}
+
+	SeasonKernels getSeasonKernels() {
+		return seasonKernels;
+	}
+
 	public Statistics getSimulationStatistics() {
 		return stats;
 	}
 
+	/** @return the event trace, or <code>null</code> if it is disabled */
+	EventTrace getEventTrace() {
+		return trace;
+	}
+
+	public Instrumentation getInstrumentation() {
+		return instrumentation;
+	}
+
 	/**
 	 * Process a year of the simulation. The years go from fall to fall.
 	 */
 	public void process(boolean verbose) {
+		SimulationEvents.Year yearEvent = new SimulationEvents.Year();
+		yearEvent.begin();
+		if (trace != null) {
+			trace.year = year;
+		}
 		if (verbose) {
 			System.out.println("\tOver-wintering the sites.");
 		}
-		for (Site site : grid) {
-			// Over-winter each hive at the site. Each hive will either die or be ready to
-			// swarm the next summer.
-			site.overWinter();
-		}
-		for (Site site : grid) {
-			stats.hivesAtEndOfWinter(site);
-		}
-		stats.endOfWinter();
+		instrumentation.startPhase(year, Instrumentation.Phase.overWinter);
+		overWinter();
+		grid.updateBreederMarket();
+		grid.updateDroneField();
+		instrumentation.endPhase();
+		instrumentation.startPhase(year, Instrumentation.Phase.census);
+		census(false);
+		instrumentation.endPhase();
 		if (verbose) {
 			System.out.println("\tCompleted over-wintering. Replace dead hives and do some requeening.");
 		}
-		int numberOfThreads = 20;
-		if (props.containsKey("threads")) {
-			numberOfThreads = getIntProperty("threads");
-		}
-		final int NUMBER_OF_THREADS = numberOfThreads;
-//		System.out.println("NUMBER_OF_THREADS=" + NUMBER_OF_THREADS);
-//		System.out.println("Sites and their random numbers:");
-//		for(Site s : grid) {
-//			System.out.println("\t" + s.toString() + ":" + s.random.nextInt());
-//		}
-//		System.out.println("Hives and their random numbers:");
-//		for(Site s : grid) {
-//			for(Hive h : s.syncCopyHives()) {
-//				System.out.println("\t" + h + ":" + h.random.nextInt());
-//			}
-//		}
+		instrumentation.startPhase(year, Instrumentation.Phase.replace);
+		replaceDeadHivesOrRequeenLiveHives();
+		instrumentation.endPhase();
+		if (verbose) {
+			System.out.println("\tCompleted requeening. Swarm if appropriate.");
+		}
+		instrumentation.startPhase(year, Instrumentation.Phase.shuffle);
+		List<Hive> hiveList = shuffleHives();
+		instrumentation.endPhase();
+		instrumentation.startPhase(year, Instrumentation.Phase.swarm);
+		swarm(hiveList);
+		instrumentation.endPhase();
+		instrumentation.startPhase(year, Instrumentation.Phase.endOfSummer);
+		census(true);
+		instrumentation.endPhase();
+		if (trace != null) {
+			trace.flush();
+		}
+		if (yearEvent.shouldCommit()) {
+			yearEvent.year = year;
+			yearEvent.commit();
+		}
+	}
+
+	/**
+	 * Process the next year of the simulation, as {@link #run()} does, but without
+	 * the census of the initial grid or the results. Used by callers that drive
+	 * the simulation a year at a time, such as the macro benchmark.
+	 */
+	void processNextYear() {
+		process(false);
+		year++;
+	}
+
+	// The phases of a year, in the order that process() runs them. They are
+	// package-private so that they can be timed individually.
+
+	/**
+	 * Over-winter each hive at each site. Each hive will either die or be ready to
+	 * swarm the next summer.
+	 */
+	void overWinter() {
+		overWinter(activeSites ? grid.activeSites.liveSites() : grid);
+	}
+
+	/**
+	 * Over-winter each hive at the given sites (e.g., one tile of a
+	 * {@link DistributedSimulation}).
+	 */
+	void overWinter(Iterable<Site> sites) {
+		winterBatch.overWinter(sites);
+	}
+
+	/**
+	 * Record the state of every hive, at the end of winter or the end of summer.
+	 * At the end of summer, the {@link TileAggregates} (if any) are computed by
+	 * worker threads at the same time.
+	 */
+	void census(boolean endOfSummer) {
+		if (endOfSummer && tiles != null) {
+			tiles.start(getNumberOfThreads());
+		}
+		if (activeSites) {
+			ActiveSites active = grid.activeSites;
+			if (endOfSummer) {
+				for (Site site : active.liveSites()) {
+					stats.livingHivesAtEndOfSummer(site);
+				}
+			}
+			for (boolean domestic : new boolean[] { true, false }) {
+				// The year's statistics count hives in ints, as the per-hive census does
+				int living = Math.toIntExact(active.livingHives(domestic));
+				int dead = Math.toIntExact(active.hives(domestic)) - living;
+				if (endOfSummer) {
+					stats.deadHivesAtEndOfSummer(domestic, dead);
+				} else {
+					stats.hivesAtEndOfWinter(domestic, living, dead);
+				}
+			}
+		} else {
+			for (Site site : grid) {
+				if (endOfSummer) {
+					stats.hivesAtEndOfSummer(site);
+				} else {
+					stats.hivesAtEndOfWinter(site);
+				}
+			}
+		}
+		if (endOfSummer) {
+			stats.endOfSummer();
+			if (tiles != null) {
+				tiles.finish();
+			}
+		} else {
+			stats.endOfWinter();
+		}
+	}
+
+	/**
+	 * At each domestic site, replace the dead hives and requeen some of the live
+	 * ones.
+	 */
+	void replaceDeadHivesOrRequeenLiveHives() {
+		final int NUMBER_OF_THREADS = getNumberOfThreads();
+		// Each thread takes a contiguous range of the grid's layout, so that it works
+		// on a compact region of the grid (see SiteLayout).
+		final int[] partition = grid.getLayout().partition(NUMBER_OF_THREADS);
+		if (queenOrderBook != null) {
+			queenOrderBook.replaceDeadHivesOrRequeenLiveHives(partition);
+			return;
+		}
 		Thread[] threads = new Thread[NUMBER_OF_THREADS];
 		for (int i = 0; i < NUMBER_OF_THREADS; i++) {
 			final int TID = i;
 			threads[TID] = new Thread("Worker Thread " + TID) {
 				public void run() {
-					for (int i = TID; i < grid.size(); i += NUMBER_OF_THREADS) {
-						Site site = grid.getSite(i);
-						if (site.domestic) {
-							site.replaceDeadHivesOrRequeenLiveHives();
-						}
+					Instrumentation.ThreadSample sample = instrumentation.startWorker("worker-" + TID);
+					QueenReplacements replacements = new QueenReplacements();
+					for (Site site : domesticSites(partition[TID], partition[TID + 1])) {
+						site.replaceDeadHivesOrRequeenLiveHives(replacements);
 					}
+					instrumentation.endWorker(sample);
 				}
 			};
 			threads[TID].start();
@@ -245,24 +475,63 @@ public class BeeHealthSimulation implements Serializable, Runnable {
 				System.exit(-1);
 			}
 		}
-		if (verbose) {
-			System.out.println("\tCompleted requeening. Swarm if appropriate.");
+	}
+
+	/**
+	 * The domestic sites in <code>[from .. to)</code> of the layout, in layout
+	 * order.
+	 */
+	Iterable<Site> domesticSites(int from, int to) {
+		if (activeSites) {
+			return grid.activeSites.domesticSites(from, to);
+		}
+		List<Site> sites = new ArrayList<>();
+		for (int i = from; i < to; i++) {
+			Site site = grid.getSite(i);
+			if (site.domestic) {
+				sites.add(site);
+			}
 		}
+		return sites;
+	}
+
+	/**
+	 * All of the hives, in the random order in which they are offered the chance
+	 * to swarm. With active sites, only the living hives: a dead hive cannot swarm,
+	 * and a hive that is revived by a swarm this summer is too young to.
+	 */
+	List<Hive> shuffleHives() {
 		List<Hive> hiveList = new LinkedList<>();
-		for (Site site : grid) {
-			hiveList.addAll(site.syncCopyHives());
+		if (activeSites) {
+			for (Site site : grid.activeSites.liveSites()) {
+				for (Hive hive : site.hives()) {
+					if (!hive.dead) {
+						hiveList.add(hive);
+					}
+				}
+			}
+		} else {
+			for (Site site : grid) {
+				hiveList.addAll(Arrays.asList(site.hives()));
+			}
 		}
-		hiveList = randomizeList(hiveList);
-		for(Hive h : hiveList) {
+		return randomizeList(hiveList);
+	}
+
+	/**
+	 * Offer each hive, in order, the chance to swarm.
+	 */
+	void swarm(List<Hive> hiveList) {
+		for (Hive h : hiveList) {
 			h.swarmIfAppropriate();
 		}
-		for (Site site : grid) {
-			stats.hivesAtEndOfSummer(site);
-		}
-		stats.endOfSummer();
 	}
 
-	private List<Hive> randomizeList(List<Hive> hiveList) {
+	/**
+	 * Empty <code>hiveList</code> into a new list, in random order. Package-private
+	 * so that it can be benchmarked.
+	 */
+	List<Hive> randomizeList(List<Hive> hiveList) {
 		List<Hive> result = new ArrayList<>(hiveList.size());
 		while(!hiveList.isEmpty()) {
 			int i = random.nextInt(hiveList.size());
@@ -273,6 +542,26 @@ public class BeeHealthSimulation implements Serializable, Runnable {
 
 	// Some utilities
 
+	/**
+	 * Obtain the seed from the properties. If the seed is not specified (or is the
+	 * empty string), the current time is used, and it is recorded in the
+	 * properties so that the run can be repeated.
+	 * 
+	 * @param props the properties
+	 * @return the seed
+	 */
+	public static long resolveSeed(Properties props) {
+		String seedStr = props.getProperty("seed");
+		long seed = 0;
+		if (seedStr == null || seedStr.equals("")) {
+			seed = System.currentTimeMillis();
+			props.setProperty("seed", Long.toString(seed));
+		} else {
+			seed = Long.parseLong(seedStr);
+		}
+		return seed;
+	}
+
 	/**
 	 * Calls {@link #getProbabilityProperty(Properties, String)}, passing the
 	 * Properties object that the sim was constructed with.
@@ -457,9 +746,55 @@ public class BeeHealthSimulation implements Serializable, Runnable {
 	 * will use the properties specified in defaultvalues.prop except for the
 	 * sim_length property, which will have the value 10.
 	 * 
+	 * If the property <code>storage</code> is <code>offheap</code>, the simulation
+	 * is run by {@link OffHeapSimulation}.
+	 * 
+	 * If the property <code>run_cache</code> names a directory, a run whose
+	 * properties (and simulator) match a cached run is not simulated: its results
+	 * are restored from the cache. See {@link RunCache}.
+	 * 
 	 * @param args
 	 */
 	public static void main(String[] args) {
+		Properties props = parseArguments(args);
+		RunCache cache = RunCache.create(props);
+		if (cache != null && cache.restore()) {
+			return;
+		}
+		String storage = props.getProperty("storage", "heap");
+		Statistics stats = null;
+		if (storage.equals("offheap")) {
+			// Loaded by name: OffHeapSimulation requires a newer Java than the rest of the
+			// simulation.
+			Runnable sim = (Runnable) createPropertiesObject(props, "com.github.glfrazier.bee.OffHeapSimulation");
+			sim.run();
+			try {
+				stats = (Statistics) sim.getClass().getMethod("getSimulationStatistics").invoke(sim);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		} else if (storage.equals("heap")) {
+			BeeHealthSimulation sim = new BeeHealthSimulation();
+			sim.initialize(props);
+			sim.run();
+			stats = sim.getSimulationStatistics();
+		} else {
+			System.err.println("'storage=" + storage + "' is not supported. Use heap or offheap.");
+			System.exit(-1);
+		}
+		if (cache != null) {
+			cache.store(stats.getResultsDir());
+		}
+	}
+
+	/**
+	 * Parse the command-line arguments (see {@link #main(String[])}), loading any
+	 * chain of properties files, and configure logging.
+	 * 
+	 * @param args the command-line arguments
+	 * @return the properties
+	 */
+	public static Properties parseArguments(String[] args) {
 		ConsoleHandler handler = new ConsoleHandler();
 		handler.setLevel(Level.ALL);
 		LOGGER.addHandler(handler);
@@ -501,9 +836,7 @@ public class BeeHealthSimulation implements Serializable, Runnable {
 			LOGGER.setLevel(Level.parse(level));
 		}
 		LOGGER.fine("Inputs have been parsed.");
-		BeeHealthSimulation sim = new BeeHealthSimulation();
-		sim.initialize(props);
-		sim.run();
+		return props;
 	}
 
 	public Properties getProperties() {
@@ -514,8 +847,24 @@ public class BeeHealthSimulation implements Serializable, Runnable {
 		return grid;
 	}
 
+	/**
+	 * A normally distributed value, from the simulation's
+	 * {@link NormalGenerator}, within the range
+	 * <code>[mean - stddev .. min(mean + stddev, max_g)]</code>.
+	 */
 	public double cappedNormal(Random rand, double mean, double stddev) {
-		double max = getProbabilityProperty("max_g");
+		return normal.cappedNormal(rand, mean, stddev, maxG);
+	}
+
+	public NormalGenerator getNormalGenerator() {
+		return normal;
+	}
+
+	/**
+	 * A normally distributed value, from {@link Random#nextGaussian()}, clipped to
+	 * the range <code>[mean - stddev .. min(mean + stddev, max)]</code>.
+	 */
+	public static double cappedNormal(Random rand, double mean, double stddev, double max) {
 		double d = rand.nextGaussian() * stddev + mean;
 		if (d > mean + stddev)
 			d = mean + stddev;
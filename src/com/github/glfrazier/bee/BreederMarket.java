@@ -0,0 +1,252 @@
+package com.github.glfrazier.bee;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * A queen market in which each queen breeder has a share, so that a few large
+ * breeders can dominate it. It is configured by the property
+ * <code>breeder_market</code>:
+ * <dl>
+ * <dt>uniform</dt>
+ * <dd>(The default.) Every living queen breeder is equally likely to sell a
+ * queen; no market is built, and {@link Grid} draws the breeders as it always
+ * has.</dd>
+ * <dt>explicit</dt>
+ * <dd>The shares are listed, comma-separated, in the property
+ * <code>breeder_market.shares</code>, in the order in which the breeders were
+ * chosen ({@link Grid#queenBreeders}). Breeders beyond the end of the list have
+ * no share.</dd>
+ * <dt>zipf</dt>
+ * <dd>The <code>i</code>th breeder (counting from 1, in the same order) has the
+ * share <code>1 / i^s</code>, where <code>s</code> is the property
+ * <code>breeder_market.zipf_exponent</code> (default 1).</dd>
+ * <dt>live_hives</dt>
+ * <dd>Each breeder's share is its number of living hives.</dd>
+ * </dl>
+ *
+ * A breeder with no living hives sells no queens, whatever its share. The
+ * shares are recomputed once a year, after over-wintering (see
+ * {@link #update()}), and a breeder is drawn in O(1) time from Vose alias
+ * tables. The breeders are grouped in blocks of {@link #BLOCK}, with an alias
+ * table for each block and one over the blocks' totals; an update rebuilds
+ * only the blocks in which a share has changed, and then the (small) table over
+ * the blocks. A queen is then bought from one of the chosen breeder's living
+ * hives, chosen as {@link Grid} chooses them.
+ *
+ * @author Greg Frazier
+ *
+ */
+class BreederMarket {
+
+	static final int BLOCK = 64;
+
+	private final List<Site> breeders;
+	private final boolean liveHives;
+
+	/** The configured shares (explicit or zipf); null for live_hives. */
+	private final double[] shares;
+
+	/** The current share of each breeder, as of the last update. */
+	private final double[] weight;
+
+	private final AliasTable[] blocks;
+	private final double[] blockWeight;
+	private final AliasTable top;
+	private boolean anyShare;
+
+	private BreederMarket(List<Site> breeders, double[] shares) {
+		this.breeders = breeders;
+		this.liveHives = shares == null;
+		this.shares = shares;
+		int n = breeders.size();
+		this.weight = new double[n];
+		int numberOfBlocks = (n + BLOCK - 1) / BLOCK;
+		this.blocks = new AliasTable[numberOfBlocks];
+		this.blockWeight = new double[numberOfBlocks];
+		for (int b = 0; b < numberOfBlocks; b++) {
+			blocks[b] = new AliasTable(Math.min(BLOCK, n - b * BLOCK));
+			// NaN, so that the first update builds every block
+			blockWeight[b] = Double.NaN;
+		}
+		this.top = new AliasTable(numberOfBlocks);
+	}
+
+	/**
+	 * Create the market specified by the properties, over the grid's queen
+	 * breeders (which must have been chosen).
+	 *
+	 * @return the market, or <code>null</code> if the market is uniform
+	 */
+	static BreederMarket create(Properties props, List<Site> breeders) {
+		String model = props.getProperty("breeder_market", "uniform");
+		if (model.equals("uniform")) {
+			return null;
+		}
+		if (breeders.isEmpty()) {
+			System.err.println("'breeder_market=" + model + "' requires at least one queen breeder.");
+			System.exit(-1);
+		}
+		double[] shares = null;
+		if (model.equals("explicit")) {
+			shares = new double[breeders.size()];
+			String[] tokens = props.getProperty("breeder_market.shares", "").split(",");
+			if (tokens.length > shares.length) {
+				System.err.println("'breeder_market.shares' lists " + tokens.length + " shares, but there are only "
+						+ shares.length + " queen breeders.");
+				System.exit(-1);
+			}
+			for (int i = 0; i < tokens.length; i++) {
+				try {
+					shares[i] = Double.parseDouble(tokens[i].trim());
+				} catch (NumberFormatException e) {
+					shares[i] = -1;
+				}
+				if (!(shares[i] >= 0) || Double.isInfinite(shares[i])) {
+					System.err.println("'breeder_market.shares' must be a comma-separated list of non-negative numbers. "
+							+ "You specified <" + props.getProperty("breeder_market.shares") + ">.");
+					System.exit(-1);
+				}
+			}
+		} else if (model.equals("zipf")) {
+			double s = 1;
+			if (props.containsKey("breeder_market.zipf_exponent")) {
+				s = BeeHealthSimulation.getDoubleProperty(props, "breeder_market.zipf_exponent");
+			}
+			shares = new double[breeders.size()];
+			for (int i = 0; i < shares.length; i++) {
+				shares[i] = 1 / Math.pow(i + 1, s);
+			}
+		} else if (!model.equals("live_hives")) {
+			System.err.println("'breeder_market=" + model + "' is not supported. Use uniform, explicit, zipf or "
+					+ "live_hives.");
+			System.exit(-1);
+		}
+		BreederMarket market = new BreederMarket(breeders, shares);
+		market.update();
+		return market;
+	}
+
+	/**
+	 * Recompute the breeders' shares from their living hives, and rebuild the
+	 * alias tables of the blocks whose shares have changed.
+	 */
+	void update() {
+		boolean changed = false;
+		for (int b = 0; b < blocks.length; b++) {
+			int from = b * BLOCK;
+			int to = from + blocks[b].size();
+			boolean blockChanged = Double.isNaN(blockWeight[b]);
+			for (int i = from; i < to; i++) {
+				int living = breeders.get(i).livingHiveCount();
+				double w = living == 0 ? 0 : liveHives ? living : shares[i];
+				if (w != weight[i]) {
+					weight[i] = w;
+					blockChanged = true;
+				}
+			}
+			if (blockChanged) {
+				blockWeight[b] = blocks[b].build(weight, from);
+				changed = true;
+			}
+		}
+		if (changed) {
+			anyShare = top.build(blockWeight, 0) > 0;
+		}
+	}
+
+	/**
+	 * Draw a breeder in proportion to the shares.
+	 *
+	 * @return the breeder, or <code>null</code> if no breeder with a share has a
+	 *         living hive
+	 */
+	Site drawBreeder(Random random) {
+		if (!anyShare) {
+			return null;
+		}
+		int b = top.sample(random);
+		return breeders.get(b * BLOCK + blocks[b].sample(random));
+	}
+
+	/**
+	 * A Vose alias table over <code>n</code> weights: a column is drawn uniformly,
+	 * and then either it or its alias, with the column's probability.
+	 */
+	static class AliasTable {
+		private final double[] probability;
+		private final int[] alias;
+		private final double[] scaled;
+		private final int[] small;
+		private final int[] large;
+
+		AliasTable(int n) {
+			probability = new double[n];
+			alias = new int[n];
+			scaled = new double[n];
+			small = new int[n];
+			large = new int[n];
+		}
+
+		int size() {
+			return probability.length;
+		}
+
+		/**
+		 * Build the table from <code>weights[from .. from+size())</code>.
+		 *
+		 * @return the total of the weights; if it is zero, the table must not be
+		 *         sampled
+		 */
+		double build(double[] weights, int from) {
+			int n = probability.length;
+			double total = 0;
+			for (int i = 0; i < n; i++) {
+				total += weights[from + i];
+			}
+			if (total <= 0) {
+				return 0;
+			}
+			int smalls = 0;
+			int larges = 0;
+			for (int i = 0; i < n; i++) {
+				scaled[i] = weights[from + i] * n / total;
+				if (scaled[i] < 1) {
+					small[smalls++] = i;
+				} else {
+					large[larges++] = i;
+				}
+			}
+			while (smalls > 0 && larges > 0) {
+				int s = small[--smalls];
+				int l = large[--larges];
+				probability[s] = scaled[s];
+				alias[s] = l;
+				scaled[l] = (scaled[l] + scaled[s]) - 1;
+				if (scaled[l] < 1) {
+					small[smalls++] = l;
+				} else {
+					large[larges++] = l;
+				}
+			}
+			// What remains is (up to rounding) exactly 1
+			while (larges > 0) {
+				int l = large[--larges];
+				probability[l] = 1;
+				alias[l] = l;
+			}
+			while (smalls > 0) {
+				int s = small[--smalls];
+				probability[s] = 1;
+				alias[s] = s;
+			}
+			return total;
+		}
+
+		int sample(Random random) {
+			int i = random.nextInt(probability.length);
+			return random.nextDouble() < probability[i] ? i : alias[i];
+		}
+	}
+}
@@ -0,0 +1,315 @@
+package com.github.glfrazier.bee;
+
+import static com.github.glfrazier.bee.BeeHealthSimulation.LOGGER;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Run a simulation across several processes on one host. The rows of the
+ * {@link Grid} are divided into contiguous bands (tiles), and each tile is
+ * simulated by a {@link TileWorker} running in its own JVM. This class is the
+ * coordinator: it launches the workers, relays the messages that they exchange
+ * at each phase boundary, merges their per-year statistics and writes the
+ * results, exactly as {@link BeeHealthSimulation} does.
+ *
+ * Each worker keeps a read-only copy (a halo) of the rows that are within
+ * <code>max(mating_flight_distance + drone_participation_distance,
+ * swarm_distance)</code> of its tile, refreshed after over-wintering and after
+ * requeening. Queen purchases and swarms that cross tile boundaries are
+ * forwarded to the owning worker in batches. Because a swarm reads its
+ * neighbors' state as of the start of the swarm phase, and because purchases
+ * are fulfilled in a different order, the results match the single-process
+ * engine statistically rather than exactly.
+ *
+ * The simulation is run just like {@link BeeHealthSimulation#main(String[])},
+ * with these additional properties:
+ * <dl>
+ * <dt>workers</dt>
+ * <dd>The number of worker processes (required).</dd>
+ * <dt>worker_port</dt>
+ * <dd>The localhost port that workers connect to. Defaults to 0 (any free
+ * port).</dd>
+ * <dt>launch_workers</dt>
+ * <dd>If <code>true</code> (the default), the coordinator launches the workers
+ * itself, using the same JVM and classpath. If <code>false</code>, it prints the
+ * port and waits for the workers to be started by hand with
+ * <code>java com.github.glfrazier.bee.TileWorker &lt;host&gt; &lt;port&gt;</code>.</dd>
+ * <dt>worker_jvm_args</dt>
+ * <dd>Space-separated JVM arguments for launched workers (e.g.,
+ * <code>-Xmx4g</code>).</dd>
+ * </dl>
+ *
+ * @author Greg Frazier
+ *
+ */
+public class DistributedSimulation {
+
+	private final Properties props;
+	private final int numberOfWorkers;
+	private final Connection[] workers;
+	private final List<Process> processes = new ArrayList<>();
+	private Statistics stats;
+
+	public DistributedSimulation(Properties props) {
+		this.props = props;
+		this.numberOfWorkers = BeeHealthSimulation.getIntProperty(props, "workers");
+		int edgeLength = BeeHealthSimulation.getIntProperty(props, "edge_length");
+		if (numberOfWorkers < 1 || numberOfWorkers > edgeLength) {
+			System.err.println("'workers' must be in the range [1.." + edgeLength + "]. You specified "
+					+ numberOfWorkers);
+			System.exit(-1);
+		}
+		if (!props.getProperty("breeder_market", "uniform").equals("uniform")) {
+			System.err.println("A distributed simulation supports only 'breeder_market=uniform'.");
+			System.exit(-1);
+		}
+		if (!props.getProperty("mating_engine", "exact").equals("exact")) {
+			System.err.println("A distributed simulation supports only 'mating_engine=exact'.");
+			System.exit(-1);
+		}
+		if (Boolean.parseBoolean(props.getProperty("event_trace", "false"))) {
+			System.err.println("A distributed simulation does not support 'event_trace'.");
+			System.exit(-1);
+		}
+		if (Boolean.parseBoolean(props.getProperty("lineage_tracking", "false"))) {
+			System.err.println("A distributed simulation does not support 'lineage_tracking'.");
+			System.exit(-1);
+		}
+		if (props.containsKey("tile_aggregates") && BeeHealthSimulation.getIntProperty(props, "tile_aggregates") != 0) {
+			System.err.println("A distributed simulation does not support 'tile_aggregates'.");
+			System.exit(-1);
+		}
+		if (Boolean.parseBoolean(props.getProperty("live_metrics", "false"))) {
+			System.err.println("A distributed simulation does not support 'live_metrics'.");
+			System.exit(-1);
+		}
+		this.workers = new Connection[numberOfWorkers];
+	}
+
+	/**
+	 * Launch (or wait for) the workers and run the simulation.
+	 */
+	public void run() throws IOException {
+		BeeHealthSimulation.resolveSeed(props);
+		int port = Integer.parseInt(props.getProperty("worker_port", "0"));
+		boolean launch = Boolean.parseBoolean(props.getProperty("launch_workers", "true"));
+		try (ServerSocket server = new ServerSocket(port, numberOfWorkers, InetAddress.getLoopbackAddress())) {
+			if (launch) {
+				launchWorkers(server.getLocalPort());
+			} else {
+				System.out.println("Waiting for " + numberOfWorkers + " workers on port " + server.getLocalPort());
+			}
+			for (int i = 0; i < numberOfWorkers; i++) {
+				workers[i] = new Connection(server.accept());
+				workers[i].send(i);
+				workers[i].send(numberOfWorkers);
+				workers[i].send(props);
+			}
+		}
+		LOGGER.fine("All " + numberOfWorkers + " workers have connected.");
+		stats = new Statistics(props, null);
+
+		// The initial state of the system
+		int liveQueenBreederHives = gatherYear();
+		props.setProperty("desc_number_of_hives_" + stats.getHivesCreatedThisYear(),
+				"" + stats.getHivesCreatedThisYear());
+		stats.writeProperties();
+		stats.writeSites("sim_start_sites.csv", gatherSites());
+		stats.endOfSummer();
+		broadcast(liveQueenBreederHives);
+
+		int simLength = BeeHealthSimulation.getIntProperty(props, "sim_length");
+		int progressInterval = -1;
+		if (props.containsKey("progress_interval")) {
+			progressInterval = BeeHealthSimulation.getIntProperty(props, "progress_interval");
+		}
+		for (int year = 0; year < simLength; year++) {
+			boolean verbose = (progressInterval > 0 && year % progressInterval == 0);
+			if (verbose) {
+				System.out.println("Processing year " + year);
+			}
+			for (int i = 0; i < TileWorker.RELAYS_PER_YEAR; i++) {
+				relay();
+			}
+			liveQueenBreederHives = gatherYear();
+			stats.endOfSummer();
+			broadcast(liveQueenBreederHives);
+			if (verbose) {
+				System.out.println("Completed processing year " + year);
+			}
+		}
+		stats.writeSites("sites.csv", gatherSites());
+		stats.writeResults();
+		for (Connection worker : workers) {
+			worker.close();
+		}
+		for (Process p : processes) {
+			try {
+				p.waitFor();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void launchWorkers(int port) throws IOException {
+		String java = ProcessHandle.current().info().command().orElse("java");
+		for (int i = 0; i < numberOfWorkers; i++) {
+			List<String> command = new ArrayList<>();
+			command.add(java);
+			String jvmArgs = props.getProperty("worker_jvm_args", "").trim();
+			if (!jvmArgs.isEmpty()) {
+				command.addAll(Arrays.asList(jvmArgs.split("\\s+")));
+			}
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(TileWorker.class.getName());
+			command.add(InetAddress.getLoopbackAddress().getHostAddress());
+			command.add(Integer.toString(port));
+			ProcessBuilder pb = new ProcessBuilder(command);
+			pb.inheritIO();
+			processes.add(pb.start());
+		}
+	}
+
+	/**
+	 * Receive an outbox (an array with one, possibly null, message per worker) from
+	 * each worker, and deliver to each worker an inbox holding the messages
+	 * addressed to it, indexed by sender.
+	 */
+	private void relay() throws IOException {
+		Object[][] outboxes = new Object[numberOfWorkers][];
+		for (int i = 0; i < numberOfWorkers; i++) {
+			outboxes[i] = (Object[]) workers[i].receive();
+		}
+		for (int dest = 0; dest < numberOfWorkers; dest++) {
+			Object[] inbox = new Object[numberOfWorkers];
+			for (int src = 0; src < numberOfWorkers; src++) {
+				inbox[src] = outboxes[src][dest];
+			}
+			workers[dest].send(inbox);
+		}
+	}
+
+	/**
+	 * Merge each worker's statistics for the year.
+	 *
+	 * @return the total number of live queen breeder hives
+	 */
+	private int gatherYear() throws IOException {
+		int liveQueenBreederHives = 0;
+		for (Connection worker : workers) {
+			YearReport report = (YearReport) worker.receive();
+			stats.addYearStatistics(report.statistics);
+			liveQueenBreederHives += report.liveQueenBreederHives;
+		}
+		return liveQueenBreederHives;
+	}
+
+	/**
+	 * The state of every site, in tile (and so, row-major) order.
+	 */
+	private Iterator<String> gatherSites() throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (Connection worker : workers) {
+			lines.addAll(Arrays.asList((String[]) worker.receive()));
+		}
+		return lines.iterator();
+	}
+
+	private void broadcast(Object message) throws IOException {
+		for (Connection worker : workers) {
+			worker.send(message);
+		}
+	}
+
+	/**
+	 * A worker's statistics for one year.
+	 */
+	static class YearReport implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final Object statistics;
+		final int liveQueenBreederHives;
+
+		YearReport(Object statistics, int liveQueenBreederHives) {
+			this.statistics = statistics;
+			this.liveQueenBreederHives = liveQueenBreederHives;
+		}
+	}
+
+	/**
+	 * An object stream over a socket.
+	 */
+	static class Connection {
+		private final Socket socket;
+		private final ObjectOutputStream out;
+		private final ObjectInputStream in;
+
+		Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			socket.setTcpNoDelay(true);
+			out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+			out.flush();
+			in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+		}
+
+		void send(Object o) throws IOException {
+			out.writeObject(o);
+			// Do not let the stream hold references to everything ever sent
+			out.reset();
+			out.flush();
+		}
+
+		Object receive() throws IOException {
+			try {
+				return in.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+		}
+
+		void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Run a distributed simulation. The arguments are the same as those of
+	 * {@link BeeHealthSimulation#main(String[])}, plus the property
+	 * <code>workers</code>:
+	 *
+	 * <pre>
+	 * java -cp bin com.github.glfrazier.bee.DistributedSimulation properties_file=propertyfiles/defaultvalues.prop workers=4
+	 * </pre>
+	 */
+	public static void main(String[] args) {
+		Properties props = BeeHealthSimulation.parseArguments(args);
+		RunCache cache = RunCache.create(props);
+		if (cache != null && cache.restore()) {
+			return;
+		}
+		try {
+			DistributedSimulation sim = new DistributedSimulation(props);
+			sim.run();
+			if (cache != null) {
+				cache.store(sim.stats.getResultsDir());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.github.glfrazier.bee;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The living hives (and their queens' genes, which are also their drones'
+ * genes) within the drone participation distance of one site: the drones that a
+ * queen finds when she flies to that site. Queen breeder sites keep one of these
+ * for each {@link Direction} (see {@link Site#matingFlight(Hive)}), so that the
+ * thousands of queens that a breeder sells each year do not each rebuild the
+ * same neighborhood.
+ *
+ * An area records the {@link Site#version} of every site in it, and is current
+ * only while none of those sites has changed (a hive died, was revived,
+ * replaced or requeened). In practice, a breeder's areas are rebuilt once after
+ * over-wintering and are then reused until the swarms begin.
+ *
+ * The hives are held in the order of
+ * {@link Grid#getNeighborhoodLivingHives(Site, int)}, so a mating flight that
+ * samples from an area draws exactly the drones that it would draw from the
+ * grid.
+ *
+ * @author Greg Frazier
+ *
+ */
+class DroneCongregationArea {
+
+	private final Site[] sites;
+	private final int[] versions;
+	private final Hive[] hives;
+	final double[] genes;
+
+	DroneCongregationArea(Grid grid, Site center, int radius) {
+		Set<Site> nbrs = grid.getNeighborsOf(center, radius);
+		sites = new Site[nbrs.size() + 1];
+		sites[0] = center;
+		int n = 1;
+		for (Site s : nbrs) {
+			sites[n++] = s;
+		}
+		// Record the versions before reading the hives, so that a change made while
+		// the area is being built leaves it out of date.
+		versions = new int[sites.length];
+		for (int i = 0; i < sites.length; i++) {
+			versions[i] = sites[i].version;
+		}
+		List<Hive> living = new ArrayList<>();
+		for (Site s : sites) {
+			for (Hive h : s.hives()) {
+				if (!h.dead) {
+					living.add(h);
+				}
+			}
+		}
+		hives = living.toArray(new Hive[living.size()]);
+		genes = new double[hives.length];
+		for (int i = 0; i < hives.length; i++) {
+			genes[i] = hives[i].getBabyDrone();
+		}
+	}
+
+	/** @return <code>true</code> if no site in the area has changed */
+	boolean isCurrent() {
+		for (int i = 0; i < sites.length; i++) {
+			if (sites[i].version != versions[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	int size() {
+		return hives.length;
+	}
+
+	/** @return the position of <code>hive</code> in the area, or -1 */
+	int indexOf(Hive hive) {
+		for (int i = 0; i < hives.length; i++) {
+			if (hives[i] == hive) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,374 @@
+package com.github.glfrazier.bee;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * An approximate mating engine (the property <code>mating_engine=density</code>).
+ * Once a year, after over-wintering, the genes of the living hives are binned
+ * into <code>mating_density.bins</code> equal bins spanning the year's range of
+ * genes, and, for every site and bin, the number of living hives within
+ * <code>drone_participation_distance</code> of the site (the hives that
+ * {@link Grid#getNeighborhoodLivingHives(Site, int)} would return) and the sum
+ * of their genes are computed. A mating flight then draws its drones from the
+ * field at its destination site, rather than visiting the destination's
+ * neighborhood: each drone is drawn from a bin in proportion to its count, and
+ * has the mean gene of that bin's hives. The cost of a flight no longer grows
+ * with the radius of the neighborhood.
+ *
+ * The neighborhood is that of {@link Grid#getNeighborsOf(Site, int)}, on the
+ * torus: the rows at offsets <code>dx = -r .. r</code>, each a segment of
+ * half-width <code>r - dx</code> centered on the site's column. For each bin,
+ * the field is computed from prefix sums along the rows of the grid: the
+ * neighborhood is the union of 2r+1 row segments, each summed in O(1), so a bin
+ * costs O(edge_length^2 * r). The field holds an int and a float per site and
+ * bin.
+ *
+ * The approximation has three parts:
+ * <ul>
+ * <li>The drones are the bins' means, so the spread of the genes within a bin
+ * is lost; the mean of the drones' genes is unbiased. More bins are closer to
+ * the exact engine.</li>
+ * <li>The field reflects the hives as they were after over-wintering; the
+ * replacements, swarms and deaths of the summer are not seen until the next
+ * year.</li>
+ * <li>The flying hive's own drones are excluded from the bin of its current
+ * queen (if that bin is not empty), which is its bin in the field unless its
+ * queen has changed this year.</li>
+ * </ul>
+ * The number of hives at each site is exact, so a flight fails exactly when an
+ * exact flight at the start of the summer would. {@link #main(String[])}
+ * compares the field with the exact neighborhoods.
+ *
+ * @author Greg Frazier
+ *
+ */
+class DroneDensityField {
+
+	private final Grid grid;
+	private final SiteLayout layout;
+	private final int edgeLength;
+	private final int radius;
+	private final int bins;
+
+	/** The number of hives, by site (in layout order) and bin. */
+	private final int[] counts;
+	/** The sum of the genes of those hives. */
+	private final float[] geneSums;
+
+	/** The bins span [low .. low + bins * width). */
+	private double low;
+	private double width;
+
+	DroneDensityField(Grid grid, int radius, int bins) {
+		this.grid = grid;
+		this.layout = grid.getLayout();
+		this.edgeLength = grid.getEdgeLength();
+		this.radius = radius;
+		this.bins = bins;
+		if (4 * radius + 1 > edgeLength) {
+			System.err.println("'mating_engine=density' requires that the grid be wider than a neighborhood: "
+					+ "edge_length must be at least 4 * drone_participation_distance + 1.");
+			System.exit(-1);
+		}
+		this.counts = new int[edgeLength * edgeLength * bins];
+		this.geneSums = new float[counts.length];
+	}
+
+	/**
+	 * Create the field specified by the property 'mating_engine', and compute it.
+	 *
+	 * @return the field, or <code>null</code> if the engine is exact
+	 */
+	static DroneDensityField create(Properties props, Grid grid) {
+		String engine = props.getProperty("mating_engine", "exact");
+		if (engine.equals("exact")) {
+			return null;
+		}
+		if (!engine.equals("density")) {
+			System.err.println("'mating_engine=" + engine + "' is not supported. Use exact or density.");
+			System.exit(-1);
+		}
+		int bins = 16;
+		if (props.containsKey("mating_density.bins")) {
+			bins = BeeHealthSimulation.getIntProperty(props, "mating_density.bins");
+		}
+		if (bins < 1) {
+			System.err.println("'mating_density.bins' must be at least 1. You specified " + bins);
+			System.exit(-1);
+		}
+		DroneDensityField field = new DroneDensityField(grid,
+				BeeHealthSimulation.getIntProperty(props, "drone_participation_distance"), bins);
+		field.update();
+		return field;
+	}
+
+	/**
+	 * Recompute the field from the living hives.
+	 */
+	void update() {
+		int size = edgeLength * edgeLength;
+		// The living hives' sites (row-major) and genes, and the range of the genes
+		int[] siteOf = new int[64];
+		double[] geneOf = new double[64];
+		int hives = 0;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int x = 0; x < edgeLength; x++) {
+			for (int y = 0; y < edgeLength; y++) {
+				for (Hive h : grid.getSite(x, y).hives()) {
+					if (h.dead) {
+						continue;
+					}
+					if (hives == siteOf.length) {
+						siteOf = Arrays.copyOf(siteOf, 2 * hives);
+						geneOf = Arrays.copyOf(geneOf, 2 * hives);
+					}
+					siteOf[hives] = x * edgeLength + y;
+					geneOf[hives] = h.getBabyDrone();
+					min = Math.min(min, geneOf[hives]);
+					max = Math.max(max, geneOf[hives]);
+					hives++;
+				}
+			}
+		}
+		low = hives == 0 ? 0 : min;
+		width = hives == 0 || max == min ? 1 : (max - min) / bins;
+
+		// Sort the hives by bin
+		int[] binStart = new int[bins + 1];
+		int[] binOf = new int[hives];
+		for (int i = 0; i < hives; i++) {
+			binOf[i] = bin(geneOf[i]);
+			binStart[binOf[i] + 1]++;
+		}
+		for (int b = 0; b < bins; b++) {
+			binStart[b + 1] += binStart[b];
+		}
+		int[] next = Arrays.copyOf(binStart, bins);
+		int[] sortedSite = new int[hives];
+		double[] sortedGene = new double[hives];
+		for (int i = 0; i < hives; i++) {
+			int j = next[binOf[i]]++;
+			sortedSite[j] = siteOf[i];
+			sortedGene[j] = geneOf[i];
+		}
+
+		// For each bin, the prefix sums along each row (row x's sums are at
+		// [x * (edgeLength + 1) .. (x + 1) * (edgeLength + 1)) ), and the neighborhoods
+		int[] histogram = new int[size];
+		double[] sums = new double[size];
+		int[] countPrefix = new int[edgeLength * (edgeLength + 1)];
+		double[] sumPrefix = new double[countPrefix.length];
+		for (int b = 0; b < bins; b++) {
+			Arrays.fill(histogram, 0);
+			Arrays.fill(sums, 0);
+			for (int j = binStart[b]; j < binStart[b + 1]; j++) {
+				histogram[sortedSite[j]]++;
+				sums[sortedSite[j]] += sortedGene[j];
+			}
+			for (int x = 0; x < edgeLength; x++) {
+				int row = x * (edgeLength + 1);
+				for (int y = 0; y < edgeLength; y++) {
+					countPrefix[row + y + 1] = countPrefix[row + y] + histogram[x * edgeLength + y];
+					sumPrefix[row + y + 1] = sumPrefix[row + y] + sums[x * edgeLength + y];
+				}
+			}
+			for (int x = 0; x < edgeLength; x++) {
+				for (int y = 0; y < edgeLength; y++) {
+					int count = 0;
+					double sum = 0;
+					for (int dx = -radius; dx <= radius; dx++) {
+						int row = wrap(x + dx) * (edgeLength + 1);
+						int half = radius - dx;
+						int lo = y - half;
+						int hi = y + half + 1;
+						if (lo < 0) {
+							count += countPrefix[row + edgeLength] - countPrefix[row + lo + edgeLength]
+									+ countPrefix[row + hi];
+							sum += sumPrefix[row + edgeLength] - sumPrefix[row + lo + edgeLength] + sumPrefix[row + hi];
+						} else if (hi > edgeLength) {
+							count += countPrefix[row + edgeLength] - countPrefix[row + lo]
+									+ countPrefix[row + hi - edgeLength];
+							sum += sumPrefix[row + edgeLength] - sumPrefix[row + lo] + sumPrefix[row + hi - edgeLength];
+						} else {
+							count += countPrefix[row + hi] - countPrefix[row + lo];
+							sum += sumPrefix[row + hi] - sumPrefix[row + lo];
+						}
+					}
+					int k = layout.index(x, y) * bins + b;
+					counts[k] = count;
+					geneSums[k] = (float) sum;
+				}
+			}
+		}
+	}
+
+	private int wrap(int i) {
+		return Math.floorMod(i, edgeLength);
+	}
+
+	/** The bin of a gene; genes outside the year's range go in the nearest bin. */
+	int bin(double gene) {
+		int b = (int) ((gene - low) / width);
+		return b < 0 ? 0 : b >= bins ? bins - 1 : b;
+	}
+
+	/** The number of living hives in the neighborhood of the site. */
+	int hives(Site site) {
+		int total = 0;
+		int base = site.index * bins;
+		for (int b = 0; b < bins; b++) {
+			total += counts[base + b];
+		}
+		return total;
+	}
+
+	/**
+	 * @return the bin from which the flying hive's own drones are excluded at the
+	 *         site, or -1 if there is none
+	 */
+	int excludedBin(Site site, Hive hive) {
+		if (hive.dead || !inNeighborhood(hive.getSite(), site)) {
+			return -1;
+		}
+		int b = bin(hive.getBabyDrone());
+		return counts[site.index * bins + b] > 0 ? b : -1;
+	}
+
+	/** @return true if the site is in the neighborhood of the center */
+	private boolean inNeighborhood(Site site, Site center) {
+		int dx = offset(site.x - center.x);
+		int dy = offset(site.y - center.y);
+		return dx >= -radius && dx <= radius && Math.abs(dy) <= radius - dx;
+	}
+
+	/** The offset between two coordinates on the torus, in (-edge/2 .. edge/2]. */
+	private int offset(int d) {
+		d = Math.floorMod(d, edgeLength);
+		return d > edgeLength / 2 ? d - edgeLength : d;
+	}
+
+	/**
+	 * Draw a drone from the neighborhood of the site.
+	 *
+	 * @param available the number of hives, less the excluded one
+	 * @param excluded  the excluded bin, or -1
+	 */
+	double drone(Site site, int available, int excluded, Random random) {
+		int j = random.nextInt(available);
+		int base = site.index * bins;
+		for (int b = 0; true; b++) {
+			int count = counts[base + b] - (b == excluded ? 1 : 0);
+			if (j < count) {
+				return geneSums[base + b] / counts[base + b];
+			}
+			j -= count;
+		}
+	}
+
+	/**
+	 * Compare the field with the exact neighborhoods. The arguments are those of
+	 * {@link BeeHealthSimulation#main(String[])}, plus <code>years</code> (the
+	 * number of years to simulate first, default 10) and <code>samples</code> (the
+	 * number of sites to compare, default 1000). For each number of bins, it
+	 * reports the mean and largest difference between the mean gene of each
+	 * site's neighborhood and that of the field, and the mean and largest
+	 * Kolmogorov-Smirnov distance between the two distributions of genes.
+	 *
+	 * <pre>
+	 * java -cp bin com.github.glfrazier.bee.DroneDensityField properties_file=propertyfiles/defaultvalues.prop edge_length=200
+	 * </pre>
+	 */
+	public static void main(String[] args) {
+		Properties props = BeeHealthSimulation.parseArguments(args);
+		int years = Integer.parseInt(props.getProperty("years", "10"));
+		int samples = Integer.parseInt(props.getProperty("samples", "1000"));
+		props.setProperty("mating_engine", "exact");
+		BeeHealthSimulation sim = new BeeHealthSimulation();
+		sim.initialize(props, false);
+		for (int year = 0; year < years; year++) {
+			sim.process(false);
+		}
+		Grid grid = sim.getGrid();
+		int radius = BeeHealthSimulation.getIntProperty(props, "drone_participation_distance");
+		Random random = new Random(0);
+		Site[] sites = new Site[samples];
+		double[][] exact = new double[samples][];
+		for (int i = 0; i < samples; i++) {
+			sites[i] = grid.getSite(random.nextInt(grid.size()));
+			List<Hive> hives = grid.getNeighborhoodLivingHives(sites[i], radius);
+			exact[i] = new double[hives.size()];
+			for (int j = 0; j < exact[i].length; j++) {
+				exact[i][j] = hives.get(j).getBabyDrone();
+			}
+			Arrays.sort(exact[i]);
+		}
+		System.out.println("years=" + years + ", samples=" + samples + ", radius=" + radius);
+		System.out.println("bins\tupdate_ms\tmean|dmean|\tmax|dmean|\tmeanKS\tmaxKS\tcount_mismatches");
+		for (int bins : new int[] { 1, 2, 4, 8, 16, 32, 64 }) {
+			long start = System.nanoTime();
+			DroneDensityField field = new DroneDensityField(grid, radius, bins);
+			field.update();
+			long elapsed = System.nanoTime() - start;
+			double totalDMean = 0;
+			double maxDMean = 0;
+			double totalKS = 0;
+			double maxKS = 0;
+			int mismatches = 0;
+			int compared = 0;
+			for (int i = 0; i < samples; i++) {
+				int n = field.hives(sites[i]);
+				if (n != exact[i].length) {
+					mismatches++;
+				}
+				if (n == 0 || exact[i].length == 0) {
+					continue;
+				}
+				compared++;
+				int base = sites[i].index * bins;
+				double exactMean = 0;
+				for (double g : exact[i]) {
+					exactMean += g;
+				}
+				exactMean /= exact[i].length;
+				double fieldMean = 0;
+				for (int b = 0; b < bins; b++) {
+					fieldMean += field.geneSums[base + b];
+				}
+				fieldMean /= n;
+				double dMean = Math.abs(fieldMean - exactMean);
+				totalDMean += dMean;
+				maxDMean = Math.max(maxDMean, dMean);
+				// The KS distance between the sample and the field's weighted atoms, which
+				// are in increasing order
+				double ks = 0;
+				int j = 0;
+				int below = 0;
+				for (int b = 0; b < bins; b++) {
+					int count = field.counts[base + b];
+					if (count == 0) {
+						continue;
+					}
+					double atom = field.geneSums[base + b] / count;
+					int m = exact[i].length;
+					while (j < m && exact[i][j] < atom) {
+						j++;
+						ks = Math.max(ks, Math.abs((double) j / m - (double) below / n));
+					}
+					below += count;
+					while (j < m && exact[i][j] <= atom) {
+						j++;
+					}
+					ks = Math.max(ks, Math.abs((double) j / m - (double) below / n));
+				}
+				totalKS += ks;
+				maxKS = Math.max(maxKS, ks);
+			}
+			System.out.println(bins + "\t" + String.format("%.1f\t%.6f\t%.6f\t%.4f\t%.4f\t%d", elapsed / 1e6,
+					totalDMean / compared, maxDMean, totalKS / compared, maxKS, mismatches));
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package com.github.glfrazier.bee;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A binary trace of the lives of the hives (the property
+ * <code>event_trace=true</code>), written to <code>events.trace</code> in the
+ * results directory and read with {@link EventTraceReader}. The hooks are in
+ * {@link Hive} and {@link Grid}; when the trace is disabled,
+ * {@link Grid#trace} is <code>null</code> and a hook costs one test.
+ * <p>
+ * Each thread writes its events into its own buffer of {@link #CHUNK} bytes.
+ * A full buffer is queued for a background thread, which writes it to the file
+ * and returns it to a pool, so a thread never waits on the disk unless the
+ * queue of {@link #QUEUED} buffers is full. The simulation calls
+ * {@link #flush()} at the end of its initialization and of each year, when no
+ * worker thread is running, to queue the partly filled buffers. The events of one year are therefore all written
+ * before those of the next, but within a year the threads' events are
+ * interleaved a buffer at a time.
+ * <p>
+ * The file is a header ({@link #MAGIC}, then the version and the record size
+ * as ints) followed by records of {@link #RECORD} bytes, big-endian:
+ *
+ * <pre>
+ * byte   type      see {@link Type}
+ * byte   flags     bit 0: the site (x, y) is domestic; bit 1: see {@link Type}
+ * short  year      -1 during initialization
+ * int    x, y      the site of the hive
+ * int    otherX, otherY   another site (see {@link Type}), or -1
+ * int    count     see {@link Type}
+ * double gene      the gene of the queen
+ * </pre>
+ *
+ * @author Greg Frazier
+ *
+ */
+class EventTrace {
+
+	static final String MAGIC = "BEETRACE";
+	static final int VERSION = 1;
+	static final int RECORD = 32;
+	static final int CHUNK = RECORD * 2048;
+	static final int QUEUED = 64;
+
+	/** Bit 0 of the flags. */
+	static final int DOMESTIC = 1;
+	/** Bit 1 of the flags. */
+	static final int FLAG = 2;
+
+	/**
+	 * The kinds of event. The fields that are not listed are -1 (the other site)
+	 * or 0.
+	 */
+	enum Type {
+		/**
+		 * A hive is born: count is 0 when the grid is initialized, 1 when a keeper
+		 * installs a purchased queen and 2 when a swarm moves into a dead hive.
+		 */
+		BIRTH,
+		/** A hive dies over the winter: count is its age. */
+		WINTER_DEATH,
+		/** A hive dies of old age: count is its age. */
+		OLD_AGE_DEATH,
+		/**
+		 * A hive swarms: the other site is the site that the swarm moves to, or -1 if
+		 * it found none; the gene is that of the departing queen.
+		 */
+		SWARM,
+		/**
+		 * A keeper buys a queen: (x, y) is the buyer, the other site is the queen
+		 * breeder, count is the number of the queen's drones, and the flag is set if
+		 * the breeder's mating flight failed and the mother hive's drones were used.
+		 */
+		PURCHASE,
+		/**
+		 * A queen flies from the hive at (x, y) (a swarming hive's daughter, or a
+		 * queen raised for sale): count is the number of drones, and the flag is set
+		 * if she found none.
+		 */
+		MATING_FLIGHT
+	}
+
+	/** The year that is being simulated; -1 during initialization. */
+	volatile int year = -1;
+
+	private final FileChannel channel;
+	private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(QUEUED);
+	private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(QUEUED);
+	private final ConcurrentLinkedQueue<Buffer> buffers = new ConcurrentLinkedQueue<>();
+	private final ThreadLocal<Buffer> buffer = ThreadLocal.withInitial(this::newBuffer);
+	private final Thread writer;
+	private volatile IOException failure;
+
+	/** Queued to stop the writer. */
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	private EventTrace(File file) throws IOException {
+		channel = new FileOutputStream(file).getChannel();
+		ByteBuffer header = ByteBuffer.allocate(MAGIC.length() + 8);
+		header.put(MAGIC.getBytes(StandardCharsets.US_ASCII)).putInt(VERSION).putInt(RECORD).flip();
+		channel.write(header);
+		writer = new Thread("Event Trace Writer") {
+			public void run() {
+				drain();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Create the trace specified by the property 'event_trace' (default false).
+	 *
+	 * @param resultsDir the directory in which to write the trace; if
+	 *                   <code>null</code>, there is no trace
+	 * @return the trace, or <code>null</code> if it is disabled
+	 */
+	static EventTrace create(Properties props, File resultsDir) {
+		if (!Boolean.parseBoolean(props.getProperty("event_trace", "false")) || resultsDir == null) {
+			return null;
+		}
+		if (BeeHealthSimulation.getIntProperty(props, "sim_length") > Short.MAX_VALUE) {
+			System.err.println("'event_trace' supports at most " + Short.MAX_VALUE + " years.");
+			System.exit(-1);
+		}
+		try {
+			return new EventTrace(new File(resultsDir, "events.trace"));
+		} catch (IOException e) {
+			System.err.println("Failed to create the event trace: " + e);
+			System.exit(-1);
+		}
+		// unreachable code
+		return null;
+	}
+
+	/** Record an event at the hive's site. */
+	void record(Type type, Site site, boolean flag, Site other, int count, double gene) {
+		Buffer b = buffer.get();
+		if (b.bytes.remaining() < RECORD) {
+			b.bytes = queue(b.bytes);
+		}
+		b.bytes.put((byte) type.ordinal()).put((byte) ((site.domestic ? DOMESTIC : 0) | (flag ? FLAG : 0)))
+				.putShort((short) year).putInt(site.x).putInt(site.y).putInt(other == null ? -1 : other.x)
+				.putInt(other == null ? -1 : other.y).putInt(count).putDouble(gene);
+	}
+
+	/**
+	 * Queue the events that every thread has recorded. Must not be called while
+	 * other threads are recording events.
+	 */
+	void flush() {
+		for (Iterator<Buffer> iter = buffers.iterator(); iter.hasNext();) {
+			Buffer b = iter.next();
+			if (b.bytes.position() > 0) {
+				b.bytes = queue(b.bytes);
+			}
+			if (!b.owner.isAlive()) {
+				// A worker thread of a phase that has completed
+				free.offer(b.bytes);
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Write the remaining events and close the file.
+	 */
+	void close() throws IOException {
+		flush();
+		put(END);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		}
+		channel.close();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private Buffer newBuffer() {
+		Buffer b = new Buffer(Thread.currentThread(), allocate());
+		buffers.add(b);
+		return b;
+	}
+
+	/** Queue a buffer for writing, and return an empty one. */
+	private ByteBuffer queue(ByteBuffer bytes) {
+		bytes.flip();
+		put(bytes);
+		return allocate();
+	}
+
+	private ByteBuffer allocate() {
+		ByteBuffer bytes = free.poll();
+		return bytes == null ? ByteBuffer.allocate(CHUNK) : bytes;
+	}
+
+	private void put(ByteBuffer bytes) {
+		try {
+			full.put(bytes);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			ByteBuffer bytes;
+			try {
+				bytes = full.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (bytes == END) {
+				return;
+			}
+			try {
+				while (bytes.hasRemaining()) {
+					channel.write(bytes);
+				}
+			} catch (IOException e) {
+				failure = e;
+			}
+			bytes.clear();
+			free.offer(bytes);
+		}
+	}
+
+	/** A thread's buffer. */
+	private static class Buffer {
+		final Thread owner;
+		ByteBuffer bytes;
+
+		Buffer(Thread owner, ByteBuffer bytes) {
+			this.owner = owner;
+			this.bytes = bytes;
+		}
+	}
+}
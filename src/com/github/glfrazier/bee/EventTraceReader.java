@@ -0,0 +1,129 @@
+package com.github.glfrazier.bee;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Reads the event trace that a simulation writes with
+ * <code>event_trace=true</code> (see {@link EventTrace}).
+ *
+ * @author Greg Frazier
+ *
+ */
+public class EventTraceReader {
+
+	/** One event. The reader reuses one instance for every event. */
+	public static class Record {
+		public EventTrace.Type type;
+		public boolean domestic;
+		public boolean flag;
+		public int year;
+		public int x;
+		public int y;
+		public int otherX;
+		public int otherY;
+		public int count;
+		public double gene;
+
+		public static String getCSVHeader() {
+			return "type,domestic,flag,year,x,y,other_x,other_y,count,gene";
+		}
+
+		public String getCSV() {
+			return type + "," + domestic + "," + flag + "," + year + "," + x + "," + y + "," + otherX + "," + otherY
+					+ "," + count + "," + gene;
+		}
+	}
+
+	/**
+	 * Pass each event of the trace, in the order of the file, to the consumer.
+	 */
+	public static void read(File file, Consumer<Record> consumer) throws IOException {
+		EventTrace.Type[] types = EventTrace.Type.values();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			byte[] magic = new byte[EventTrace.MAGIC.length()];
+			in.readFully(magic);
+			if (!EventTrace.MAGIC.equals(new String(magic, StandardCharsets.US_ASCII))) {
+				throw new IOException(file + " is not an event trace.");
+			}
+			int version = in.readInt();
+			int recordSize = in.readInt();
+			if (version != EventTrace.VERSION || recordSize != EventTrace.RECORD) {
+				throw new IOException(file + " is version " + version + " of the event trace; this reader reads version "
+						+ EventTrace.VERSION + ".");
+			}
+			Record r = new Record();
+			while (true) {
+				int type;
+				try {
+					type = in.readUnsignedByte();
+				} catch (EOFException e) {
+					return;
+				}
+				int flags = in.readUnsignedByte();
+				r.type = types[type];
+				r.domestic = (flags & EventTrace.DOMESTIC) != 0;
+				r.flag = (flags & EventTrace.FLAG) != 0;
+				r.year = in.readShort();
+				r.x = in.readInt();
+				r.y = in.readInt();
+				r.otherX = in.readInt();
+				r.otherY = in.readInt();
+				r.count = in.readInt();
+				r.gene = in.readDouble();
+				consumer.accept(r);
+			}
+		}
+	}
+
+	/**
+	 * Print an event trace as CSV, or the number of events of each type in each
+	 * year (the default).
+	 *
+	 * <pre>
+	 * java -cp bin com.github.glfrazier.bee.EventTraceReader results/000/events.trace [summary|csv]
+	 * </pre>
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || (args.length > 1 && !args[1].equals("summary") && !args[1].equals("csv"))) {
+			System.err.println("Usage: EventTraceReader <events.trace> [summary|csv]");
+			System.exit(-1);
+		}
+		File file = new File(args[0]);
+		if (args.length > 1 && args[1].equals("csv")) {
+			StringBuilder out = new StringBuilder(Record.getCSVHeader()).append('\n');
+			read(file, r -> {
+				out.append(r.getCSV()).append('\n');
+				if (out.length() > 1 << 16) {
+					System.out.print(out);
+					out.setLength(0);
+				}
+			});
+			System.out.print(out);
+			return;
+		}
+		EventTrace.Type[] types = EventTrace.Type.values();
+		Map<Integer, long[]> counts = new TreeMap<>();
+		read(file, r -> counts.computeIfAbsent(r.year, y -> new long[types.length])[r.type.ordinal()]++);
+		StringBuilder header = new StringBuilder("year");
+		for (EventTrace.Type t : types) {
+			header.append('\t').append(t);
+		}
+		System.out.println(header);
+		for (Map.Entry<Integer, long[]> e : counts.entrySet()) {
+			StringBuilder line = new StringBuilder(e.getKey().toString());
+			for (long c : e.getValue()) {
+				line.append('\t').append(c);
+			}
+			System.out.println(line);
+		}
+	}
+}
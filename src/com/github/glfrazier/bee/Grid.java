@@ -4,9 +4,13 @@ import static com.github.glfrazier.bee.BeeHealthSimulation.LOGGER;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
@@ -21,10 +25,34 @@ public class Grid implements Iterable<Site>, Serializable {
 
 	private static final long serialVersionUID = 1L;
 
-	/** A square, 2-D matrix of sites. */
-	private Site[][] sites;
+	/** The length of an edge of the square grid. */
+	private final int edgeLength;
 
-	/** The same sites that are in the 2-D matrix, but held in a 1-D list. */
+	/** How the sites are ordered in {@link #sites}. */
+	private final SiteLayout layout;
+
+	/**
+	 * A square, 2-D matrix of sites, held in a 1-D array in the order specified by
+	 * the {@link #layout}. The site at (x, y) is at
+	 * <code>sites[layout.index(x, y)]</code>.
+	 */
+	private Site[] sites;
+
+	/**
+	 * The rows whose sites are constructed, or <code>null</code> if every row is.
+	 * A tile of a {@link DistributedSimulation} constructs only its own rows and
+	 * its halo; the other entries of {@link #sites} are <code>null</code>.
+	 */
+	private final boolean[] rows;
+
+	/**
+	 * If every domestic site is a queen breeder and not every row is constructed,
+	 * the domestic sites among those that are not constructed (by row-major
+	 * position); otherwise <code>null</code>.
+	 */
+	private BitSet unconstructedDomestic = null;
+
+	/** The same sites, in the same order, viewed as a list. */
 	private List<Site> listOfSites;
 
 	/** The sites that breed domestic queens; a subset of the above sites. */
@@ -33,18 +61,153 @@ public class Grid implements Iterable<Site>, Serializable {
 	/** The simulation that this grid constitutes. */
 	private final BeeHealthSimulation sim;
 
+	/**
+	 * The number of living queen breeder hives that are not in
+	 * {@link #queenBreeders} because they are simulated by another process. Zero
+	 * unless this grid is a tile of a {@link DistributedSimulation}.
+	 */
+	int externalLiveQueenBreederHives = 0;
+
+	/**
+	 * If set, swarms are offered to the courier before they move into their
+	 * destination hive. See {@link #deliverSwarm(Hive, Hive, double, double[], int)}.
+	 */
+	SwarmCourier swarmCourier = null;
+
+	/**
+	 * If true (the property 'drone_congregation_cache', default true), queen
+	 * breeders cache their mating flights' neighborhoods. See
+	 * {@link DroneCongregationArea}.
+	 */
+	final boolean droneCongregationCache;
+
+	/** The sites that the phases of a year visit. */
+	final ActiveSites activeSites;
+
+	/**
+	 * The queen breeders' market shares (the property 'breeder_market'), or
+	 * <code>null</code> if every breeder is equally likely to sell a queen.
+	 */
+	private BreederMarket breederMarket = null;
+
+	/**
+	 * The drones available at each site, if the mating engine is approximate (the
+	 * property 'mating_engine=density'); otherwise <code>null</code>.
+	 */
+	DroneDensityField droneField = null;
+
+	/** The simulation's event trace, or <code>null</code> if it is disabled. */
+	final EventTrace trace;
+
+	/**
+	 * Carries a swarm to a destination hive that is simulated by another process.
+	 */
+	interface SwarmCourier {
+		/**
+		 * @param source      the hive that the swarm left
+		 * @param destination the dead hive that the swarm will occupy
+		 * @param queen       the swarm's queen
+		 * @param drones      the drones that the swarm's queen mated with
+		 * @return <code>true</code> if the courier has taken the swarm, or
+		 *         <code>false</code> if the destination is local
+		 */
+		boolean forward(Hive source, Hive destination, double queen, double[] drones);
+	}
+
 	public Grid(int edgeLength, BeeHealthSimulation sim, Random random) {
+		this(edgeLength, sim, random, null);
+	}
+
+	/**
+	 * @param rows the rows whose sites are constructed, or <code>null</code> for
+	 *             every row
+	 */
+	Grid(int edgeLength, BeeHealthSimulation sim, Random random, boolean[] rows) {
 		super();
 		this.sim = sim;
-		sites = new Site[edgeLength][edgeLength];
-		listOfSites = new ArrayList<>(edgeLength * edgeLength);
+		this.rows = rows;
+		this.edgeLength = edgeLength;
+		this.layout = SiteLayout.getLayout(sim, edgeLength);
+		this.droneCongregationCache = Boolean
+				.parseBoolean(sim.getProperties().getProperty("drone_congregation_cache", "true"));
+		this.trace = sim.getEventTrace();
+		if (rows != null) {
+			constructRows(random);
+			listOfSites = Arrays.asList(sites);
+			activeSites = new ActiveSites(this);
+			return;
+		}
+		// The seeds are drawn in row-major order, so that every layout produces the
+		// same initial state.
+		long[] seeds = new long[edgeLength * edgeLength];
+		int[] coordinates = new int[edgeLength * edgeLength];
 		for (int x = 0; x < edgeLength; x++) {
 			for (int y = 0; y < edgeLength; y++) {
-				Site n = new Site(x, y, random.nextLong(), this);
-				sites[x][y] = n;
-				listOfSites.add(n);
+				seeds[x * edgeLength + y] = random.nextLong();
+				coordinates[layout.index(x, y)] = x * edgeLength + y;
 			}
 		}
+		// The sites are constructed in layout order, so that they (and, later, their
+		// hives) are allocated in the order in which they are visited.
+		sites = new Site[edgeLength * edgeLength];
+		for (int i = 0; i < sites.length; i++) {
+			int x = coordinates[i] / edgeLength;
+			int y = coordinates[i] % edgeLength;
+			sites[i] = new Site(x, y, seeds[coordinates[i]], this);
+		}
+		listOfSites = Arrays.asList(sites);
+		activeSites = new ActiveSites(this);
+	}
+
+	/**
+	 * Construct the sites of the {@link #rows}. Every site's seed is drawn, in
+	 * row-major order, so that the constructed sites, and the random numbers that
+	 * the rest of the initialization draws, are the same as in the whole grid; the
+	 * seeds of the other sites are discarded.
+	 */
+	private void constructRows(Random random) {
+		Properties props = sim.getProperties();
+		double pDomestic = 0;
+		if ("all".equals(props.getProperty("number_queen_breeders"))) {
+			// The queen breeders are the domestic sites, so the breeders that are not
+			// constructed must be found. A site's first draw decides whether it is
+			// domestic (see Site.initialize).
+			pDomestic = BeeHealthSimulation.getProbabilityProperty(props, "prob_domestic");
+			unconstructedDomestic = new BitSet();
+		}
+		sites = new Site[edgeLength * edgeLength];
+		for (int x = 0; x < edgeLength; x++) {
+			for (int y = 0; y < edgeLength; y++) {
+				long seed = random.nextLong();
+				if (rows[x]) {
+					sites[layout.index(x, y)] = new Site(x, y, seed, this);
+				} else if (unconstructedDomestic != null && new Random(seed).nextDouble() < pDomestic) {
+					unconstructedDomestic.set(x * edgeLength + y);
+				}
+			}
+		}
+	}
+
+	/** Whether the sites of row <code>x</code> are constructed. */
+	private boolean isConstructed(int x) {
+		return rows == null || rows[x];
+	}
+
+	/**
+	 * The site that is to be a queen breeder, by row-major position. If the site is
+	 * not constructed (see {@link #rows}), a stand-in with no hives, which records
+	 * where the breeder is, is returned.
+	 */
+	private Site queenBreederAt(int position) {
+		int x = position / edgeLength;
+		int y = position % edgeLength;
+		if (isConstructed(x)) {
+			return getSite(x, y);
+		}
+		Site standIn = new Site(x, y, 0, this);
+		standIn.domestic = true;
+		standIn.setQueenBreeder();
+		return standIn;
 	}
 
 	public Set<Site> getNeighborsOf(Site n, int radius) {
@@ -57,37 +220,51 @@ public class Grid implements Iterable<Site>, Serializable {
 				}
 				int xN = wrapAround(n.x + xOffset);
 				int yN = wrapAround(n.y + yOffset);
-				try {
-					Site nbr = sites[xN][yN];
-					result.add(nbr);
-				} catch (Throwable t) {
-					System.out.println(
-							"n.x=" + n.x + ", xOffset=" + xOffset + ", xN=" + xN + ", sites.length=" + sites.length);
-					System.out.println("n.y=" + n.y + ", yOffset=" + yOffset + ", yN=" + yN + ", sites[0].length="
-							+ sites[0].length);
-					t.printStackTrace();
-					System.exit(-1);
-				}
+				result.add(sites[layout.index(xN, yN)]);
 			}
 		}
+		sim.getInstrumentation().neighborhoodQuery(result.size());
 		return result;
 	}
 
 	private int wrapAround(int i) {
 		while (i < 0) {
-			i += sites.length;
+			i += edgeLength;
 		}
-		while (i >= sites.length) {
-			i -= sites.length;
+		while (i >= edgeLength) {
+			i -= edgeLength;
 		}
 		return i;
 	}
 
+	/**
+	 * Iterate over the sites in layout order.
+	 */
 	@Override
 	public Iterator<Site> iterator() {
 		return listOfSites.iterator();
 	}
 
+	/**
+	 * Iterate over the sites in row-major order, regardless of the layout. Used
+	 * where the order is visible to the user, e.g. in the sites CSV files.
+	 */
+	public Iterator<Site> rowMajorIterator() {
+		return new Iterator<Site>() {
+			private int next = 0;
+
+			public boolean hasNext() {
+				return next < sites.length;
+			}
+
+			public Site next() {
+				Site site = getSite(next / edgeLength, next % edgeLength);
+				next++;
+				return site;
+			}
+		};
+	}
+
 	/**
 	 * From one of the queen-breeding sites, create a child queen, fly her, build a
 	 * hive and return it.
@@ -97,14 +274,54 @@ public class Grid implements Iterable<Site>, Serializable {
 	 * @return
 	 */
 	public Hive purchaseMatedQueen(Site site, Random siteRandom) {
+		QueenReplacements order = new QueenReplacements();
+		purchaseMatedQueen(site, siteRandom, order, 0);
+		Hive hive = new Hive(order.queen[0], order.drones[0], site, order.seed[0]);
+		hive.origin = order.origin[0];
+		hive.generation = order.generation[0];
+		return hive;
+	}
+
+	/**
+	 * From one of the queen-breeding sites, create a child queen and fly her, and
+	 * record her, her drones and the seed of her hive's random number generator as
+	 * the <code>i</code>th replacement in the order.
+	 */
+	void purchaseMatedQueen(Site site, Random siteRandom, QueenReplacements order, int i) {
+		orderMatedQueen(siteRandom, order, i);
+		fulfillOrder(site, order, i);
+	}
+
+	/**
+	 * Choose the queen breeder hive that will raise the <code>i</code>th queen of
+	 * the order, and the seed of the replaced hive's random number generator. Both
+	 * are drawn from the purchasing site's random number generator; the breeder's
+	 * hives are only read.
+	 */
+	void orderMatedQueen(Random siteRandom, QueenReplacements order, int i) {
 		// Randomly choose a breeding site
-		Hive motherHive = randomBreedingHive(siteRandom);
+		order.mother[i] = randomBreedingHive(siteRandom);
+		order.seed[i] = siteRandom.nextLong();
+	}
+
+	/**
+	 * Raise the <code>i</code>th queen of the order from the hive chosen by
+	 * {@link #orderMatedQueen(Random, QueenReplacements, int)}, and fly her. Uses
+	 * the random number generator of the mother hive.
+	 *
+	 * @param site the site purchasing the queen
+	 */
+	void fulfillOrder(Site site, QueenReplacements order, int i) {
+		SimulationEvents.QueenPurchase event = new SimulationEvents.QueenPurchase();
+		event.begin();
+		Hive motherHive = order.mother[i];
 
 		// Produce the queen
 		double queen = motherHive.getBabyQueen();
 
 		// Fly the queen
 		double[] drones = motherHive.getSite().matingFlight(motherHive);
+		boolean failed = drones == null;
 		
 		// HACK!! If there were no drones in the region, then use the drones from the mother hive.
 		if (drones == null) {
@@ -112,32 +329,46 @@ public class Grid implements Iterable<Site>, Serializable {
 			drones = motherHive.droneGenes;
 		}
 
-		// Create and return the new hive
-		Hive hive = new Hive(queen, drones, site, siteRandom.nextLong());
-		return hive;
+		order.queen[i] = queen;
+		order.drones[i] = drones;
+		order.origin[i] = motherHive.origin;
+		order.generation[i] = motherHive.generation + 1;
+		if (trace != null) {
+			trace.record(EventTrace.Type.MATING_FLIGHT, motherHive.getSite(), failed, null,
+					failed ? 0 : drones.length, queen);
+			trace.record(EventTrace.Type.PURCHASE, site, failed, motherHive.getSite(), drones.length, queen);
+		}
+		if (event.shouldCommit()) {
+			event.buyerX = site.x;
+			event.buyerY = site.y;
+			event.breederX = motherHive.getSite().x;
+			event.breederY = motherHive.getSite().y;
+			event.usedMotherDrones = drones == motherHive.droneGenes;
+			event.commit();
+		}
 	}
 
 	private Hive randomBreedingHive(Random siteRandom) {
+		sim.getInstrumentation().breederSelection();
+		if (breederMarket != null) {
+			Site breeder = breederMarket.drawBreeder(siteRandom);
+			if (breeder != null) {
+				Hive hive = randomLivingHive(breeder, siteRandom);
+				if (hive != null) {
+					return hive;
+				}
+			}
+			// No breeder with a share has a living hive: buy from any breeder
+		}
 		// select a queen breeding site to be the first one to check
 		int lastSiteIndex = siteRandom.nextInt(queenBreeders.size());
 		for (int i = lastSiteIndex + 1; true; i++) {
 			if (i == queenBreeders.size()) {
 				i = 0;
 			}
-			Site site = queenBreeders.get(i);
-			List<Hive> siteHives = site.syncCopyHives();
-			int lastHiveIndex = siteRandom.nextInt(siteHives.size());
-			for (int j = lastHiveIndex + 1; true; j++) {
-				if (j == siteHives.size()) {
-					j = 0;
-				}
-				Hive hive = siteHives.get(j);
-				if (!hive.dead) {
-					return hive;
-				}
-				if (j == lastHiveIndex) {
-					break;
-				}
+			Hive hive = randomLivingHive(queenBreeders.get(i), siteRandom);
+			if (hive != null) {
+				return hive;
 			}
 			if (i == lastSiteIndex) {
 				break;
@@ -149,6 +380,49 @@ public class Grid implements Iterable<Site>, Serializable {
 		return null;
 	}
 
+	/**
+	 * Select a living hive at a queen breeder: the first living hive at or after a
+	 * random hive.
+	 *
+	 * @return <code>null</code> if every hive at the site is dead
+	 */
+	private static Hive randomLivingHive(Site site, Random siteRandom) {
+		Hive[] siteHives = site.hives();
+		int lastHiveIndex = siteRandom.nextInt(siteHives.length);
+		for (int j = lastHiveIndex + 1; true; j++) {
+			if (j == siteHives.length) {
+				j = 0;
+			}
+			Hive hive = siteHives[j];
+			if (!hive.dead) {
+				return hive;
+			}
+			if (j == lastHiveIndex) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Recompute the queen breeders' market shares (see {@link BreederMarket}).
+	 * Called once a year, after over-wintering.
+	 */
+	void updateBreederMarket() {
+		if (breederMarket != null) {
+			breederMarket.update();
+		}
+	}
+
+	/**
+	 * Recompute the drone density field (see {@link DroneDensityField}), if there is
+	 * one. Called once a year, after over-wintering.
+	 */
+	void updateDroneField() {
+		if (droneField != null) {
+			droneField.update();
+		}
+	}
+
 	public void initialize(Random rand, Properties props) {
 		boolean allDomesticSitesAreQueenBreeders = false;
 		int numberOfQueenBreeders = 0;
@@ -172,18 +446,32 @@ public class Grid implements Iterable<Site>, Serializable {
 		if (numberOfQueenBreeders > 0 && BeeHealthSimulation.getProbabilityProperty(props, "prob_domestic") == 0) {
 			LOGGER.warning("You have specified a non-zero number of queen breeders, but 'prob_domestic' is zero.");
 		}
+		// See selectQueenBreeders and initializeSites
+		boolean fastStartup = Boolean.parseBoolean(props.getProperty("fast_startup", "false"));
 		queenBreeders = new ArrayList<Site>();
-		if (!allDomesticSitesAreQueenBreeders) {
-			List<Site> qbCandidateList = new ArrayList<>(listOfSites.size());
-			qbCandidateList.addAll(listOfSites);
-			for (int i = 0; i < numberOfQueenBreeders && !qbCandidateList.isEmpty(); i++) {
+		if (fastStartup) {
+			if (!allDomesticSitesAreQueenBreeders) {
+				selectQueenBreeders(rand, numberOfQueenBreeders);
+			}
+			initializeSites(props, allDomesticSitesAreQueenBreeders, queenBreederHiveCount);
+		} else if (!allDomesticSitesAreQueenBreeders) {
+			// The candidates are the sites' row-major positions, so that the choice of
+			// queen breeders does not depend upon the layout.
+			int[] qbCandidates = new int[sites.length];
+			for (int p = 0; p < qbCandidates.length; p++) {
+				qbCandidates[p] = p;
+			}
+			int remaining = qbCandidates.length;
+			for (int i = 0; i < numberOfQueenBreeders && remaining > 0; i++) {
 
 				// Use the version that grabs the candidates in order ('remove(0)') when doing
 				// test1.
 				//
-				Site candidate = qbCandidateList.remove(rand.nextInt(qbCandidateList.size()));
-				// Site candidate = qbCandidateList.remove(0);
+				int j = rand.nextInt(remaining);
+				// int j = 0;
 				//////////////////////////////////////////////////////////////////////////////
+				Site candidate = queenBreederAt(qbCandidates[j]);
+				System.arraycopy(qbCandidates, j + 1, qbCandidates, j, --remaining - j);
 
 				while (true) {
 					synchronized (candidate) {
@@ -196,7 +484,9 @@ public class Grid implements Iterable<Site>, Serializable {
 							// allDomesticSitesAreQueenBreeders is set to true or not
 							candidate.random.nextDouble();
 
-							candidate.finishInitialize(props, queenBreederHiveCount);
+							if (isConstructed(candidate.x)) {
+								candidate.finishInitialize(props, queenBreederHiveCount);
+							}
 							queenBreeders.add(candidate);
 							break;
 						}
@@ -204,18 +494,109 @@ public class Grid implements Iterable<Site>, Serializable {
 				}
 			}
 		}
-		// Now initialize the remaining sites. We will not re-initialize the Queen
-		// Breeder sites
-		Set<Site> sitesToInitialize = new LinkedHashSet<>();
-		sitesToInitialize.addAll(listOfSites);
-		for (Site qb : queenBreeders) {
-			sitesToInitialize.remove(qb);
-		}
-		// LOGGER.fine("Initializing " + sitesToInitialize.size() + " sites.");
-		for (Site site : sitesToInitialize) {
-			site.initialize(props, allDomesticSitesAreQueenBreeders);
-			if (allDomesticSitesAreQueenBreeders && site.domestic) {
-				queenBreeders.add(site);
+		if (!fastStartup) {
+			// Now initialize the remaining sites. We will not re-initialize the Queen
+			// Breeder sites
+			Set<Site> sitesToInitialize = new LinkedHashSet<>();
+			sitesToInitialize.addAll(listOfSites);
+			for (Site qb : queenBreeders) {
+				sitesToInitialize.remove(qb);
+			}
+			// LOGGER.fine("Initializing " + sitesToInitialize.size() + " sites.");
+			for (Site site : sitesToInitialize) {
+				// A site that is not constructed is null
+				if (site != null) {
+					site.initialize(props, allDomesticSitesAreQueenBreeders);
+				}
+			}
+		}
+		if (allDomesticSitesAreQueenBreeders) {
+			for (int p = 0; p < sites.length; p++) {
+				Site site = getSite(p / edgeLength, p % edgeLength);
+				if (site == null ? unconstructedDomestic.get(p) : site.domestic) {
+					queenBreeders.add(queenBreederAt(p));
+				}
+			}
+		}
+		// The founders of the breeders' lineages (see QueenLineage)
+		for (int i = 0; i < queenBreeders.size(); i++) {
+			for (Hive hive : queenBreeders.get(i).hives()) {
+				hive.origin = i;
+			}
+		}
+		breederMarket = BreederMarket.create(props, queenBreeders);
+		droneField = DroneDensityField.create(props, this);
+		activeSites.rebuild();
+	}
+
+	/**
+	 * Choose the queen breeders, in order, with a sparse Fisher-Yates shuffle of
+	 * the sites' row-major positions: only the positions that have been swapped are
+	 * remembered, so choosing <code>k</code> breeders takes O(k) time and space,
+	 * regardless of the size of the grid. Each draw has the same range as in the
+	 * original selection (which removed each breeder from a list of every site),
+	 * but maps to a different site, so the breeders differ from those that
+	 * <code>fast_startup=false</code> chooses.
+	 */
+	private void selectQueenBreeders(Random rand, int numberOfQueenBreeders) {
+		int size = sites.length;
+		int k = Math.min(numberOfQueenBreeders, size);
+		Map<Integer, Integer> swapped = new HashMap<>(2 * k);
+		for (int i = 0; i < k; i++) {
+			int j = i + rand.nextInt(size - i);
+			int chosen = swapped.getOrDefault(j, j);
+			swapped.put(j, swapped.getOrDefault(i, i));
+			Site candidate = queenBreederAt(chosen);
+			candidate.domestic = true;
+			candidate.setQueenBreeder();
+			// A hack to try to make the random numbers come out the same whether
+			// allDomesticSitesAreQueenBreeders is set to true or not
+			candidate.random.nextDouble();
+			queenBreeders.add(candidate);
+		}
+	}
+
+	/**
+	 * Initialize every site, on the simulation's worker threads (see
+	 * {@link BeeHealthSimulation#getNumberOfThreads()}). Each site draws only from
+	 * its own random number generator, so the grid is the same however many
+	 * threads there are. Each thread takes a contiguous range of the layout.
+	 */
+	private void initializeSites(Properties props, boolean allDomesticSitesAreQueenBreeders,
+			int queenBreederHiveCount) {
+		int numberOfThreads = Math.max(1, Math.min(sim.getNumberOfThreads(), sites.length));
+		int[] partition = layout.partition(numberOfThreads);
+		Thread[] threads = new Thread[numberOfThreads];
+		for (int t = 0; t < numberOfThreads; t++) {
+			final int from = partition[t];
+			final int to = partition[t + 1];
+			final String name = "init-" + t;
+			threads[t] = new Thread("Initialization Thread " + t) {
+				public void run() {
+					Instrumentation.ThreadSample sample = sim.getInstrumentation().startWorker(name);
+					for (int i = from; i < to; i++) {
+						Site site = sites[i];
+						if (site == null) {
+							// Not constructed; see rows
+							continue;
+						}
+						if (site.isQueenBreeder()) {
+							site.finishInitialize(props, queenBreederHiveCount);
+						} else {
+							site.initialize(props, allDomesticSitesAreQueenBreeders);
+						}
+					}
+					sim.getInstrumentation().endWorker(sample);
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				System.exit(-1);
 			}
 		}
 	}
@@ -224,18 +605,19 @@ public class Grid implements Iterable<Site>, Serializable {
 		Set<Site> nbrs = getNeighborsOf(site, radius);
 		List<Hive> hives = new ArrayList<>();
 		// site is not a neighbor of itself, so explicitly add the hives
-		hives.addAll(site.syncCopyHives());
+		addLivingHives(site, hives);
 		for (Site nbr : nbrs) {
-			List<Hive> nbrHives = nbr.syncCopyHives();
-			hives.addAll(nbrHives);
+			addLivingHives(nbr, hives);
 		}
-		for (Iterator<Hive> iter = hives.iterator(); iter.hasNext();) {
-			Hive h = iter.next();
-			if (h.dead) {
-				iter.remove();
+		return hives;
+	}
+
+	private static void addLivingHives(Site site, List<Hive> hives) {
+		for (Hive h : site.hives()) {
+			if (!h.dead) {
+				hives.add(h);
 			}
 		}
-		return hives;
 	}
 
 	public BeeHealthSimulation getSim() {
@@ -259,7 +641,7 @@ public class Grid implements Iterable<Site>, Serializable {
 			y = wrapAround(y - distance);
 			break;
 		}
-		return sites[x][y];
+		return sites[layout.index(x, y)];
 	}
 
 	public List<Hive> getNeighborhoodFeralDeadHives(Site site, int radius) {
@@ -269,7 +651,7 @@ public class Grid implements Iterable<Site>, Serializable {
 			if (nbrSite.domestic) {
 				continue;
 			}
-			for (Hive h : nbrSite.syncCopyHives()) {
+			for (Hive h : nbrSite.hives()) {
 				if (h.dead) {
 					deadhives.add(h);
 				}
@@ -278,12 +660,40 @@ public class Grid implements Iterable<Site>, Serializable {
 		return deadhives;
 	}
 
+	/**
+	 * Move a swarm, the source hive's old queen and her drones, into the (dead)
+	 * destination hive. The swarm keeps the source's origin and the old queen's
+	 * generation (see {@link QueenLineage}).
+	 */
+	void deliverSwarm(Hive source, Hive destination, double queen, double[] drones, int generation) {
+		if (swarmCourier != null && swarmCourier.forward(source, destination, queen, drones)) {
+			return;
+		}
+		destination.receiveSwarm(queen, drones, source.origin, generation);
+	}
+
 	public int size() {
 		return listOfSites.size();
 	}
 
+	/** The length of an edge of the (square) grid. */
+	public int getEdgeLength() {
+		return edgeLength;
+	}
+
+	public Site getSite(int x, int y) {
+		return sites[layout.index(x, y)];
+	}
+
+	/**
+	 * @param index the position of the site in the layout
+	 */
 	public Site getSite(int index) {
-		return listOfSites.get(index);
+		return sites[index];
+	}
+
+	public SiteLayout getLayout() {
+		return layout;
 	}
 
 }
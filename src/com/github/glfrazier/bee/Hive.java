@@ -22,6 +22,16 @@ public class Hive implements Serializable {
 	boolean canBreed = false;
 	int age;
 
+	/**
+	 * The founder of this hive's maternal line, and the number of generations
+	 * since; see {@link QueenLineage}.
+	 */
+	int origin;
+	int generation = 0;
+
+	/** True while this hive is waiting for a purchased queen; see {@link QueenReplacements}. */
+	boolean replaced = false;
+
 	int maxHiveAge;
 
 	int minimumRequeenAge;
@@ -40,18 +50,12 @@ public class Hive implements Serializable {
 		}
 		this.site = site;
 		this.random = new Random(seed);
+		this.origin = site.domestic ? QueenLineage.DOMESTIC_FOUNDER : QueenLineage.FERAL_FOUNDER;
 		finishConstruction(site.getGrid().getSim(), site.domestic);
-	}
-
-	private Hive(double q, double[] d, long seed, boolean domestic, BeeHealthSimulation sim) {
-		this.queenGene = q;
-		this.droneGenes = d;
-		if (droneGenes == null) {
-			throw new NullPointerException("Constructed hive with null drones!");
+		EventTrace trace = site.getGrid().trace;
+		if (trace != null) {
+			trace.record(EventTrace.Type.BIRTH, site, false, null, 0, queen);
 		}
-		this.site = null;
-		this.random = new Random(seed);
-		finishConstruction(sim, domestic);
 	}
 
 	private void finishConstruction(BeeHealthSimulation sim, boolean domestic) {
@@ -65,29 +69,49 @@ public class Hive implements Serializable {
 		stats.newHiveCreated(domestic);
 	}
 
-	private boolean survivedWinter() {
-		double prob = iModel.getHiveStrength(queenGene, droneGenes);
-		if (site.domestic || (!site.domestic && sim.feralUsesDomesticSurvivalModel)) {
-			// domestic hives are fed, so probability of survival is boosted.
-			// This moves the probability halfway towards 1.0 from its base value.
-			prob = prob + (1 - prob) * sim.feedingFactor;
-		}
-		return random.nextDouble() < prob;
-	}
-
 	/**
 	 * Over-winter this hive. If the hive is dead, do nothing. If the hive is alive,
 	 * it will die if it is too old ({@link #age} > {@link #maxHiveAge}) or it may
-	 * die stochastically ({@link #survivedWinter()}. If this hive survives the
-	 * winter, its {@link #age} is incremented and {@link #canBreed} is set to
+	 * die stochastically, with the probability given by the simulation's
+	 * {@link HiveSurvivalProbabilityModel}. If this hive survives the winter, its
+	 * {@link #age} is incremented and {@link #canBreed} is set to
 	 * <code>true</code>.
 	 * 
-	 * @param rand
+	 * The simulation over-winters its hives in batches (see {@link WinterBatch})
+	 * rather than with this method.
 	 */
 	public void overWinter() {
+		boolean fed = site.domestic || sim.feralUsesDomesticSurvivalModel;
+		overWinter(sim.getSurvivalModel().survivalProbability(getHiveStrength(), fed));
+	}
+
+	/**
+	 * Over-winter this hive, as {@link #overWinter()}, given its probability of
+	 * surviving the winter.
+	 * 
+	 * @param survivalProbability the probability that this hive survives the
+	 *                            winter if it is not too old
+	 */
+	public void overWinter(double survivalProbability) {
 		if (dead) {
 			return;
 		}
+		endWinter(winterDraw() < survivalProbability);
+	}
+
+	/**
+	 * @return the draw that decides whether this hive survives the winter, or NaN
+	 *         if it is too old to survive (in which case no draw is made)
+	 */
+	double winterDraw() {
+		return age >= maxHiveAge ? Double.NaN : random.nextDouble();
+	}
+
+	/**
+	 * Complete the over-wintering of a living hive, given the outcome of its
+	 * {@link #winterDraw()}.
+	 */
+	void endWinter(boolean survivedWinter) {
 		if (age >= maxHiveAge) {
 			if (thisIsTheLastQueenBreeder()) {
 				// the last queen breeder in the simulation is not allowed to die!
@@ -95,17 +119,27 @@ public class Hive implements Serializable {
 				return;
 			}
 			dead = true;
+			site.changed();
 			stats.diedOfOldAge(site.domestic);
+			EventTrace trace = site.getGrid().trace;
+			if (trace != null) {
+				trace.record(EventTrace.Type.OLD_AGE_DEATH, site, false, null, age, queenGene);
+			}
 			return;
 		}
-		if (!survivedWinter()) {
+		if (!survivedWinter) {
 			if (thisIsTheLastQueenBreeder()) {
 				// the last queen breeder in the simulation is not allowed to die!
 				LOGGER.info(this + " is the last queen breeder alive, and so cannot fail to overwinter.");
 				return;
 			}
 			dead = true;
+			site.changed();
 			stats.failedToSurviveWinter(site.domestic);
+			EventTrace trace = site.getGrid().trace;
+			if (trace != null) {
+				trace.record(EventTrace.Type.WINTER_DEATH, site, false, null, age, queenGene);
+			}
 			return;
 		}
 		canBreed = true;
@@ -116,11 +150,15 @@ public class Hive implements Serializable {
 		if (!site.isQueenBreeder()) {
 			return false;
 		}
+		// Queen breeder hives that are simulated by other processes
+		if (site.getGrid().externalLiveQueenBreederHives > 0) {
+			return false;
+		}
 		// Only one queen breeder at a time can check to see if it is the last queen
 		// breeder
 		synchronized (site.getGrid().queenBreeders) {
 			for (Site s : site.getGrid().queenBreeders) {
-				for (Hive h : s.syncCopyHives()) {
+				for (Hive h : s.hives()) {
 					if ((h != this) && !h.dead) {
 						return false;
 					}
@@ -139,45 +177,54 @@ public class Hive implements Serializable {
 	}
 
 	/**
-	 * Create a new hive for the specified location that has the same genes as this
-	 * hive; it will be returned. Replace this hive's queen with a baby queen, and
-	 * "fly" the new queen to obtain a new set of drones.
+	 * The current (mated) queen leaves with a swarm; the caller takes her and her
+	 * drones before calling this method. Replace this hive's queen with a baby
+	 * queen, and "fly" the new queen to obtain a new set of drones.
 	 * 
 	 * This method sets canBreed to false. It is set back to true when the hive
 	 * over-winters.
 	 * 
-	 * @return <code>null</code> if this hive is dead or !canBreed. Otherwise, it
-	 *         returns a Hive with the current queen and drones.
+	 * @return <code>false</code> if this hive cannot breed, in which case it does
+	 *         not swarm
 	 */
-	private Hive swarm() {
+	private boolean swarm() {
 		if (dead) {
 			throw new IllegalStateException("You asked a dead hive to swarm!");
 		}
 		if (!canBreed) {
 			LOGGER.warning("You asked an unbreedable hive to swarm.");
-			return null;
+			return false;
 		}
-		// Create a new hive using this mated queen
-		Hive swarm = new Hive(queenGene, droneGenes, random.nextLong(), site.domestic, site.getGrid().getSim());
+		// The swarm is a new hive, though it is not constructed until it moves into a
+		// dead hive (see receiveSwarm). Its seed is drawn regardless, so that this
+		// hive's random number generator advances as it always has.
+		random.nextLong();
+		stats.newHiveCreated(site.domestic);
 		// Replace the queen in this hive with one of her daughters
 		queenGene = getBabyQueen();
+		generation++;
 		age = 0;
+		site.changed();
 
 		// The virgin queen mates!
 		droneGenes = site.matingFlight(this);
+		EventTrace trace = site.getGrid().trace;
+		if (trace != null) {
+			trace.record(EventTrace.Type.MATING_FLIGHT, site, droneGenes == null, null,
+					droneGenes == null ? 0 : droneGenes.length, queenGene);
+		}
 		if (droneGenes == null) {
 			// The mating flight failed because there are zero hives in a radius of
 			// 2*matingFlightDistance of this hive. Our simplistic approach to handling this
 			// event is to say that the hive is dead.
 			dead = true;
+			site.changed();
 			stats.matingFlightFailed(site.domestic);
 		}
 		// Technically, I believe a hive *can* swarm multiple times in a single year.
 		// But we are not doing that in this simulation. A decision to reexamine.
 		canBreed = false;
-
-		// Return the swarming hive
-		return swarm;
+		return true;
 	}
 
 	/** Obtain this hive's site. */
@@ -226,25 +273,76 @@ public class Hive implements Serializable {
 		if (random.nextDouble() < probSwarm) {
 			stats.swarming(site.domestic);
 			// The hive will swarm regardless of whether it can find a site to live in.
-			Hive swarmingBees = swarm();
+			double swarmQueen = queenGene;
+			double[] swarmDrones = droneGenes;
+			int swarmGeneration = generation;
+			if (!swarm()) {
+				return;
+			}
 			// Now let's see if there is a place for this swarm to live.
 			Hive destination = site.findNearbyFeralDeadHive();
+			EventTrace trace = site.getGrid().trace;
+			if (trace != null) {
+				trace.record(EventTrace.Type.SWARM, site, false, destination == null ? null : destination.site, 0,
+						swarmQueen);
+			}
 			if (destination != null) {
 				stats.swarmFoundSite(site.domestic);
-				destination.receiveSwarm(swarmingBees);
+				site.getGrid().deliverSwarm(this, destination, swarmQueen, swarmDrones, swarmGeneration);
 			} else {
-				swarmingBees.dead = true;
 				stats.swarmCouldNotFindSite(site.domestic);
+				SimulationEvents.SwarmFailed event = new SimulationEvents.SwarmFailed();
+				if (event.shouldCommit()) {
+					event.x = site.x;
+					event.y = site.y;
+					event.domestic = site.domestic;
+					event.commit();
+				}
 			}
 		}
 	}
 
-	private void receiveSwarm(Hive swarmingBees) {
-		this.queenGene = swarmingBees.queenGene;
-		this.droneGenes = swarmingBees.droneGenes;
-		this.age = swarmingBees.age;
+	/**
+	 * A swarm moves into this (dead) hive: it takes on the swarm's queen, drones
+	 * and lineage, and is as young as a new hive.
+	 */
+	void receiveSwarm(double queen, double[] drones, int origin, int generation) {
+		this.queenGene = queen;
+		this.droneGenes = drones;
+		this.origin = origin;
+		this.generation = generation;
+		this.age = 0;
+		this.dead = false;
+		this.canBreed = false;
+		if (site != null) {
+			site.changed();
+			EventTrace trace = site.getGrid().trace;
+			if (trace != null) {
+				trace.record(EventTrace.Type.BIRTH, site, false, null, 2, queen);
+			}
+		}
+	}
+
+	/**
+	 * A keeper installs a purchased queen in this hive, which is dead or is being
+	 * requeened. The hive is reset to the state of a newly constructed hive (see
+	 * {@link #Hive(double, double[], Site, long)}); its random number generator is
+	 * reseeded. The caller holds the site's lock, and records the change.
+	 */
+	void replaceQueen(double queen, double[] drones, long seed, int origin, int generation) {
+		this.queenGene = queen;
+		this.droneGenes = drones;
+		this.origin = origin;
+		this.generation = generation;
+		this.random.setSeed(seed);
+		this.age = 0;
 		this.dead = false;
 		this.canBreed = false;
+		stats.newHiveCreated(site.domestic);
+		EventTrace trace = site.getGrid().trace;
+		if (trace != null) {
+			trace.record(EventTrace.Type.BIRTH, site, false, null, 1, queen);
+		}
 	}
 	
 	public String toString() {
@@ -26,14 +26,30 @@ import java.util.Properties;
  * survival is 0.65.
  * 
  * If you wish to create your own model, code a class that extends
- * HiveSurvivalProbabilityModel. The class must have a constructor that takes,
- * as its only argument, a <code>java.util.Properties</code> object. It should
- * invoke the superclass constructor, passing the properties object, and then
- * parse the properties to set its own values. It must implement
- * {@link #survivalProbability(double, boolean)}, and it should invoke
- * {@link #adjust(double)} to take feeding into account. Remember to adjust your
- * classpath such that your HiveSurvivalProbabilityModel class is included.
+ * {@link CurveModel} (or, if it must compute the fed probability some other
+ * way, HiveSurvivalProbabilityModel itself). The class must have a constructor
+ * that takes, as its only argument, a <code>java.util.Properties</code> object.
+ * It should invoke the superclass constructor, passing the properties object,
+ * and then parse the properties to set its own values. A {@link CurveModel}
+ * implements {@link CurveModel#baseProbability(double)}, the probability that an
+ * unfed hive survives, and the feeding adjustment is applied for it. A model
+ * that extends HiveSurvivalProbabilityModel directly (as the models written for
+ * earlier versions do) implements
+ * {@link #survivalProbability(double, boolean)}, invoking {@link #adjust(double)}
+ * for a fed hive; it does not get the fast path described below. Remember to
+ * adjust your classpath such that your HiveSurvivalProbabilityModel class is
+ * included.
  * 
+ * The winter is simulated in batches: see
+ * {@link #survivalProbabilities(double[], boolean[], double[], int)}. For a
+ * {@link CurveModel}, the batch is computed in two tight loops (the curve, then
+ * the feeding adjustment, which a CurveModel cannot override) that the JIT
+ * compiler can unroll and vectorize. If the property 'survivalprob.table_size'
+ * is a positive number N, the curve is instead sampled at N+1 evenly spaced
+ * points in [0..1] when the model is created, and looked up with linear
+ * interpolation; this is worthwhile for expensive curves (e.g., the sigmoid's
+ * <code>Math.exp</code>). The table changes the probabilities very slightly
+ * (for the default sigmoid and N=4096, by less than 1e-6).
  * 
  * @see #survivalProbability(double, boolean)
  * @see HiveSurvivalProbabilityModel.LinearModel
@@ -49,7 +65,7 @@ public abstract class HiveSurvivalProbabilityModel {
 
 	protected final double F;
 
-	private HiveSurvivalProbabilityModel(Properties props) {
+	protected HiveSurvivalProbabilityModel(Properties props) {
 		F = Double.parseDouble(props.getProperty("survivalprob.F", "0.5"));
 		if (F < 0 || F > 1) {
 			throw new IllegalArgumentException("survivalprob.F must be in the range [0..1]. You specified " + F);
@@ -75,13 +91,18 @@ public abstract class HiveSurvivalProbabilityModel {
 			System.exit(-1);
 		}
 		try {
+			HiveSurvivalProbabilityModel result;
 			if (model.equals("linear")) {
-				return new LinearModel(props);
+				result = new LinearModel(props);
+			} else if (model.equals("sigmoid")) {
+				result = new SigmoidModel(props);
+			} else {
+				result = (HiveSurvivalProbabilityModel) BeeHealthSimulation.createPropertiesObject(props, model);
 			}
-			if (model.equals("sigmoid")) {
-				return new SigmoidModel(props);
+			if (result instanceof CurveModel) {
+				((CurveModel) result).buildTable(props);
 			}
-			return (HiveSurvivalProbabilityModel) BeeHealthSimulation.createPropertiesObject(props, model);
+			return result;
 		} catch (Throwable e) {
 			System.err.println("When parsing the hive survival probability model properties, the exception\n\t" + e
 					+ "\nwas generated.");
@@ -108,6 +129,121 @@ public abstract class HiveSurvivalProbabilityModel {
 	 */
 	public abstract double survivalProbability(double hiveHealth, boolean isDomestic);
 
+	/**
+	 * Obtain the probabilities of surviving the winter of a batch of hives.
+	 * 
+	 * @param hiveHealth the genetic health of each hive
+	 * @param isDomestic whether each hive is fed
+	 * @param result     receives the probability of each hive surviving winter
+	 * @param n          the number of hives in the batch (the first
+	 *                   <code>n</code> elements of each array)
+	 */
+	public void survivalProbabilities(double[] hiveHealth, boolean[] isDomestic, double[] result, int n) {
+		for (int i = 0; i < n; i++) {
+			result[i] = survivalProbability(hiveHealth[i], isDomestic[i]);
+		}
+	}
+
+	/**
+	 * A model defined by the probability that an unfed hive survives (see
+	 * {@link #baseProbability(double)}); a fed hive's probability is always
+	 * adjusted as {@link HiveSurvivalProbabilityModel} describes. As neither step
+	 * can be overridden, the batches of hives are computed in the fast path (see
+	 * {@link #baseProbabilities(double[], double[], int)}), and may apply the
+	 * feeding adjustment themselves (see {@link SeasonKernels}).
+	 * 
+	 * @author Greg Frazier
+	 *
+	 */
+	public static abstract class CurveModel extends HiveSurvivalProbabilityModel {
+
+		/** The curve, sampled for interpolation; <code>null</code> if not used. */
+		private double[] table;
+
+		protected CurveModel(Properties props) {
+			super(props);
+		}
+
+		/**
+		 * Obtain the probability that a hive that is not fed survives the winter.
+		 * 
+		 * @param hiveHealth the genetic health of the hive
+		 * @return the probability of the (unfed) hive surviving winter
+		 */
+		protected abstract double baseProbability(double hiveHealth);
+
+		@Override
+		protected final double adjust(double p) {
+			return super.adjust(p);
+		}
+
+		@Override
+		public final double survivalProbability(double hiveHealth, boolean isDomestic) {
+			double prob = curve(hiveHealth);
+			if (isDomestic) {
+				prob = adjust(prob);
+			}
+			return prob;
+		}
+
+		/**
+		 * Sample the curve into a lookup table, if the property
+		 * 'survivalprob.table_size' asks for one.
+		 */
+		private void buildTable(Properties props) {
+			int size = Integer.parseInt(props.getProperty("survivalprob.table_size", "0"));
+			if (size <= 0) {
+				return;
+			}
+			double[] t = new double[size + 1];
+			for (int i = 0; i <= size; i++) {
+				t[i] = baseProbability((double) i / size);
+			}
+			table = t;
+		}
+
+		/**
+		 * {@link #baseProbability(double)}, from the lookup table if there is one.
+		 */
+		private double curve(double hiveHealth) {
+			if (table != null) {
+				int size = table.length - 1;
+				double x = hiveHealth * size;
+				// Out-of-range (and NaN) values are computed directly
+				if (x >= 0 && x < size) {
+					int i = (int) x;
+					return table[i] + (x - i) * (table[i + 1] - table[i]);
+				}
+			}
+			return baseProbability(hiveHealth);
+		}
+
+		/**
+		 * Obtain the probabilities of a batch of unfed hives surviving the winter.
+		 */
+		void baseProbabilities(double[] hiveHealth, double[] result, int n) {
+			if (table != null) {
+				for (int i = 0; i < n; i++) {
+					result[i] = curve(hiveHealth[i]);
+				}
+			} else {
+				for (int i = 0; i < n; i++) {
+					result[i] = baseProbability(hiveHealth[i]);
+				}
+			}
+		}
+
+		@Override
+		public final void survivalProbabilities(double[] hiveHealth, boolean[] isDomestic, double[] result,
+				int n) {
+			baseProbabilities(hiveHealth, result, n);
+			for (int i = 0; i < n; i++) {
+				double p = result[i];
+				result[i] = isDomestic[i] ? adjust(p) : p;
+			}
+		}
+	}
+
 	/**
 	 * <code>survivalprob.model=linear</code> In the linear model, the probability
 	 * of survival is the gene health, adjusted for the hive being fed as described
@@ -116,17 +252,14 @@ public abstract class HiveSurvivalProbabilityModel {
 	 * @author Greg Frazier
 	 *
 	 */
-	public static class LinearModel extends HiveSurvivalProbabilityModel {
+	public static class LinearModel extends CurveModel {
 
 		public LinearModel(Properties props) {
 			super(props);
 		}
 
 		@Override
-		public double survivalProbability(double hiveHealth, boolean isDomestic) {
-			if (isDomestic)
-				return adjust(hiveHealth);
-			// else
+		protected double baseProbability(double hiveHealth) {
 			return hiveHealth;
 		}
 
@@ -161,7 +294,7 @@ public abstract class HiveSurvivalProbabilityModel {
 	 * 
 	 * @param props
 	 */
-	public static class SigmoidModel extends HiveSurvivalProbabilityModel {
+	public static class SigmoidModel extends CurveModel {
 
 		private final double M;
 		private final double A;
@@ -173,12 +306,8 @@ public abstract class HiveSurvivalProbabilityModel {
 		}
 
 		@Override
-		public double survivalProbability(double hiveHealth, boolean isDomestic) {
-			double prob = 1 / (1 + Math.exp(-(M * hiveHealth + A)));
-			if (isDomestic) {
-				prob = adjust(prob);
-			}
-			return prob;
+		protected double baseProbability(double hiveHealth) {
+			return 1 / (1 + Math.exp(-(M * hiveHealth + A)));
 		}
 
 	}
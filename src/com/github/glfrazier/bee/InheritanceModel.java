@@ -33,17 +33,19 @@ public class InheritanceModel implements Serializable {
 	Mode mode;
 	double stddev;
 	private double maxStrength;
+	private NormalGenerator normal;
 
 	public InheritanceModel(Properties props) {
 		mode = Mode.valueOf(BeeHealthSimulation.getProperty(props, "inheritance_mode"));
 		stddev = BeeHealthSimulation.getDoubleProperty(props, "stddev_g");
 		maxStrength = BeeHealthSimulation.getProbabilityProperty(props, "max_g");
+		normal = NormalGenerator.create(props);
 	}
 
 	/**
 	 * Get a child queen from the specified queen and drone. The hive's inheritance
-	 * model determines how the base gene strength is calculated. We then use
-	 * {@link Random#nextGaussian()} and the specified standard deviation to
+	 * model determines how the base gene strength is calculated. We then use the
+	 * {@link NormalGenerator} and the specified standard deviation to
 	 * determine how the child's gene drifts relative to the parent(s).
 	 * 
 	 * @param queen the queen's gene "strength".
@@ -53,7 +55,7 @@ public class InheritanceModel implements Serializable {
 	 */
 	public double getChildQueen(double queen, double drone, Random rand) {
 		double mean = (mode == Mode.ONE_PARENT ? (rand.nextBoolean() ? queen : drone) : (queen + drone) / 2);
-		double result = mean + stddev * rand.nextGaussian();
+		double result = mean + stddev * normal.nextGaussian(rand);
 		if (result > maxStrength) {
 			result = maxStrength;
 		}
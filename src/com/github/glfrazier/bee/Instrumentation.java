@@ -0,0 +1,248 @@
+package com.github.glfrazier.bee;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records where each simulated year goes: the wall time, CPU time and
+ * allocated bytes of each phase, and counts of the hot-path operations. The
+ * construction and initialization of the grid are recorded as the phase
+ * <code>startup</code> of year -1. It is enabled by the property
+ * <code>instrumentation=true</code>, and the results are written to
+ * <code>timings.csv</code> in the results directory. Each row is one phase of
+ * one year, with the columns of {@link #HEADER}:
+ * <dl>
+ * <dt>thread</dt>
+ * <dd><code>main</code> for the phases that run on the simulation's thread. The
+ * startup and replace/requeen phases run on worker threads: each has a row for
+ * each worker (with that worker's own wall time, CPU time and allocation) and a
+ * row <code>all</code> with the phase's wall time and the workers' totals.</dd>
+ * <dt>cpu_ns, allocated_bytes</dt>
+ * <dd>From <code>ThreadMXBean</code>; -1 if the JVM does not support it.</dd>
+ * <dt>neighborhood_queries, sites_visited</dt>
+ * <dd>Calls of {@link Grid#getNeighborsOf(Site, int)}, and the sites that they
+ * returned.</dd>
+ * <dt>mating_flights, breeder_selections</dt>
+ * <dd>Calls of {@link Site#matingFlight(Hive)}, and selections of a queen
+ * breeder hive by {@link Grid#purchaseMatedQueen(Site, java.util.Random)}.</dd>
+ * </dl>
+ *
+ * When disabled, each hook is a single test of {@link #enabled}. Whether or not
+ * it is enabled, the phase boundaries are emitted as JFR events (see
+ * {@link SimulationEvents}) and passed to each {@link PhaseListener}, such as
+ * the {@link LiveMetrics}.
+ *
+ * @author Greg Frazier
+ *
+ */
+public class Instrumentation {
+
+	public static final String HEADER = "year,phase,thread,wall_ns,cpu_ns,allocated_bytes,neighborhood_queries,"
+			+ "sites_visited,mating_flights,breeder_selections";
+
+	/**
+	 * The phases of a year, in the order in which they run, preceded by the
+	 * simulation's startup.
+	 */
+	public static enum Phase {
+		startup, overWinter, census, replace, shuffle, swarm, endOfSummer
+	}
+
+	/**
+	 * Notified when each phase starts and ends, on the simulation's thread.
+	 */
+	public interface PhaseListener {
+		void startPhase(int year, Phase phase);
+
+		void endPhase(int year, Phase phase);
+	}
+
+	public final boolean enabled;
+
+	private final ThreadMXBean threads;
+	private final com.sun.management.ThreadMXBean allocations;
+
+	private final LongAdder neighborhoodQueries = new LongAdder();
+	private final LongAdder sitesVisited = new LongAdder();
+	private final LongAdder matingFlights = new LongAdder();
+	private final LongAdder breederSelections = new LongAdder();
+
+	private final List<String> rows = new ArrayList<>();
+	private final List<ThreadSample> workers = new ArrayList<>();
+
+	private int year;
+	private Phase phase;
+	private ThreadSample phaseSample;
+	private long[] phaseCounts;
+	private SimulationEvents.Phase phaseEvent;
+
+	private final List<PhaseListener> listeners = new ArrayList<>();
+
+	public Instrumentation(boolean enabled) {
+		this.enabled = enabled;
+		this.threads = ManagementFactory.getThreadMXBean();
+		if (enabled && threads.isThreadCpuTimeSupported()) {
+			threads.setThreadCpuTimeEnabled(true);
+		}
+		com.sun.management.ThreadMXBean a = null;
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			a = (com.sun.management.ThreadMXBean) threads;
+			if (enabled && a.isThreadAllocatedMemorySupported()) {
+				a.setThreadAllocatedMemoryEnabled(true);
+			} else {
+				a = null;
+			}
+		}
+		this.allocations = a;
+	}
+
+	/** Begin a phase of the year <code>year</code>, on the calling thread. */
+	public void startPhase(int year, Phase phase) {
+		this.year = year;
+		this.phase = phase;
+		phaseEvent = new SimulationEvents.Phase();
+		phaseEvent.begin();
+		for (PhaseListener listener : listeners) {
+			listener.startPhase(year, phase);
+		}
+		if (!enabled) {
+			return;
+		}
+		phaseCounts = counts();
+		phaseSample = new ThreadSample("main");
+	}
+
+	/** End the phase started by {@link #startPhase(int, Phase)}, and record it. */
+	public void endPhase() {
+		if (phaseEvent.shouldCommit()) {
+			phaseEvent.year = year;
+			phaseEvent.phase = phase.name();
+			phaseEvent.commit();
+		}
+		for (PhaseListener listener : listeners) {
+			listener.endPhase(year, phase);
+		}
+		if (!enabled) {
+			return;
+		}
+		phaseSample.stop();
+		long[] c = counts();
+		String counters = (c[0] - phaseCounts[0]) + "," + (c[1] - phaseCounts[1]) + "," + (c[2] - phaseCounts[2])
+				+ "," + (c[3] - phaseCounts[3]);
+		synchronized (workers) {
+			if (workers.isEmpty()) {
+				rows.add(row(phaseSample, phaseSample.cpuNanos, phaseSample.allocatedBytes) + counters);
+			} else {
+				long cpu = 0;
+				long allocated = 0;
+				for (ThreadSample w : workers) {
+					rows.add(row(w, w.cpuNanos, w.allocatedBytes) + ",,,");
+					cpu = cpu < 0 || w.cpuNanos < 0 ? -1 : cpu + w.cpuNanos;
+					allocated = allocated < 0 || w.allocatedBytes < 0 ? -1 : allocated + w.allocatedBytes;
+				}
+				phaseSample.name = "all";
+				rows.add(row(phaseSample, cpu, allocated) + counters);
+				workers.clear();
+			}
+		}
+	}
+
+	private String row(ThreadSample s, long cpu, long allocated) {
+		return year + "," + phase + "," + s.name + "," + s.wallNanos + "," + cpu + "," + allocated + ",";
+	}
+
+	/** Notify <code>listener</code> of the phases that start after this call. */
+	public void addListener(PhaseListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Begin timing a worker thread of the current phase.
+	 *
+	 * @return the sample to pass to {@link #endWorker(ThreadSample)}, or
+	 *         <code>null</code> if instrumentation is disabled
+	 */
+	public ThreadSample startWorker(String name) {
+		if (!enabled) {
+			return null;
+		}
+		return new ThreadSample(name);
+	}
+
+	public void endWorker(ThreadSample sample) {
+		if (sample == null) {
+			return;
+		}
+		sample.stop();
+		synchronized (workers) {
+			workers.add(sample);
+		}
+	}
+
+	/** A neighborhood query that returned <code>sites</code> sites. */
+	public void neighborhoodQuery(int sites) {
+		if (enabled) {
+			neighborhoodQueries.increment();
+			sitesVisited.add(sites);
+		}
+	}
+
+	public void matingFlight() {
+		if (enabled) {
+			matingFlights.increment();
+		}
+	}
+
+	public void breederSelection() {
+		if (enabled) {
+			breederSelections.increment();
+		}
+	}
+
+	private long[] counts() {
+		return new long[] { neighborhoodQueries.sum(), sitesVisited.sum(), matingFlights.sum(),
+				breederSelections.sum() };
+	}
+
+	/** The rows of <code>timings.csv</code>, without the header. */
+	public List<String> getRows() {
+		return rows;
+	}
+
+	private long cpuNanos() {
+		return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+	}
+
+	private long allocatedBytes() {
+		return allocations == null ? -1 : allocations.getCurrentThreadAllocatedBytes();
+	}
+
+	/**
+	 * The wall time, CPU time and allocation of one thread over an interval. Must
+	 * be started and stopped on the same thread.
+	 */
+	public class ThreadSample {
+		String name;
+		long wallNanos;
+		long cpuNanos;
+		long allocatedBytes;
+
+		private ThreadSample(String name) {
+			this.name = name;
+			this.allocatedBytes = allocatedBytes();
+			this.cpuNanos = cpuNanos();
+			this.wallNanos = System.nanoTime();
+		}
+
+		private void stop() {
+			wallNanos = System.nanoTime() - wallNanos;
+			long cpu = cpuNanos();
+			cpuNanos = cpu < 0 ? -1 : cpu - cpuNanos;
+			long allocated = allocatedBytes();
+			allocatedBytes = allocated < 0 ? -1 : allocated - allocatedBytes;
+		}
+	}
+}
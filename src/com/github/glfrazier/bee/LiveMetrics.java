@@ -0,0 +1,251 @@
+package com.github.glfrazier.bee;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The live state of a running simulation (the property
+ * <code>live_metrics=true</code>): the year and phase, the wall time of each
+ * phase, the years simulated per second, the heap, and the statistics of the
+ * latest year. It is registered with the platform MBean server as
+ * <code>com.github.glfrazier.bee:type=LiveMetrics,run="&lt;results dir&gt;"</code>,
+ * so that it can be read with JConsole or any JMX client, and, if the property
+ * <code>live_metrics.http_port</code> is set, is served as JSON at
+ * <code>http://127.0.0.1:&lt;port&gt;/metrics</code> (port 0 chooses a free
+ * port, which is printed).
+ * <p>
+ * The simulation publishes an immutable {@link Snapshot} when each phase starts
+ * and ends (see {@link Instrumentation#startPhase(int, Instrumentation.Phase)}).
+ * A reader takes the latest snapshot from a volatile field, so reading never
+ * blocks, or is blocked by, the simulation's threads.
+ *
+ * @author Greg Frazier
+ *
+ */
+class LiveMetrics implements LiveMetricsMXBean, Instrumentation.PhaseListener {
+
+	private final Statistics stats;
+	private final String run;
+	private final int simLength;
+	private ObjectName name;
+	private HttpServer server;
+
+	private volatile Snapshot snapshot;
+
+	/** Maintained by the simulation's thread, and copied into each snapshot. */
+	private final Map<Instrumentation.Phase, Long> phaseNanos = new EnumMap<>(Instrumentation.Phase.class);
+	private long phaseStart;
+	private long firstYearStart = -1;
+	private int yearsCompleted = 0;
+
+	/** The state of the simulation at a phase boundary. */
+	private static class Snapshot {
+		final int year;
+		final String phase;
+		final Map<String, Long> phaseNanos;
+		final double yearsPerSecond;
+		final Map<String, Double> latestYear;
+
+		Snapshot(int year, String phase, Map<String, Long> phaseNanos, double yearsPerSecond,
+				Map<String, Double> latestYear) {
+			this.year = year;
+			this.phase = phase;
+			this.phaseNanos = phaseNanos;
+			this.yearsPerSecond = yearsPerSecond;
+			this.latestYear = latestYear;
+		}
+	}
+
+	private LiveMetrics(Statistics stats, File resultsDir, int simLength) {
+		this.stats = stats;
+		this.run = resultsDir.getPath();
+		this.simLength = simLength;
+		snapshot = new Snapshot(-1, "idle", Collections.emptyMap(), 0, Collections.emptyMap());
+	}
+
+	/**
+	 * Create and register the metrics specified by the properties 'live_metrics'
+	 * (default false) and 'live_metrics.http_port' (default: no HTTP endpoint).
+	 *
+	 * @return the metrics, or <code>null</code> if they are disabled or the
+	 *         simulation records no results
+	 */
+	static LiveMetrics create(Properties props, Statistics stats) {
+		if (!Boolean.parseBoolean(props.getProperty("live_metrics", "false")) || stats.getResultsDir() == null) {
+			return null;
+		}
+		LiveMetrics metrics = new LiveMetrics(stats, stats.getResultsDir(),
+				BeeHealthSimulation.getIntProperty(props, "sim_length"));
+		try {
+			metrics.name = new ObjectName("com.github.glfrazier.bee:type=LiveMetrics,run="
+					+ ObjectName.quote(metrics.run));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metrics.name);
+		} catch (Exception e) {
+			System.err.println("Failed to register the live metrics: " + e);
+			System.exit(-1);
+		}
+		if (props.containsKey("live_metrics.http_port")) {
+			int port = BeeHealthSimulation.getIntProperty(props, "live_metrics.http_port");
+			try {
+				metrics.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+			} catch (IOException | IllegalArgumentException e) {
+				System.err.println("Failed to serve the live metrics on port " + port + ": " + e);
+				System.exit(-1);
+			}
+			metrics.server.createContext("/metrics", metrics::serve);
+			metrics.server.start();
+			System.out.println("Serving the live metrics of " + metrics.run + " at http://127.0.0.1:"
+					+ metrics.server.getAddress().getPort() + "/metrics");
+		}
+		return metrics;
+	}
+
+	/** Stop the HTTP endpoint, and unregister the MBean. */
+	void close() {
+		if (server != null) {
+			server.stop(0);
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (Exception e) {
+			BeeHealthSimulation.LOGGER.warning("Failed to unregister the live metrics: " + e);
+		}
+	}
+
+	// Called by the simulation's thread, at the phase boundaries
+
+	@Override
+	public void startPhase(int year, Instrumentation.Phase phase) {
+		phaseStart = System.nanoTime();
+		if (firstYearStart < 0 && year >= 0) {
+			firstYearStart = phaseStart;
+		}
+		publish(year, phase.name(), snapshot.latestYear);
+	}
+
+	@Override
+	public void endPhase(int year, Instrumentation.Phase phase) {
+		long now = System.nanoTime();
+		phaseNanos.put(phase, now - phaseStart);
+		Map<String, Double> latestYear = snapshot.latestYear;
+		if (phase == Instrumentation.Phase.endOfSummer) {
+			yearsCompleted++;
+			latestYear = Collections.unmodifiableMap(stats.getLatestYearStatistics());
+		}
+		publish(year, "idle", latestYear);
+	}
+
+	private void publish(int year, String phase, Map<String, Double> latestYear) {
+		Map<String, Long> nanos = new LinkedHashMap<>();
+		for (Map.Entry<Instrumentation.Phase, Long> e : phaseNanos.entrySet()) {
+			nanos.put(e.getKey().name(), e.getValue());
+		}
+		double elapsed = firstYearStart < 0 ? 0 : (System.nanoTime() - firstYearStart) / 1e9;
+		snapshot = new Snapshot(year, phase, Collections.unmodifiableMap(nanos),
+				elapsed == 0 ? 0 : yearsCompleted / elapsed, latestYear);
+	}
+
+	// Called by readers, on any thread
+
+	@Override
+	public String getRun() {
+		return run;
+	}
+
+	@Override
+	public int getYear() {
+		return snapshot.year;
+	}
+
+	@Override
+	public int getSimLength() {
+		return simLength;
+	}
+
+	@Override
+	public String getPhase() {
+		return snapshot.phase;
+	}
+
+	@Override
+	public Map<String, Long> getPhaseNanos() {
+		return snapshot.phaseNanos;
+	}
+
+	@Override
+	public double getYearsPerSecond() {
+		return snapshot.yearsPerSecond;
+	}
+
+	@Override
+	public long getHeapUsedBytes() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	@Override
+	public long getHeapMaxBytes() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+	}
+
+	@Override
+	public Map<String, Double> getLatestYearStatistics() {
+		return snapshot.latestYear;
+	}
+
+	/** The metrics as a JSON object. */
+	String toJSON() {
+		Snapshot s = snapshot;
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		StringBuilder json = new StringBuilder("{");
+		json.append("\"run\":\"").append(run.replace("\\", "\\\\").replace("\"", "\\\"")).append("\",");
+		json.append("\"year\":").append(s.year).append(',');
+		json.append("\"sim_length\":").append(simLength).append(',');
+		json.append("\"phase\":\"").append(s.phase).append("\",");
+		json.append("\"phase_nanos\":{");
+		appendJSON(json, s.phaseNanos);
+		json.append("},");
+		json.append("\"years_per_second\":").append(s.yearsPerSecond).append(',');
+		json.append("\"heap_used_bytes\":").append(heap.getUsed()).append(',');
+		json.append("\"heap_max_bytes\":").append(heap.getMax()).append(',');
+		json.append("\"latest_year\":{");
+		appendJSON(json, s.latestYear);
+		json.append("}}");
+		return json.toString();
+	}
+
+	private static void appendJSON(StringBuilder json, Map<String, ? extends Number> values) {
+		boolean first = true;
+		for (Map.Entry<String, ? extends Number> e : values.entrySet()) {
+			if (!first) {
+				json.append(',');
+			}
+			first = false;
+			json.append('"').append(e.getKey()).append("\":").append(e.getValue());
+		}
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		byte[] body = (toJSON() + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.github.glfrazier.bee;
+
+import java.util.Map;
+
+/**
+ * The live state of a running simulation, as it is registered with the
+ * platform MBean server (see {@link LiveMetrics}).
+ *
+ * @author Greg Frazier
+ *
+ */
+public interface LiveMetricsMXBean {
+
+	/** The results directory of the run. */
+	String getRun();
+
+	/** The year being simulated; -1 during startup. */
+	int getYear();
+
+	/** The number of years that the run simulates (the property 'sim_length'). */
+	int getSimLength();
+
+	/** The phase that is running, or "idle" between phases. */
+	String getPhase();
+
+	/** The wall time of the most recent run of each phase, in nanoseconds. */
+	Map<String, Long> getPhaseNanos();
+
+	/** The years completed per second of wall time, since the first year began. */
+	double getYearsPerSecond();
+
+	long getHeapUsedBytes();
+
+	long getHeapMaxBytes();
+
+	/**
+	 * The statistics of the most recently completed year (see
+	 * {@link Statistics#getLatestYearStatistics()}).
+	 */
+	Map<String, Double> getLatestYearStatistics();
+}
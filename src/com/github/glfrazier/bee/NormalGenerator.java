@@ -0,0 +1,415 @@
+package com.github.glfrazier.bee;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * The source of the normally distributed values of the simulation: the drift of
+ * a child queen's genes ({@link InheritanceModel#getChildQueen(double, double,
+ * Random)}), the genes of the initial hives
+ * ({@link BeeHealthSimulation#cappedNormal(Random, double, double)}) and the
+ * number of hives at a site. The property 'gaussian_generator' specifies which
+ * generator to use:
+ * <dl>
+ * <dt>java (the default)</dt>
+ * <dd>{@link Random#nextGaussian()}: the polar method, which uses
+ * <code>StrictMath.log</code> and <code>StrictMath.sqrt</code>, and which keeps
+ * the second value of each pair in the <code>Random</code> that produced
+ * it.</dd>
+ * <dt>ziggurat</dt>
+ * <dd>Marsaglia and Tsang's ziggurat method, with 128 layers. About 99% of the
+ * values cost two <code>nextInt()</code> calls, a table lookup, a comparison and
+ * a multiplication.</dd>
+ * <dt>the name of a NormalGenerator class</dt>
+ * <dd>A 3rd-party generator. It must have a constructor that takes, as its only
+ * argument, a <code>java.util.Properties</code> object, and it must implement
+ * {@link #nextGaussian(Random)}.</dd>
+ * </dl>
+ *
+ * The property 'capped_normal' specifies how the initial genes are kept within
+ * <code>[mean - stddev .. min(mean + stddev, max_g)]</code>. <code>clip</code>
+ * (the default) clips the value to that range, which places a large part of the
+ * distribution (about a third of it) exactly on the bounds. <code>truncate</code>
+ * samples directly from the normal distribution truncated to that range (see
+ * {@link #truncatedNormal(Random, double, double, double, double)}).
+ *
+ * The generators produce different streams of values, so the choice changes the
+ * results of a run; it does not change their distribution. To compare a
+ * generator with {@link Random#nextGaussian()}, run
+ *
+ * <pre>
+ * java -cp bin com.github.glfrazier.bee.NormalGenerator [generator [samples [seed]]]
+ * </pre>
+ *
+ * which prints the moments and Kolmogorov-Smirnov distance of each, and of their
+ * truncated samples.
+ *
+ * @author Greg Frazier
+ *
+ */
+public abstract class NormalGenerator implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String[] GENERATORS = { "java", "ziggurat" };
+
+	private static final double SQRT_2PI = Math.sqrt(2 * Math.PI);
+
+	/** Set by the property capped_normal. */
+	protected final boolean truncate;
+
+	protected NormalGenerator(Properties props) {
+		String capped = props.getProperty("capped_normal", "clip");
+		if (!capped.equals("clip") && !capped.equals("truncate")) {
+			throw new IllegalArgumentException("capped_normal must be clip or truncate. You specified " + capped);
+		}
+		truncate = capped.equals("truncate");
+	}
+
+	/**
+	 * Obtain the generator that is specified by the properties. Note that the
+	 * program will terminate with an error message if the property
+	 * 'gaussian_generator' specifies an unknown generator.
+	 */
+	public static NormalGenerator create(Properties props) {
+		String generator = props.getProperty("gaussian_generator", "java");
+		try {
+			if (generator.equals("java")) {
+				return new JavaGenerator(props);
+			}
+			if (generator.equals("ziggurat")) {
+				return new Ziggurat(props);
+			}
+			if (generator.contains(".")) {
+				return (NormalGenerator) BeeHealthSimulation.createPropertiesObject(props, generator);
+			}
+		} catch (Throwable e) {
+			System.err.println("When parsing the gaussian generator properties, the exception\n\t" + e
+					+ "\nwas generated.");
+			System.exit(-1);
+		}
+		System.err.println("'gaussian_generator=" + generator + "' is not supported. The supported generators:");
+		for (String g : GENERATORS) {
+			System.err.println("\t" + g);
+		}
+		System.exit(-1);
+		// unreachable code
+		return null;
+	}
+
+	/**
+	 * @return a normally distributed value with mean 0.0 and standard deviation
+	 *         1.0, computed from <code>rand</code>
+	 */
+	public abstract double nextGaussian(Random rand);
+
+	/**
+	 * A normally distributed value, kept within the range
+	 * <code>[mean - stddev .. min(mean + stddev, max)]</code> by clipping or by
+	 * truncation (see the property 'capped_normal').
+	 */
+	public double cappedNormal(Random rand, double mean, double stddev, double max) {
+		if (truncate) {
+			return truncatedNormal(rand, mean, stddev, mean - stddev, Math.min(mean + stddev, max));
+		}
+		double d = nextGaussian(rand) * stddev + mean;
+		if (d > mean + stddev)
+			d = mean + stddev;
+		if (d > max)
+			d = max;
+		if (d < mean - stddev)
+			d = mean - stddev;
+		return d;
+	}
+
+	/**
+	 * A value from the normal distribution with the given mean and standard
+	 * deviation, truncated to <code>[lo .. hi]</code>. The value is sampled
+	 * directly, by rejection (Robert, "Simulation of truncated normal variables",
+	 * 1995): from the normal distribution if the range is wide and includes the
+	 * mean, from a uniform distribution if it is narrow, and from a shifted
+	 * exponential distribution if it lies in a tail. If the range is empty, the
+	 * result is <code>lo</code>.
+	 */
+	public double truncatedNormal(Random rand, double mean, double stddev, double lo, double hi) {
+		if (!(hi > lo) || !(stddev > 0)) {
+			return lo;
+		}
+		double a = (lo - mean) / stddev;
+		double b = (hi - mean) / stddev;
+		double z;
+		if (a <= 0 && b >= 0) {
+			z = b - a < SQRT_2PI ? uniformRejection(rand, a, b, 0) : normalRejection(rand, a, b);
+		} else if (a > 0) {
+			z = tail(rand, a, b);
+		} else {
+			z = -tail(rand, -b, -a);
+		}
+		return mean + stddev * z;
+	}
+
+	private double normalRejection(Random rand, double a, double b) {
+		while (true) {
+			double z = nextGaussian(rand);
+			if (z >= a && z <= b) {
+				return z;
+			}
+		}
+	}
+
+	/**
+	 * Sample the standard normal density on <code>[a .. b]</code> by uniform
+	 * rejection. <code>peak</code> is the point of the range closest to 0.
+	 */
+	private static double uniformRejection(Random rand, double a, double b, double peak) {
+		while (true) {
+			double z = a + (b - a) * rand.nextDouble();
+			if (rand.nextDouble() < Math.exp((peak * peak - z * z) / 2)) {
+				return z;
+			}
+		}
+	}
+
+	/** Sample the standard normal density on <code>[a .. b]</code>, 0 < a. */
+	private static double tail(Random rand, double a, double b) {
+		double root = Math.sqrt(a * a + 4);
+		double lambda = (a + root) / 2;
+		if (b < a + 2 * Math.sqrt(Math.E) / (a + root) * Math.exp((a * a - a * root) / 4)) {
+			return uniformRejection(rand, a, b, a);
+		}
+		while (true) {
+			double z = a - Math.log(1.0 - rand.nextDouble()) / lambda;
+			if (z <= b && rand.nextDouble() < Math.exp(-(z - lambda) * (z - lambda) / 2)) {
+				return z;
+			}
+		}
+	}
+
+	/**
+	 * {@link Random#nextGaussian()}.
+	 */
+	public static class JavaGenerator extends NormalGenerator {
+
+		private static final long serialVersionUID = 1L;
+
+		public JavaGenerator(Properties props) {
+			super(props);
+		}
+
+		@Override
+		public double nextGaussian(Random rand) {
+			return rand.nextGaussian();
+		}
+	}
+
+	/**
+	 * The ziggurat method (Marsaglia and Tsang, "The Ziggurat Method for
+	 * Generating Random Variables", 2000). The density is covered by 128 layers of
+	 * equal area; a value is drawn uniformly from a random layer, and is accepted
+	 * outright if it lies within the part of the layer that is under the curve.
+	 * The layer is chosen with a separate draw from the value, which avoids the
+	 * correlation that Doornik (2005) found in the original.
+	 */
+	public static class Ziggurat extends NormalGenerator {
+
+		private static final long serialVersionUID = 1L;
+
+		/** The right-hand edge of the base layer. */
+		private static final double R = 3.442619855899;
+
+		/** The area of each layer. */
+		private static final double V = 9.91256303526217e-3;
+
+		private static final double M = 2147483648.0;
+
+		private static final long[] K = new long[128];
+		private static final double[] W = new double[128];
+		private static final double[] F = new double[128];
+
+		static {
+			double dn = R;
+			double tn = dn;
+			double q = V / Math.exp(-0.5 * dn * dn);
+			K[0] = (long) ((dn / q) * M);
+			K[1] = 0;
+			W[0] = q / M;
+			W[127] = dn / M;
+			F[0] = 1.0;
+			F[127] = Math.exp(-0.5 * dn * dn);
+			for (int i = 126; i >= 1; i--) {
+				dn = Math.sqrt(-2 * Math.log(V / dn + Math.exp(-0.5 * dn * dn)));
+				K[i + 1] = (long) ((dn / tn) * M);
+				tn = dn;
+				F[i] = Math.exp(-0.5 * dn * dn);
+				W[i] = dn / M;
+			}
+		}
+
+		public Ziggurat(Properties props) {
+			super(props);
+		}
+
+		@Override
+		public double nextGaussian(Random rand) {
+			while (true) {
+				int hz = rand.nextInt();
+				// The high bits of java.util.Random are its best
+				int iz = rand.nextInt() >>> 25;
+				double x = hz * W[iz];
+				if (Math.abs((long) hz) < K[iz]) {
+					return x;
+				}
+				if (iz == 0) {
+					// The tail beyond R
+					double y;
+					do {
+						x = -Math.log(1.0 - rand.nextDouble()) / R;
+						y = -Math.log(1.0 - rand.nextDouble());
+					} while (y + y < x * x);
+					return hz > 0 ? R + x : -R - x;
+				}
+				// The wedge of the layer that is partly under the curve
+				if (F[iz] + rand.nextDouble() * (F[iz - 1] - F[iz]) < Math.exp(-0.5 * x * x)) {
+					return x;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compare a generator (by default, the ziggurat) with
+	 * {@link Random#nextGaussian()}: the moments of each, their
+	 * Kolmogorov-Smirnov distances from the normal distribution and from each
+	 * other; and the Kolmogorov-Smirnov distances of its
+	 * {@link #truncatedNormal(Random, double, double, double, double)} from the
+	 * truncated normal distribution and from rejection sampling of
+	 * {@link Random#nextGaussian()}.
+	 *
+	 * @param args [generator [samples [seed]]]
+	 */
+	public static void main(String[] args) {
+		Properties props = new Properties();
+		props.setProperty("gaussian_generator", args.length > 0 ? args[0] : "ziggurat");
+		int n = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		NormalGenerator candidate = create(props);
+		NormalGenerator java = new JavaGenerator(props);
+		// The two-sample critical value at alpha = 0.01
+		double critical = 1.628 * Math.sqrt(2.0 / n);
+		System.out.println("samples=" + n + ", seed=" + seed + ", KS critical value (1%) "
+				+ String.format("%.5f", critical) + " (one-sample " + String.format("%.5f", 1.628 / Math.sqrt(n))
+				+ ")");
+		System.out.println("generator\tmean\tstddev\tskewness\tkurtosis\tKS(normal)\tns/value");
+
+		double[][] samples = new double[2][];
+		NormalGenerator[] generators = { java, candidate };
+		for (int g = 0; g < 2; g++) {
+			Random r = new Random(seed);
+			double[] s = new double[n];
+			long start = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				s[i] = generators[g].nextGaussian(r);
+			}
+			long elapsed = System.nanoTime() - start;
+			Arrays.sort(s);
+			samples[g] = s;
+			double ks = 0;
+			for (int i = 0; i < n; i++) {
+				double cdf = phi(s[i]);
+				ks = Math.max(ks, Math.max((i + 1.0) / n - cdf, cdf - (double) i / n));
+			}
+			System.out.println(
+					(g == 0 ? "nextGaussian" : props.getProperty("gaussian_generator")) + "\t" + moments(s) + "\t"
+							+ String.format("%.5f\t%.1f", ks, (double) elapsed / n));
+		}
+		System.out.println("KS(nextGaussian, " + props.getProperty("gaussian_generator") + ") = "
+				+ String.format("%.5f", ksDistance(samples[0], samples[1])));
+
+		// (mean, stddev, lo, hi): the ranges of cappedNormal (symmetric, cut short by
+		// max_g, and entirely below the mean), a wide range, and two tails
+		double[][] ranges = { { 0.5, 0.1, 0.4, 0.6 }, { 0.85, 0.1, 0.75, 0.9 }, { 0.9, 0.1, 0.8, 0.85 },
+				{ 0, 1, -1, 3 }, { 0, 1, 2, 6 }, { 0, 1, -2.5, -2 } };
+		System.out.println("truncated: mean, stddev, [lo .. hi]\tKS(truncated normal)\tKS(rejection from nextGaussian)");
+		for (double[] range : ranges) {
+			double mean = range[0];
+			double stddev = range[1];
+			double lo = range[2];
+			double hi = range[3];
+			Random r = new Random(seed);
+			double[] reference = new double[n];
+			for (int i = 0; i < n; i++) {
+				double d;
+				do {
+					d = mean + stddev * r.nextGaussian();
+				} while (d < lo || d > hi);
+				reference[i] = d;
+			}
+			double[] truncated = new double[n];
+			r = new Random(seed + 1);
+			for (int i = 0; i < n; i++) {
+				truncated[i] = candidate.truncatedNormal(r, mean, stddev, lo, hi);
+			}
+			Arrays.sort(reference);
+			Arrays.sort(truncated);
+			double phiLo = phi((lo - mean) / stddev);
+			double phiHi = phi((hi - mean) / stddev);
+			double ks = 0;
+			for (int i = 0; i < n; i++) {
+				double cdf = (phi((truncated[i] - mean) / stddev) - phiLo) / (phiHi - phiLo);
+				ks = Math.max(ks, Math.max((i + 1.0) / n - cdf, cdf - (double) i / n));
+			}
+			System.out.println(String.format("%.2f, %.2f, [%.2f .. %.2f]\t%.5f\t%.5f", mean, stddev, lo, hi, ks,
+					ksDistance(reference, truncated)));
+		}
+	}
+
+	private static String moments(double[] s) {
+		double mean = 0;
+		for (double d : s) {
+			mean += d;
+		}
+		mean /= s.length;
+		double m2 = 0, m3 = 0, m4 = 0;
+		for (double d : s) {
+			double e = d - mean;
+			m2 += e * e;
+			m3 += e * e * e;
+			m4 += e * e * e * e;
+		}
+		m2 /= s.length;
+		m3 /= s.length;
+		m4 /= s.length;
+		return String.format("%.5f\t%.5f\t%.5f\t%.5f", mean, Math.sqrt(m2), m3 / Math.pow(m2, 1.5),
+				m4 / (m2 * m2) - 3);
+	}
+
+	/** The two-sample Kolmogorov-Smirnov distance of two sorted samples. */
+	private static double ksDistance(double[] a, double[] b) {
+		int i = 0, j = 0;
+		double d = 0;
+		while (i < a.length && j < b.length) {
+			double x = Math.min(a[i], b[j]);
+			while (i < a.length && a[i] <= x) {
+				i++;
+			}
+			while (j < b.length && b[j] <= x) {
+				j++;
+			}
+			d = Math.max(d, Math.abs((double) i / a.length - (double) j / b.length));
+		}
+		return d;
+	}
+
+	/**
+	 * The standard normal CDF (Abramowitz and Stegun 26.2.17; the error is less
+	 * than 7.5e-8).
+	 */
+	private static double phi(double x) {
+		double t = 1 / (1 + 0.2316419 * Math.abs(x));
+		double poly = t * (0.319381530 + t * (-0.356563782 + t * (1.781477937 + t * (-1.821255978 + t * 1.330274429))));
+		double upper = Math.exp(-x * x / 2) / SQRT_2PI * poly;
+		return x >= 0 ? 1 - upper : upper;
+	}
+}
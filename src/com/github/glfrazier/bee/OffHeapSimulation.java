@@ -0,0 +1,871 @@
+package com.github.glfrazier.bee;
+
+import static com.github.glfrazier.bee.BeeHealthSimulation.LOGGER;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * The simulation of {@link BeeHealthSimulation}, run against an
+ * {@link OffHeapStore} rather than the {@link Grid}/{@link Site}/{@link Hive}
+ * object graph. Select it with the property <code>storage=offheap</code>; set
+ * <code>storage_file</code> to memory-map the records from a file. Every phase
+ * walks the records through a handful of flyweight views, so the Java heap
+ * (and the garbage collector's work) does not grow with the size of the grid.
+ *
+ * The phases follow the object model's rules (including those of the
+ * properties <code>fast_startup</code>, <code>queen_purchasing</code> and
+ * <code>survivalprob.model</code>), and the per-site and per-hive random number
+ * streams are the same, but this engine is single-threaded, it installs a
+ * purchased queen in her hive's record (where the object model moves the hive
+ * to the end of its site's hives), and it shuffles the swarming order
+ * differently. Its results therefore match the object model statistically
+ * rather than exactly. The optional behaviors that the object model offers
+ * through its extension points (e.g., the {@link SiteLayout}), and its
+ * performance options that this engine does not implement (more than one
+ * thread, the drone congregation cache), are not available here: the engine
+ * exits if they are requested.
+ *
+ * @author Greg Frazier
+ *
+ */
+public class OffHeapSimulation implements Runnable {
+
+	private final Properties props;
+	private final Random random = new Random();
+	private InheritanceModel iModel;
+	private NormalGenerator normal;
+	private Statistics stats;
+	private OffHeapStore store;
+
+	private int edgeLength;
+	private int simLength;
+	private int minDrones;
+	private int maxDrones;
+	private int matingFlightDistance;
+	private int droneParticipationDistance;
+	private int swarmDistance;
+	private int maxHiveAge;
+	private int minimumRequeenAge;
+	private double requeenProbability;
+	private double domesticProbSwarm;
+	private double feralProbSwarm;
+	private HiveSurvivalProbabilityModel survivalModel;
+	private boolean feralUsesDomesticSurvivalModel;
+	/** True if queen_purchasing is order_book, false if it is direct. */
+	private boolean orderBook;
+
+	/** The indices of the queen breeder sites. */
+	private int[] queenBreeders;
+	private int liveQueenBreederHives;
+
+	/** The order in which hives are offered the chance to swarm (off-heap). */
+	private MemorySegment swarmOrder;
+
+	/**
+	 * The queens bought this year (off-heap), one record of {@link #orderBytes}
+	 * per replaced hive: the hive, the mother hive, the seed of the hive's random
+	 * number generator, and the queen and her drones. See
+	 * {@link #replaceDeadHivesOrRequeenLiveHives()}.
+	 */
+	private MemorySegment orders;
+	private long orderBytes;
+	private static final long ORDER_HIVE = 0;
+	private static final long ORDER_MOTHER = 4;
+	private static final long ORDER_SEED = 8;
+	private static final long ORDER_QUEEN = 16;
+	private static final long ORDER_DRONE_COUNT = 24;
+	private static final long ORDER_DRONES = 32;
+
+	// Flyweight views
+	private OffHeapStore.SiteView site;
+	private OffHeapStore.SiteView otherSite;
+	private OffHeapStore.HiveView hive;
+	private OffHeapStore.HiveView otherHive;
+	/** Used by the neighborhood scans, which run while the other views are in use. */
+	private OffHeapStore.HiveView scanHive;
+
+	// Scratch space, reused so that the phases do not allocate
+	/** The drone genes of a hive, indexed by the number of drones. */
+	private double[][] dronesByCount;
+	private double[] matedDrones;
+	private double[] swarmDrones;
+	private double[] flyingDrones = new double[64];
+	private int[] candidates = new int[64];
+
+	public OffHeapSimulation(Properties props) {
+		this.props = props;
+	}
+
+	public void initialize() throws IOException {
+		if (!props.getProperty("breeder_market", "uniform").equals("uniform")) {
+			System.err.println("'storage=offheap' supports only 'breeder_market=uniform'.");
+			System.exit(-1);
+		}
+		if (!props.getProperty("mating_engine", "exact").equals("exact")) {
+			System.err.println("'storage=offheap' supports only 'mating_engine=exact'.");
+			System.exit(-1);
+		}
+		if (Boolean.parseBoolean(props.getProperty("event_trace", "false"))) {
+			System.err.println("'storage=offheap' does not support 'event_trace'.");
+			System.exit(-1);
+		}
+		if (Boolean.parseBoolean(props.getProperty("lineage_tracking", "false"))) {
+			System.err.println("'storage=offheap' does not support 'lineage_tracking'.");
+			System.exit(-1);
+		}
+		if (props.containsKey("tile_aggregates") && BeeHealthSimulation.getIntProperty(props, "tile_aggregates") != 0) {
+			System.err.println("'storage=offheap' does not support 'tile_aggregates'.");
+			System.exit(-1);
+		}
+		if (Boolean.parseBoolean(props.getProperty("live_metrics", "false"))) {
+			System.err.println("'storage=offheap' does not support 'live_metrics'.");
+			System.exit(-1);
+		}
+		if (!props.getProperty("grid_layout", "row_major").equals("row_major")) {
+			System.err.println("'storage=offheap' supports only 'grid_layout=row_major'.");
+			System.exit(-1);
+		}
+		if (Boolean.parseBoolean(props.getProperty("active_sites", "false"))) {
+			System.err.println("'storage=offheap' does not support 'active_sites'.");
+			System.exit(-1);
+		}
+		if (props.containsKey("threads") && BeeHealthSimulation.getIntProperty(props, "threads") != 1) {
+			System.err.println("'storage=offheap' is single-threaded; it supports only 'threads=1'.");
+			System.exit(-1);
+		}
+		if (Boolean.parseBoolean(props.getProperty("drone_congregation_cache", "true"))) {
+			System.err.println(
+					"'storage=offheap' does not support 'drone_congregation_cache'; set it to false.");
+			System.exit(-1);
+		}
+		String purchasing = props.getProperty("queen_purchasing", "order_book");
+		if (!purchasing.equals("order_book") && !purchasing.equals("direct")) {
+			System.err.println("'queen_purchasing=" + purchasing + "' is not supported. Use order_book or direct.");
+			System.exit(-1);
+		}
+		orderBook = purchasing.equals("order_book");
+		long seed = BeeHealthSimulation.resolveSeed(props);
+		random.setSeed(seed);
+		edgeLength = BeeHealthSimulation.getIntProperty(props, "edge_length");
+		simLength = BeeHealthSimulation.getIntProperty(props, "sim_length");
+		minDrones = BeeHealthSimulation.getIntProperty(props, "min_drones");
+		maxDrones = BeeHealthSimulation.getIntProperty(props, "max_drones");
+		matingFlightDistance = BeeHealthSimulation.getIntProperty(props, "mating_flight_distance");
+		droneParticipationDistance = BeeHealthSimulation.getIntProperty(props, "drone_participation_distance");
+		swarmDistance = BeeHealthSimulation.getIntProperty(props, "swarm_distance");
+		maxHiveAge = BeeHealthSimulation.getIntProperty(props, "max_hive_age");
+		minimumRequeenAge = BeeHealthSimulation.getIntProperty(props, "min_requeen_age");
+		requeenProbability = BeeHealthSimulation.getProbabilityProperty(props, "requeen_probability");
+		domesticProbSwarm = BeeHealthSimulation.getProbabilityProperty(props, "domestic_prob_swarm");
+		feralProbSwarm = BeeHealthSimulation.getProbabilityProperty(props, "feral_prob_swarm");
+		if (!props.containsKey("survivalprob.model")) {
+			props.setProperty("survivalprob.model", "linear");
+		}
+		survivalModel = HiveSurvivalProbabilityModel.getModel(props);
+		feralUsesDomesticSurvivalModel = BeeHealthSimulation.getBooleanProperty(props,
+				"feral_uses_domestic_survival_model");
+		iModel = new InheritanceModel(props);
+		normal = NormalGenerator.create(props);
+		stats = new Statistics(props, null);
+
+		String storageFile = props.getProperty("storage_file");
+		store = new OffHeapStore(edgeLength, maxDrones, storageFile == null ? null : new File(storageFile));
+		site = new OffHeapStore.SiteView(store);
+		otherSite = new OffHeapStore.SiteView(store);
+		hive = new OffHeapStore.HiveView(store);
+		otherHive = new OffHeapStore.HiveView(store);
+		scanHive = new OffHeapStore.HiveView(store);
+		dronesByCount = new double[maxDrones + 1][];
+		for (int i = 0; i <= maxDrones; i++) {
+			dronesByCount[i] = new double[i];
+		}
+		matedDrones = new double[maxDrones];
+		swarmDrones = new double[maxDrones];
+
+		// The site seeds are drawn in the same order as the Grid draws them
+		int numberOfSites = store.numberOfSites();
+		for (int i = 0; i < numberOfSites; i++) {
+			site.moveTo(i).random().setSeed(random.nextLong());
+		}
+		chooseSiteTypes();
+
+		// Now that every site's hive count is known, lay out the hives
+		int numberOfHives = 0;
+		int domesticHives = 0;
+		int largestSite = 0;
+		for (int i = 0; i < numberOfSites; i++) {
+			site.moveTo(i);
+			int count = site.hiveCount();
+			site.setHives(numberOfHives, count);
+			numberOfHives += count;
+			if (site.isDomestic()) {
+				domesticHives += count;
+				largestSite = Math.max(largestSite, count);
+			}
+		}
+		store.allocateHives(numberOfHives);
+		swarmOrder = store.allocate(4L * numberOfHives);
+		// The order book holds a year's orders; a direct purchase, only a site's
+		orderBytes = ORDER_DRONES + 8L * maxDrones;
+		orders = store.allocate(orderBytes * (orderBook ? domesticHives : largestSite));
+		initializeHives();
+		LOGGER.fine("Initialized " + numberOfSites + " sites and " + numberOfHives + " hives off-heap.");
+	}
+
+	/**
+	 * Choose the queen breeders, decide which sites are domestic, and choose the
+	 * number of hives at each site (held, for now, in the site's hive count).
+	 */
+	private void chooseSiteTypes() {
+		boolean allDomesticSitesAreQueenBreeders = false;
+		int numberOfQueenBreeders = 0;
+		String nqb = BeeHealthSimulation.getProperty(props, "number_queen_breeders");
+		if ("all".equals(nqb)) {
+			allDomesticSitesAreQueenBreeders = true;
+		} else {
+			numberOfQueenBreeders = Integer.parseInt(nqb);
+		}
+		int queenBreederHiveCount = BeeHealthSimulation.getIntProperty(props, "queen_breeder_hive_count");
+		int numberOfSites = store.numberOfSites();
+		if (numberOfQueenBreeders > numberOfSites) {
+			System.out.println("You have specified more queen breeders than there are sites in this simulation!");
+			System.exit(-1);
+		}
+		// Choose the queen breeders as Grid.initialize does. With fast_startup, a
+		// partial Fisher-Yates shuffle of the site indices, holding only the
+		// displaced entries, selects them in O(k) time and space; otherwise each is
+		// removed from the list of every site's index.
+		boolean fastStartup = Boolean.parseBoolean(props.getProperty("fast_startup", "false"));
+		Map<Integer, Integer> displaced = fastStartup ? new HashMap<>() : null;
+		int[] remainingSites = null;
+		if (!fastStartup && numberOfQueenBreeders > 0) {
+			remainingSites = new int[numberOfSites];
+			for (int i = 0; i < numberOfSites; i++) {
+				remainingSites[i] = i;
+			}
+		}
+		queenBreeders = new int[numberOfQueenBreeders];
+		for (int i = 0; i < numberOfQueenBreeders; i++) {
+			int chosen;
+			if (fastStartup) {
+				int j = i + random.nextInt(numberOfSites - i);
+				chosen = displaced.getOrDefault(j, j);
+				displaced.put(j, displaced.getOrDefault(i, i));
+			} else {
+				int remaining = numberOfSites - i;
+				int j = random.nextInt(remaining);
+				chosen = remainingSites[j];
+				System.arraycopy(remainingSites, j + 1, remainingSites, j, remaining - 1 - j);
+			}
+			queenBreeders[i] = chosen;
+			site.moveTo(chosen);
+			site.setDomestic(true);
+			site.setQueenBreeder(true);
+			// Keep the site's random numbers in step with Grid.initialize
+			site.random().nextDouble();
+			site.setHives(0, queenBreederHiveCount);
+		}
+		double pDomestic = BeeHealthSimulation.getProbabilityProperty(props, "prob_domestic");
+		String numberOfHivesDistro = pDomestic > 0 && !allDomesticSitesAreQueenBreeders
+				? BeeHealthSimulation.getProperty(props, "number_of_hives_distribution")
+				: "";
+		int domesticSites = 0;
+		for (int i = 0; i < numberOfSites; i++) {
+			site.moveTo(i);
+			if (site.isQueenBreeder()) {
+				continue;
+			}
+			Random r = site.random();
+			boolean domestic = r.nextDouble() < pDomestic;
+			site.setDomestic(domestic);
+			int numberOfHives = 1;
+			if (domestic) {
+				domesticSites++;
+				if (allDomesticSitesAreQueenBreeders) {
+					numberOfHives = queenBreederHiveCount;
+					site.setQueenBreeder(true);
+				} else if (numberOfHivesDistro.equals("three-way-norm")) {
+					double m0 = BeeHealthSimulation.getDoubleProperty(props, "number_of_hives_m0");
+					double m1 = BeeHealthSimulation.getDoubleProperty(props, "number_of_hives_m1");
+					double m2 = BeeHealthSimulation.getDoubleProperty(props, "number_of_hives_m2");
+					if (m0 + m1 + m2 != 1.0) {
+						System.err.println(
+								"In the 'three-way-norm' number-of-hives distribution, m1+m2+m3 must equal 1.0.");
+						System.exit(-1);
+					}
+					double r0 = r.nextDouble();
+					int mult = r0 < m0 ? 2 : r0 < m0 + m1 ? 10 : 25;
+					numberOfHives = (int) (mult * Math.abs(normal.nextGaussian(r))) + 1;
+				} else if (numberOfHivesDistro.equals("linear")) {
+					int min = BeeHealthSimulation.getIntProperty(props, "number_of_hives_min");
+					int max = BeeHealthSimulation.getIntProperty(props, "number_of_hives_max");
+					numberOfHives = r.nextInt(1 + max - min) + min;
+				} else {
+					System.err.println("The 'number_of_hives_distro' <" + numberOfHivesDistro + "> is not supported.");
+					System.exit(-1);
+				}
+			}
+			site.setHives(0, numberOfHives);
+		}
+		if (allDomesticSitesAreQueenBreeders) {
+			queenBreeders = new int[domesticSites];
+			int next = 0;
+			for (int i = 0; i < numberOfSites; i++) {
+				if (site.moveTo(i).isQueenBreeder()) {
+					queenBreeders[next++] = i;
+				}
+			}
+		}
+	}
+
+	private void initializeHives() {
+		double g0 = BeeHealthSimulation.getProbabilityProperty(props, "g0_feral");
+		double stddev = BeeHealthSimulation.getProbabilityProperty(props, "stddev_g");
+		double maxG = BeeHealthSimulation.getProbabilityProperty(props, "max_g");
+		for (int i = 0; i < store.numberOfSites(); i++) {
+			site.moveTo(i);
+			Random r = site.random();
+			boolean domestic = site.isDomestic();
+			int first = site.firstHive();
+			for (int h = first; h < first + site.hiveCount(); h++) {
+				double q = normal.cappedNormal(r, g0, stddev, maxG);
+				int droneCount = r.nextInt(1 + maxDrones - minDrones) + minDrones;
+				for (int j = 0; j < droneCount; j++) {
+					matedDrones[j] = normal.cappedNormal(r, g0, stddev, maxG);
+				}
+				createHive(h, i, q, matedDrones, droneCount, r.nextLong(), domestic);
+				if (site.isQueenBreeder()) {
+					liveQueenBreederHives++;
+				}
+			}
+		}
+	}
+
+	/** Write a new (living, unbred) hive into the record <code>h</code>. */
+	private void createHive(int h, int siteIndex, double queen, double[] drones, int droneCount, long seed,
+			boolean domestic) {
+		hive.moveTo(h);
+		hive.setSite(siteIndex);
+		hive.setQueenGene(queen);
+		hive.setDrones(drones, droneCount);
+		hive.random().setSeed(seed);
+		hive.setAge(0);
+		hive.setDead(false);
+		hive.setCanBreed(false);
+		stats.newHiveCreated(domestic);
+	}
+
+	public Statistics getSimulationStatistics() {
+		return stats;
+	}
+
+	/**
+	 * Initialize and run the simulation.
+	 */
+	@Override
+	public void run() {
+		try {
+			initialize();
+			simulate();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Run the (initialized) simulation and record the results.
+	 */
+	public void simulate() throws IOException {
+		props.setProperty("desc_number_of_hives_" + stats.getHivesCreatedThisYear(),
+				"" + stats.getHivesCreatedThisYear());
+		stats.writeProperties();
+		stats.writeSites("sim_start_sites.csv", siteStates());
+		censusAtEndOfSummer();
+		stats.endOfSummer();
+		int progressInterval = -1;
+		if (props.containsKey("progress_interval")) {
+			progressInterval = BeeHealthSimulation.getIntProperty(props, "progress_interval");
+		}
+		for (int year = 0; year < simLength; year++) {
+			boolean verbose = (progressInterval > 0 && year % progressInterval == 0);
+			if (verbose) {
+				System.out.println("Processing year " + year);
+			}
+			process();
+			if (verbose) {
+				System.out.println("Completed processing year " + year);
+			}
+		}
+		stats.writeSites("sites.csv", siteStates());
+		stats.writeResults();
+		store.close();
+	}
+
+	/**
+	 * Process a year of the simulation.
+	 */
+	private void process() {
+		int numberOfSites = store.numberOfSites();
+		for (int i = 0; i < numberOfSites; i++) {
+			site.moveTo(i);
+			boolean domestic = site.isDomestic();
+			boolean queenBreeder = site.isQueenBreeder();
+			int first = site.firstHive();
+			for (int h = first; h < first + site.hiveCount(); h++) {
+				overWinter(hive.moveTo(h), domestic, queenBreeder);
+				stats.hiveAtEndOfWinter(domestic, hive.isDead());
+			}
+		}
+		stats.endOfWinter();
+		replaceDeadHivesOrRequeenLiveHives();
+		// Shuffle the hives (Fisher-Yates), and offer each the chance to swarm
+		int numberOfHives = store.numberOfHives();
+		for (int h = 0; h < numberOfHives; h++) {
+			swarmOrder.setAtIndex(ValueLayout.JAVA_INT, h, h);
+		}
+		for (int h = numberOfHives - 1; h > 0; h--) {
+			int j = random.nextInt(h + 1);
+			int tmp = swarmOrder.getAtIndex(ValueLayout.JAVA_INT, h);
+			swarmOrder.setAtIndex(ValueLayout.JAVA_INT, h, swarmOrder.getAtIndex(ValueLayout.JAVA_INT, j));
+			swarmOrder.setAtIndex(ValueLayout.JAVA_INT, j, tmp);
+		}
+		for (int h = 0; h < numberOfHives; h++) {
+			swarmIfAppropriate(swarmOrder.getAtIndex(ValueLayout.JAVA_INT, h));
+		}
+		censusAtEndOfSummer();
+		stats.endOfSummer();
+	}
+
+	/** See {@link Hive#overWinter()}. */
+	private void overWinter(OffHeapStore.HiveView h, boolean domestic, boolean queenBreeder) {
+		if (h.isDead()) {
+			return;
+		}
+		if (h.age() >= maxHiveAge) {
+			if (queenBreeder && liveQueenBreederHives == 1) {
+				LOGGER.info("Hive " + h.index() + " is the last queen breeder alive, and so cannot die of old age.");
+				return;
+			}
+			h.setDead(true);
+			stats.diedOfOldAge(domestic);
+			if (queenBreeder) {
+				liveQueenBreederHives--;
+			}
+			return;
+		}
+		double prob = survivalModel.survivalProbability(h.hiveStrength(),
+				domestic || feralUsesDomesticSurvivalModel);
+		if (!(h.random().nextDouble() < prob)) {
+			if (queenBreeder && liveQueenBreederHives == 1) {
+				LOGGER.info(
+						"Hive " + h.index() + " is the last queen breeder alive, and so cannot fail to overwinter.");
+				return;
+			}
+			h.setDead(true);
+			stats.failedToSurviveWinter(domestic);
+			if (queenBreeder) {
+				liveQueenBreederHives--;
+			}
+			return;
+		}
+		h.setCanBreed(true);
+		h.setAge(h.age() + 1);
+	}
+
+	/**
+	 * Replace the dead hives and requeen some of the living ones at every domestic
+	 * site. With <code>queen_purchasing=order_book</code>, as {@link QueenOrderBook}
+	 * does: every site orders its queens, then the orders are fulfilled, and then
+	 * the queens are installed. (The orders are fulfilled in the order of the
+	 * buyers rather than grouped by breeder; as each draws only from its mother
+	 * hive's random number generator, and no hive changes until the installation,
+	 * the queens are the same.) With <code>direct</code>, as
+	 * {@link Site#replaceDeadHivesOrRequeenLiveHives()} does: each site buys its
+	 * queens in turn, and installs them before the next site buys.
+	 */
+	private void replaceDeadHivesOrRequeenLiveHives() {
+		int numberOfSites = store.numberOfSites();
+		int n = 0;
+		for (int i = 0; i < numberOfSites; i++) {
+			if (!site.moveTo(i).isDomestic()) {
+				continue;
+			}
+			int first = site.firstHive();
+			int count = site.hiveCount();
+			if (orderBook) {
+				// Decide which hives are replaced before ordering any queens, as Site does
+				int firstOrder = n;
+				for (int h = first; h < first + count; h++) {
+					if (hive.moveTo(h).isDead() || requeen(hive)) {
+						orders.set(ValueLayout.JAVA_INT, n++ * orderBytes + ORDER_HIVE, h);
+					}
+				}
+				for (int k = firstOrder; k < n; k++) {
+					orderMatedQueen(k);
+				}
+			} else {
+				for (int h = first; h < first + count; h++) {
+					if (hive.moveTo(h).isDead() || requeen(hive)) {
+						orders.set(ValueLayout.JAVA_INT, n * orderBytes + ORDER_HIVE, h);
+						orderMatedQueen(n);
+						fulfillOrder(n++);
+					}
+				}
+				installQueens(n);
+				n = 0;
+			}
+		}
+		if (orderBook) {
+			for (int k = 0; k < n; k++) {
+				fulfillOrder(k);
+			}
+			installQueens(n);
+		}
+	}
+
+	/** See {@link Hive#requeen()}. */
+	private boolean requeen(OffHeapStore.HiveView h) {
+		if (h.age() >= minimumRequeenAge) {
+			boolean result = h.random().nextDouble() < requeenProbability;
+			if (result) {
+				stats.hiveIsRequeened();
+			}
+			return result;
+		}
+		return false;
+	}
+
+	/**
+	 * See <code>Grid.orderMatedQueen</code>. The view {@link #site} is positioned
+	 * on the buyer.
+	 */
+	private void orderMatedQueen(int k) {
+		randomBreedingHive(site.random());
+		orders.set(ValueLayout.JAVA_INT, k * orderBytes + ORDER_MOTHER, otherHive.index());
+		orders.set(ValueLayout.JAVA_LONG, k * orderBytes + ORDER_SEED, site.random().nextLong());
+	}
+
+	/** See <code>Grid.fulfillOrder</code>. */
+	private void fulfillOrder(int k) {
+		long order = k * orderBytes;
+		otherHive.moveTo(orders.get(ValueLayout.JAVA_INT, order + ORDER_MOTHER));
+		double queen = getBabyQueen(otherHive);
+		int droneCount = matingFlight(otherHive, otherHive.site(), matedDrones);
+		if (droneCount < 0) {
+			// HACK!! If there were no drones in the region, then use the drones from the
+			// mother hive.
+			LOGGER.fine("Using the mother-hive's drones.");
+			droneCount = otherHive.droneCount();
+			otherHive.getDrones(matedDrones);
+		}
+		orders.set(ValueLayout.JAVA_DOUBLE, order + ORDER_QUEEN, queen);
+		orders.set(ValueLayout.JAVA_INT, order + ORDER_DRONE_COUNT, droneCount);
+		MemorySegment.copy(matedDrones, 0, orders, ValueLayout.JAVA_DOUBLE, order + ORDER_DRONES, droneCount);
+	}
+
+	/** Install the first <code>n</code> queens of {@link #orders}. */
+	private void installQueens(int n) {
+		for (int k = 0; k < n; k++) {
+			long order = k * orderBytes;
+			int h = orders.get(ValueLayout.JAVA_INT, order + ORDER_HIVE);
+			boolean wasDead = hive.moveTo(h).isDead();
+			int siteIndex = hive.site();
+			int droneCount = orders.get(ValueLayout.JAVA_INT, order + ORDER_DRONE_COUNT);
+			MemorySegment.copy(orders, ValueLayout.JAVA_DOUBLE, order + ORDER_DRONES, matedDrones, 0, droneCount);
+			createHive(h, siteIndex, orders.get(ValueLayout.JAVA_DOUBLE, order + ORDER_QUEEN), matedDrones,
+					droneCount, orders.get(ValueLayout.JAVA_LONG, order + ORDER_SEED), true);
+			if (wasDead && otherSite.moveTo(siteIndex).isQueenBreeder()) {
+				liveQueenBreederHives++;
+			}
+		}
+	}
+
+	/**
+	 * See <code>Grid.randomBreedingHive</code>. Positions {@link #otherSite} on the
+	 * queen breeder and {@link #otherHive} on the selected hive.
+	 */
+	private void randomBreedingHive(Random siteRandom) {
+		int lastSiteIndex = siteRandom.nextInt(queenBreeders.length);
+		for (int i = lastSiteIndex + 1; true; i++) {
+			if (i == queenBreeders.length) {
+				i = 0;
+			}
+			otherSite.moveTo(queenBreeders[i]);
+			int first = otherSite.firstHive();
+			int count = otherSite.hiveCount();
+			int lastHiveIndex = siteRandom.nextInt(count);
+			for (int j = lastHiveIndex + 1; true; j++) {
+				if (j == count) {
+					j = 0;
+				}
+				if (!otherHive.moveTo(first + j).isDead()) {
+					return;
+				}
+				if (j == lastHiveIndex) {
+					break;
+				}
+			}
+			if (i == lastSiteIndex) {
+				break;
+			}
+		}
+		LOGGER.severe("EVERY Queen-Breeder hive is dead.");
+		System.exit(-1);
+	}
+
+	/** See {@link Hive#getBabyQueen()}. */
+	private double getBabyQueen(OffHeapStore.HiveView mother) {
+		double[] drones = dronesByCount[mother.droneCount()];
+		mother.getDrones(drones);
+		return iModel.getChildQueen(mother.queenGene(), drones, mother.random(), mother.isDead());
+	}
+
+	/**
+	 * See {@link Site#matingFlight(Hive)}.
+	 *
+	 * @param queenHive the hive whose queen is flying (its drones are excluded)
+	 * @param siteIndex the queen's site
+	 * @param drones    receives the drone genes
+	 * @return the number of drones, or -1 if there are no drones in the vicinity
+	 */
+	private int matingFlight(OffHeapStore.HiveView queenHive, int siteIndex, double[] drones) {
+		Random r = queenHive.random();
+		Direction[] dirs = Direction.getRandomDirectionArray(r);
+		int flying = 0;
+		int x = siteIndex / edgeLength;
+		int y = siteIndex % edgeLength;
+		for (Direction d : dirs) {
+			int dx = d == Direction.N ? matingFlightDistance : d == Direction.S ? -matingFlightDistance : 0;
+			int dy = d == Direction.E ? matingFlightDistance : d == Direction.W ? -matingFlightDistance : 0;
+			flying = collectLivingQueenGenes(wrap(x + dx), wrap(y + dy), queenHive.index());
+			if (flying > 0) {
+				break;
+			}
+		}
+		if (flying == 0) {
+			return -1;
+		}
+		int droneCount = r.nextInt(1 + maxDrones - minDrones) + minDrones;
+		for (int i = 0; i < droneCount; i++) {
+			drones[i] = flyingDrones[r.nextInt(flying)];
+		}
+		return droneCount;
+	}
+
+	/**
+	 * Put the queen genes of the living hives within the drone participation
+	 * distance of (x, y) into {@link #flyingDrones}, in the order of
+	 * {@link Grid#getNeighborhoodLivingHives(Site, int)}. (Unlike the Grid, this
+	 * does not remove the duplicates that arise when the neighborhood wraps all the
+	 * way around a small grid.)
+	 *
+	 * @return the number of genes collected
+	 */
+	private int collectLivingQueenGenes(int x, int y, int excludedHive) {
+		int n = collectLivingQueenGenesAt(store.siteIndex(x, y), excludedHive, 0);
+		int radius = droneParticipationDistance;
+		for (int xOffset = -radius; xOffset < radius + 1; xOffset++) {
+			int m = radius - xOffset;
+			for (int yOffset = -m; yOffset < m + 1; yOffset++) {
+				if (xOffset == 0 && yOffset == 0) {
+					continue;
+				}
+				n = collectLivingQueenGenesAt(store.siteIndex(wrap(x + xOffset), wrap(y + yOffset)), excludedHive, n);
+			}
+		}
+		return n;
+	}
+
+	private int collectLivingQueenGenesAt(int siteIndex, int excludedHive, int n) {
+		otherSite.moveTo(siteIndex);
+		int first = otherSite.firstHive();
+		int count = otherSite.hiveCount();
+		OffHeapStore.HiveView h = scanHive;
+		for (int i = first; i < first + count; i++) {
+			h.moveTo(i);
+			if (i != excludedHive && !h.isDead()) {
+				if (n == flyingDrones.length) {
+					flyingDrones = Arrays.copyOf(flyingDrones, 2 * n);
+				}
+				flyingDrones[n++] = h.queenGene();
+			}
+		}
+		return n;
+	}
+
+	private int wrap(int i) {
+		return Math.floorMod(i, edgeLength);
+	}
+
+	/** See {@link Hive#swarmIfAppropriate()}. */
+	private void swarmIfAppropriate(int h) {
+		hive.moveTo(h);
+		if (hive.isDead() || hive.age() < 1) {
+			return;
+		}
+		int siteIndex = hive.site();
+		site.moveTo(siteIndex);
+		boolean domestic = site.isDomestic();
+		Random r = hive.random();
+		if (!(r.nextDouble() < (domestic ? domesticProbSwarm : feralProbSwarm))) {
+			return;
+		}
+		stats.swarming(domestic);
+		if (!hive.canBreed()) {
+			LOGGER.warning("You asked an unbreedable hive to swarm.");
+			return;
+		}
+		// The swarm takes the current queen and her drones. (Hive.swarm() creates a
+		// hive for them, seeded from this hive's random numbers.)
+		r.nextLong();
+		stats.newHiveCreated(domestic);
+		double swarmQueen = hive.queenGene();
+		int swarmDroneCount = hive.droneCount();
+		hive.getDrones(swarmDrones);
+		// Replace this hive's queen with one of her daughters, who mates
+		hive.setQueenGene(getBabyQueen(hive));
+		hive.setAge(0);
+		int droneCount = matingFlight(hive, siteIndex, matedDrones);
+		if (droneCount < 0) {
+			hive.setDead(true);
+			stats.matingFlightFailed(domestic);
+			if (site.isQueenBreeder()) {
+				liveQueenBreederHives--;
+			}
+		} else {
+			hive.setDrones(matedDrones, droneCount);
+		}
+		hive.setCanBreed(false);
+
+		// Now find a place for the swarm to live
+		int destination = findNearbyFeralDeadHive(siteIndex);
+		if (destination >= 0) {
+			stats.swarmFoundSite(domestic);
+			otherHive.moveTo(destination);
+			otherHive.setQueenGene(swarmQueen);
+			otherHive.setDrones(swarmDrones, swarmDroneCount);
+			otherHive.setAge(0);
+			otherHive.setDead(false);
+			otherHive.setCanBreed(false);
+		} else {
+			stats.swarmCouldNotFindSite(domestic);
+		}
+	}
+
+	/**
+	 * See {@link Site#findNearbyFeralDeadHive()}. The view {@link #site} is
+	 * positioned on the swarm's site.
+	 *
+	 * @return the index of the hive, or -1
+	 */
+	private int findNearbyFeralDeadHive(int siteIndex) {
+		int x = siteIndex / edgeLength;
+		int y = siteIndex % edgeLength;
+		int n = 0;
+		int radius = swarmDistance;
+		for (int xOffset = -radius; xOffset < radius + 1; xOffset++) {
+			int m = radius - xOffset;
+			for (int yOffset = -m; yOffset < m + 1; yOffset++) {
+				if (xOffset == 0 && yOffset == 0) {
+					continue;
+				}
+				otherSite.moveTo(store.siteIndex(wrap(x + xOffset), wrap(y + yOffset)));
+				if (otherSite.isDomestic()) {
+					continue;
+				}
+				int first = otherSite.firstHive();
+				for (int i = first; i < first + otherSite.hiveCount(); i++) {
+					if (scanHive.moveTo(i).isDead()) {
+						if (n == candidates.length) {
+							candidates = Arrays.copyOf(candidates, 2 * n);
+						}
+						candidates[n++] = i;
+					}
+				}
+			}
+		}
+		if (n == 0) {
+			return -1;
+		}
+		return candidates[site.random().nextInt(n)];
+	}
+
+	private void censusAtEndOfSummer() {
+		for (int i = 0; i < store.numberOfSites(); i++) {
+			site.moveTo(i);
+			boolean domestic = site.isDomestic();
+			int first = site.firstHive();
+			for (int h = first; h < first + site.hiveCount(); h++) {
+				hive.moveTo(h);
+				if (hive.isDead()) {
+					stats.hiveAtEndOfSummer(domestic, true, 0, 0, 0);
+				} else {
+					stats.hiveAtEndOfSummer(domestic, false, hive.queenGene(), hive.droneCount(),
+							hive.hiveStrength());
+				}
+			}
+		}
+	}
+
+	/** The state of every site, in the format of {@link Site#getStateCSV()}. */
+	private Iterator<String> siteStates() {
+		final OffHeapStore.SiteView s = new OffHeapStore.SiteView(store);
+		final OffHeapStore.HiveView h = new OffHeapStore.HiveView(store);
+		return new Iterator<String>() {
+			private int next = 0;
+
+			public boolean hasNext() {
+				return next < store.numberOfSites();
+			}
+
+			public String next() {
+				s.moveTo(next++);
+				int count = s.hiveCount();
+				int dead = 0;
+				double totalStrength = 0;
+				double minStrength = Double.MAX_VALUE;
+				double maxStrength = 0;
+				for (int i = s.firstHive(); i < s.firstHive() + count; i++) {
+					h.moveTo(i);
+					if (h.isDead()) {
+						dead++;
+					} else {
+						double strength = h.hiveStrength();
+						totalStrength += strength;
+						minStrength = Math.min(minStrength, strength);
+						maxStrength = Math.max(maxStrength, strength);
+					}
+				}
+				double avgStrength = 0;
+				if (totalStrength != 0) {
+					avgStrength = totalStrength / (count - dead);
+				}
+				StringBuffer result = new StringBuffer();
+				result.append(s.x()).append(',').append(s.y()).append(',').append(s.isDomestic()).append(',')
+						.append(s.isQueenBreeder()).append(',').append(count).append(',').append(count - dead)
+						.append(',').append(dead).append(',').append(avgStrength).append(',').append(maxStrength)
+						.append(',').append(minStrength);
+				return result.toString();
+			}
+		};
+	}
+
+	/**
+	 * Run an off-heap simulation. The arguments are the same as those of
+	 * {@link BeeHealthSimulation#main(String[])}; <code>storage=offheap</code> is
+	 * implied.
+	 */
+	public static void main(String[] args) {
+		new OffHeapSimulation(BeeHealthSimulation.parseArguments(args)).run();
+	}
+}
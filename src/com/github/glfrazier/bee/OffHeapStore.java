@@ -0,0 +1,396 @@
+package com.github.glfrazier.bee;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Site and hive state held outside of the Java heap, in fixed-layout records,
+ * for grids that are too large for the {@link Site}/{@link Hive} object graph.
+ * The state is read and written through flyweight views ({@link SiteView},
+ * {@link HiveView}) that are moved from record to record, so that visiting a
+ * site or hive allocates nothing. If a backing file is given, the records are
+ * memory-mapped from that file and the operating system pages cold regions of
+ * the grid in and out; otherwise they are allocated from native memory.
+ *
+ * Each record includes the state of its own random number generator, so a
+ * view's {@link Random} produces exactly the sequence that a
+ * <code>java.util.Random</code> with the same seed would.
+ *
+ * This class uses the <code>java.lang.foreign</code> API: it requires Java 22,
+ * or Java 21 with <code>--enable-preview</code>.
+ *
+ * @see OffHeapSimulation
+ *
+ * @author Greg Frazier
+ *
+ */
+public class OffHeapStore implements AutoCloseable {
+
+	// The site record
+	private static final long SITE_RANDOM_SEED = 0;
+	private static final long SITE_NEXT_GAUSSIAN = 8;
+	private static final long SITE_FIRST_HIVE = 16;
+	private static final long SITE_HIVE_COUNT = 20;
+	private static final long SITE_FLAGS = 24;
+	private static final long SITE_BYTES = 32;
+
+	// The hive record
+	private static final long HIVE_QUEEN = 0;
+	private static final long HIVE_RANDOM_SEED = 8;
+	private static final long HIVE_NEXT_GAUSSIAN = 16;
+	private static final long HIVE_AGE = 24;
+	private static final long HIVE_DRONE_COUNT = 28;
+	private static final long HIVE_FLAGS = 32;
+	private static final long HIVE_SITE = 36;
+	private static final long HIVE_DRONES = 40;
+
+	// Flags
+	private static final int DOMESTIC = 1;
+	private static final int QUEEN_BREEDER = 2;
+	private static final int DEAD = 4;
+	private static final int CAN_BREED = 8;
+	private static final int HAVE_NEXT_GAUSSIAN = 16;
+
+	public final int edgeLength;
+	public final int maxDrones;
+	private final long hiveBytes;
+
+	private final Arena arena;
+	private final RandomAccessFile backingFile;
+	private long fileOffset = 0;
+
+	private final MemorySegment sites;
+	private MemorySegment hives;
+	private int numberOfHives;
+
+	/**
+	 * @param edgeLength  the length of an edge of the grid
+	 * @param maxDrones   the largest number of drones that a queen mates with
+	 * @param backingFile the file to map the records from, or <code>null</code>
+	 *                    to hold them in native memory
+	 * @throws IOException if the backing file cannot be created
+	 */
+	public OffHeapStore(int edgeLength, int maxDrones, File backingFile) throws IOException {
+		this.edgeLength = edgeLength;
+		this.maxDrones = maxDrones;
+		this.hiveBytes = HIVE_DRONES + 8L * maxDrones;
+		this.arena = Arena.ofShared();
+		this.backingFile = backingFile == null ? null : new RandomAccessFile(backingFile, "rw");
+		this.sites = allocate(SITE_BYTES * edgeLength * edgeLength);
+	}
+
+	/**
+	 * Allocate a zero-filled segment, either from the backing file or from native
+	 * memory.
+	 */
+	MemorySegment allocate(long bytes) throws IOException {
+		if (backingFile == null) {
+			MemorySegment segment = arena.allocate(Math.max(bytes, 8), 8);
+			segment.fill((byte) 0);
+			return segment;
+		}
+		long offset = fileOffset;
+		// Keep every region page-aligned
+		fileOffset += (Math.max(bytes, 8) + 4095) & ~4095L;
+		backingFile.setLength(fileOffset);
+		return backingFile.getChannel().map(FileChannel.MapMode.READ_WRITE, offset, Math.max(bytes, 8), arena);
+	}
+
+	/**
+	 * Allocate the hive records. Called once, after every site's hive count is
+	 * known (see {@link SiteView#setHives(int, int)}).
+	 */
+	public void allocateHives(int count) throws IOException {
+		if (hives != null) {
+			throw new IllegalStateException("The hives have already been allocated.");
+		}
+		hives = allocate(hiveBytes * count);
+		numberOfHives = count;
+	}
+
+	public int numberOfSites() {
+		return edgeLength * edgeLength;
+	}
+
+	public int numberOfHives() {
+		return numberOfHives;
+	}
+
+	/** The index of the site at (x, y). */
+	public int siteIndex(int x, int y) {
+		return x * edgeLength + y;
+	}
+
+	@Override
+	public void close() throws IOException {
+		arena.close();
+		if (backingFile != null) {
+			backingFile.close();
+		}
+	}
+
+	/**
+	 * A <code>java.util.Random</code> whose state is held in a record. It
+	 * implements the same algorithms as <code>java.util.Random</code>.
+	 */
+	public static class RecordRandom extends Random {
+		private static final long serialVersionUID = 1L;
+		private static final long MULTIPLIER = 0x5DEECE66DL;
+		private static final long ADDEND = 0xBL;
+		private static final long MASK = (1L << 48) - 1;
+
+		private MemorySegment segment;
+		private long seedOffset;
+		private long gaussianOffset;
+		private long flagsOffset;
+
+		void moveTo(MemorySegment segment, long seedOffset, long gaussianOffset, long flagsOffset) {
+			this.segment = segment;
+			this.seedOffset = seedOffset;
+			this.gaussianOffset = gaussianOffset;
+			this.flagsOffset = flagsOffset;
+		}
+
+		@Override
+		public void setSeed(long seed) {
+			if (segment == null) {
+				// Called by the Random constructor, before the view is positioned
+				return;
+			}
+			segment.set(ValueLayout.JAVA_LONG, seedOffset, (seed ^ MULTIPLIER) & MASK);
+			int flags = segment.get(ValueLayout.JAVA_INT, flagsOffset);
+			segment.set(ValueLayout.JAVA_INT, flagsOffset, flags & ~HAVE_NEXT_GAUSSIAN);
+		}
+
+		@Override
+		protected int next(int bits) {
+			long seed = (segment.get(ValueLayout.JAVA_LONG, seedOffset) * MULTIPLIER + ADDEND) & MASK;
+			segment.set(ValueLayout.JAVA_LONG, seedOffset, seed);
+			return (int) (seed >>> (48 - bits));
+		}
+
+		@Override
+		public double nextGaussian() {
+			int flags = segment.get(ValueLayout.JAVA_INT, flagsOffset);
+			if ((flags & HAVE_NEXT_GAUSSIAN) != 0) {
+				segment.set(ValueLayout.JAVA_INT, flagsOffset, flags & ~HAVE_NEXT_GAUSSIAN);
+				return segment.get(ValueLayout.JAVA_DOUBLE, gaussianOffset);
+			}
+			double v1, v2, s;
+			do {
+				v1 = 2 * nextDouble() - 1;
+				v2 = 2 * nextDouble() - 1;
+				s = v1 * v1 + v2 * v2;
+			} while (s >= 1 || s == 0);
+			double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+			segment.set(ValueLayout.JAVA_DOUBLE, gaussianOffset, v2 * multiplier);
+			segment.set(ValueLayout.JAVA_INT, flagsOffset,
+					segment.get(ValueLayout.JAVA_INT, flagsOffset) | HAVE_NEXT_GAUSSIAN);
+			return v1 * multiplier;
+		}
+	}
+
+	/**
+	 * A movable view of one site record.
+	 */
+	public static class SiteView {
+		private final OffHeapStore store;
+		private final RecordRandom random = new RecordRandom();
+		private long base;
+		private int index;
+
+		public SiteView(OffHeapStore store) {
+			this.store = store;
+		}
+
+		public SiteView moveTo(int siteIndex) {
+			index = siteIndex;
+			base = siteIndex * SITE_BYTES;
+			random.moveTo(store.sites, base + SITE_RANDOM_SEED, base + SITE_NEXT_GAUSSIAN, base + SITE_FLAGS);
+			return this;
+		}
+
+		public int index() {
+			return index;
+		}
+
+		public int x() {
+			return index / store.edgeLength;
+		}
+
+		public int y() {
+			return index % store.edgeLength;
+		}
+
+		/** The site's random number generator. */
+		public Random random() {
+			return random;
+		}
+
+		public int firstHive() {
+			return store.sites.get(ValueLayout.JAVA_INT, base + SITE_FIRST_HIVE);
+		}
+
+		public int hiveCount() {
+			return store.sites.get(ValueLayout.JAVA_INT, base + SITE_HIVE_COUNT);
+		}
+
+		/** Assign the hive records [firstHive..firstHive+count) to this site. */
+		public void setHives(int firstHive, int count) {
+			store.sites.set(ValueLayout.JAVA_INT, base + SITE_FIRST_HIVE, firstHive);
+			store.sites.set(ValueLayout.JAVA_INT, base + SITE_HIVE_COUNT, count);
+		}
+
+		public boolean isDomestic() {
+			return (flags() & DOMESTIC) != 0;
+		}
+
+		public void setDomestic(boolean domestic) {
+			setFlag(DOMESTIC, domestic);
+		}
+
+		public boolean isQueenBreeder() {
+			return (flags() & QUEEN_BREEDER) != 0;
+		}
+
+		public void setQueenBreeder(boolean queenBreeder) {
+			setFlag(QUEEN_BREEDER, queenBreeder);
+		}
+
+		private int flags() {
+			return store.sites.get(ValueLayout.JAVA_INT, base + SITE_FLAGS);
+		}
+
+		private void setFlag(int flag, boolean value) {
+			int flags = flags();
+			store.sites.set(ValueLayout.JAVA_INT, base + SITE_FLAGS, value ? flags | flag : flags & ~flag);
+		}
+	}
+
+	/**
+	 * A movable view of one hive record.
+	 */
+	public static class HiveView {
+		private final OffHeapStore store;
+		private final RecordRandom random = new RecordRandom();
+		private long base;
+		private int index;
+
+		public HiveView(OffHeapStore store) {
+			this.store = store;
+		}
+
+		public HiveView moveTo(int hiveIndex) {
+			index = hiveIndex;
+			base = hiveIndex * store.hiveBytes;
+			random.moveTo(store.hives, base + HIVE_RANDOM_SEED, base + HIVE_NEXT_GAUSSIAN, base + HIVE_FLAGS);
+			return this;
+		}
+
+		public int index() {
+			return index;
+		}
+
+		/** The hive's random number generator. */
+		public Random random() {
+			return random;
+		}
+
+		/** The index of the site that this hive belongs to. */
+		public int site() {
+			return store.hives.get(ValueLayout.JAVA_INT, base + HIVE_SITE);
+		}
+
+		public void setSite(int siteIndex) {
+			store.hives.set(ValueLayout.JAVA_INT, base + HIVE_SITE, siteIndex);
+		}
+
+		public double queenGene() {
+			return store.hives.get(ValueLayout.JAVA_DOUBLE, base + HIVE_QUEEN);
+		}
+
+		public void setQueenGene(double queen) {
+			store.hives.set(ValueLayout.JAVA_DOUBLE, base + HIVE_QUEEN, queen);
+		}
+
+		public int age() {
+			return store.hives.get(ValueLayout.JAVA_INT, base + HIVE_AGE);
+		}
+
+		public void setAge(int age) {
+			store.hives.set(ValueLayout.JAVA_INT, base + HIVE_AGE, age);
+		}
+
+		public int droneCount() {
+			return store.hives.get(ValueLayout.JAVA_INT, base + HIVE_DRONE_COUNT);
+		}
+
+		public double drone(int i) {
+			return store.hives.get(ValueLayout.JAVA_DOUBLE, base + HIVE_DRONES + 8L * i);
+		}
+
+		/** Copy this hive's drone genes into <code>dest</code>, which must be large enough. */
+		public void getDrones(double[] dest) {
+			MemorySegment.copy(store.hives, ValueLayout.JAVA_DOUBLE, base + HIVE_DRONES, dest, 0, droneCount());
+		}
+
+		/** Set the drone genes to the first <code>count</code> elements of <code>drones</code>. */
+		public void setDrones(double[] drones, int count) {
+			if (count > store.maxDrones) {
+				throw new IllegalArgumentException(
+						"A hive record holds at most " + store.maxDrones + " drones; " + count + " were given.");
+			}
+			store.hives.set(ValueLayout.JAVA_INT, base + HIVE_DRONE_COUNT, count);
+			MemorySegment.copy(drones, 0, store.hives, ValueLayout.JAVA_DOUBLE, base + HIVE_DRONES, count);
+		}
+
+		/** Copy the drones of <code>other</code> to this hive. */
+		public void copyDronesFrom(HiveView other) {
+			int count = other.droneCount();
+			store.hives.set(ValueLayout.JAVA_INT, base + HIVE_DRONE_COUNT, count);
+			MemorySegment.copy(store.hives, other.base + HIVE_DRONES, store.hives, base + HIVE_DRONES, 8L * count);
+		}
+
+		/** The gene strength of the hive; see {@link InheritanceModel#getHiveStrength(double, double[])}. */
+		public double hiveStrength() {
+			double queen = queenGene();
+			int count = droneCount();
+			double total = 0;
+			for (int i = 0; i < count; i++) {
+				total += queen + drone(i);
+			}
+			return total / (2 * count);
+		}
+
+		public boolean isDead() {
+			return (flags() & DEAD) != 0;
+		}
+
+		public void setDead(boolean dead) {
+			setFlag(DEAD, dead);
+		}
+
+		public boolean canBreed() {
+			return (flags() & CAN_BREED) != 0;
+		}
+
+		public void setCanBreed(boolean canBreed) {
+			setFlag(CAN_BREED, canBreed);
+		}
+
+		private int flags() {
+			return store.hives.get(ValueLayout.JAVA_INT, base + HIVE_FLAGS);
+		}
+
+		private void setFlag(int flag, boolean value) {
+			int flags = flags();
+			store.hives.set(ValueLayout.JAVA_INT, base + HIVE_FLAGS, value ? flags | flag : flags & ~flag);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package com.github.glfrazier.bee;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A mergeable sketch of a distribution, from which its quantiles are estimated
+ * in bounded memory (a KLL sketch: Karnin, Lang and Liberty, "Optimal Quantile
+ * Approximation in Streams", 2016). Used for the percentiles of the
+ * end-of-summer census (the property <code>census_percentiles</code>; see
+ * {@link Statistics}).
+ * <p>
+ * The values are held in levels; a value at level <code>h</code> stands for
+ * 2<sup>h</sup> values of the stream. When a level exceeds its capacity, it is
+ * sorted and every other value is promoted to the next level. The top level
+ * holds <code>k</code> values and each level below holds 2/3 as many as the
+ * one above, so a sketch holds fewer than <code>3k</code> values, however many
+ * it has seen, and the rank error of a quantile is about <code>2 / k</code> of
+ * the count (1% for the default <code>k</code> of 200).
+ * <p>
+ * Which half of a level is promoted is chosen by the sketch's own random number
+ * generator, which has a fixed seed, so that a sketch, and the results of a
+ * run, are repeatable. Merging the sketches of parts of a stream gives the
+ * same guarantee as sketching the whole stream.
+ *
+ * @author Greg Frazier
+ *
+ */
+class QuantileSketch implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	static final int DEFAULT_K = 200;
+
+	private final int k;
+	private double[][] levels = new double[1][];
+	private int[] sizes = new int[1];
+	private long count = 0;
+	private double min = Double.MAX_VALUE;
+	private double max = -Double.MAX_VALUE;
+	private final Random coin = new Random(1);
+
+	QuantileSketch(int k) {
+		if (k < 8) {
+			throw new IllegalArgumentException("A quantile sketch needs k >= 8; k=" + k);
+		}
+		this.k = k;
+		levels[0] = new double[capacity(0)];
+	}
+
+	/** The number of values that the sketch has seen. */
+	long count() {
+		return count;
+	}
+
+	void update(double value) {
+		if (sizes[0] == levels[0].length) {
+			levels[0] = Arrays.copyOf(levels[0], 2 * sizes[0]);
+		}
+		levels[0][sizes[0]++] = value;
+		count++;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+		if (sizes[0] >= capacity(0)) {
+			compress();
+		}
+	}
+
+	/** Add the values of another sketch (with the same <code>k</code>) to this one. */
+	void merge(QuantileSketch other) {
+		if (other.k != k) {
+			throw new IllegalArgumentException("Cannot merge sketches with k=" + k + " and k=" + other.k);
+		}
+		while (levels.length < other.levels.length) {
+			addLevel();
+		}
+		for (int h = 0; h < other.levels.length; h++) {
+			append(h, other.levels[h], 0, other.sizes[h]);
+		}
+		count += other.count;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		compress();
+	}
+
+	/**
+	 * Estimate the value at the quantile <code>q</code> (between 0 and 1): a value
+	 * whose rank is within the sketch's error of <code>q * count()</code>.
+	 * Quantiles 0 and 1 are the exact minimum and maximum.
+	 *
+	 * @return the value, or NaN if the sketch is empty
+	 */
+	double quantile(double q) {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		if (q <= 0) {
+			return min;
+		}
+		if (q >= 1) {
+			return max;
+		}
+		int n = 0;
+		for (int h = 0; h < levels.length; h++) {
+			n += sizes[h];
+		}
+		double[] values = new double[n];
+		long[] weights = new long[n];
+		Integer[] order = new Integer[n];
+		int i = 0;
+		for (int h = 0; h < levels.length; h++) {
+			for (int j = 0; j < sizes[h]; j++) {
+				values[i] = levels[h][j];
+				weights[i] = 1L << h;
+				order[i] = i;
+				i++;
+			}
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+		double rank = q * count;
+		long cumulative = 0;
+		for (int j : order) {
+			cumulative += weights[j];
+			if (cumulative >= rank) {
+				return values[j];
+			}
+		}
+		return max;
+	}
+
+	/** The capacity of level <code>h</code>, given the current number of levels. */
+	private int capacity(int h) {
+		int depth = levels.length - 1 - h;
+		return Math.max(2, (int) Math.ceil(k * Math.pow(2.0 / 3.0, depth)));
+	}
+
+	/** Promote half of each level that is over its capacity, from the bottom up. */
+	private void compress() {
+		for (int h = 0; h < levels.length; h++) {
+			if (sizes[h] < capacity(h)) {
+				continue;
+			}
+			if (h == levels.length - 1) {
+				addLevel();
+			}
+			double[] level = levels[h];
+			int size = sizes[h];
+			Arrays.sort(level, 0, size);
+			// An odd value out stays at this level, so that the weights still sum to the
+			// count
+			int pairs = size / 2;
+			int promoted = 0;
+			for (int j = coin.nextBoolean() ? 1 : 0; j < 2 * pairs; j += 2) {
+				level[promoted++] = level[j];
+			}
+			append(h + 1, level, 0, promoted);
+			if (size % 2 == 1) {
+				level[0] = level[size - 1];
+				sizes[h] = 1;
+			} else {
+				sizes[h] = 0;
+			}
+		}
+	}
+
+	private void addLevel() {
+		int h = levels.length;
+		levels = Arrays.copyOf(levels, h + 1);
+		sizes = Arrays.copyOf(sizes, h + 1);
+		levels[h] = new double[Math.min(k, 16)];
+	}
+
+	private void append(int h, double[] values, int from, int to) {
+		int n = to - from;
+		if (sizes[h] + n > levels[h].length) {
+			levels[h] = Arrays.copyOf(levels[h], Math.max(sizes[h] + n, 2 * levels[h].length));
+		}
+		System.arraycopy(values, from, levels[h], sizes[h], n);
+		sizes[h] += n;
+	}
+}
@@ -0,0 +1,130 @@
+package com.github.glfrazier.bee;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The descendants of each queen breeder among the living queens (the property
+ * <code>lineage_tracking=true</code>), written to <code>lineage.csv</code> in
+ * the results directory.
+ * <p>
+ * Every hive carries the origin of its queen's maternal line ({@link Hive#origin})
+ * and the number of generations since its founder ({@link Hive#generation}).
+ * The founders are the hives of the initial grid: the origin of a queen
+ * breeder's hives is the breeder's index in {@link Grid#queenBreeders}, that of
+ * the other domestic hives is {@link #DOMESTIC_FOUNDER}, and that of the feral
+ * hives is {@link #FERAL_FOUNDER}. A purchased queen takes the origin of the
+ * breeder hive that raised her (see
+ * {@link Grid#fulfillOrder(Site, QueenReplacements, int)}), and a swarm's queen
+ * and the daughter that replaces her take the origin of the swarming hive (see
+ * {@link Hive#swarmIfAppropriate()}); each is one generation younger than her
+ * mother. The origins are kept whether or not lineage tracking is enabled.
+ * <p>
+ * The living hives are counted by origin during the end-of-summer census (see
+ * {@link Statistics#livingHivesAtEndOfSummer(Site)}), so tracking takes no
+ * pass over the grid of its own.
+ *
+ * @author Greg Frazier
+ *
+ */
+class QueenLineage implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The origin of the domestic hives of the initial grid that are not at a queen breeder. */
+	static final int DOMESTIC_FOUNDER = -1;
+	/** The origin of the feral hives of the initial grid. */
+	static final int FERAL_FOUNDER = -2;
+
+	/** The origins are counted at index <code>origin + OFFSET</code>. */
+	private static final int OFFSET = 2;
+
+	/** This year's living domestic and feral hives, and their generations, by origin. */
+	private long[] domestic = new long[OFFSET];
+	private long[] feral = new long[OFFSET];
+	private long[] generations = new long[OFFSET];
+
+	/** The counts of the previous years. */
+	private final List<long[][]> years = new ArrayList<>();
+
+	/**
+	 * Create the tracker specified by the property 'lineage_tracking' (default
+	 * false).
+	 *
+	 * @return the tracker, or <code>null</code> if it is disabled
+	 */
+	static QueenLineage create(Properties props) {
+		if (!Boolean.parseBoolean(props.getProperty("lineage_tracking", "false"))) {
+			return null;
+		}
+		return new QueenLineage();
+	}
+
+	/** Count a living hive in this year's census. */
+	void count(Hive hive, boolean domestic) {
+		int i = hive.origin + OFFSET;
+		if (i >= generations.length) {
+			int length = Math.max(i + 1, 2 * generations.length);
+			this.domestic = Arrays.copyOf(this.domestic, length);
+			feral = Arrays.copyOf(feral, length);
+			generations = Arrays.copyOf(generations, length);
+		}
+		if (domestic) {
+			this.domestic[i]++;
+		} else {
+			feral[i]++;
+		}
+		generations[i] += hive.generation;
+	}
+
+	/** Close this year's census. */
+	void endOfSummer() {
+		years.add(new long[][] { domestic, feral, generations });
+		domestic = new long[domestic.length];
+		feral = new long[feral.length];
+		generations = new long[generations.length];
+	}
+
+	public static String getCSVHeader() {
+		return "year,origin,breeder_x,breeder_y,domestic_live,domestic_share,feral_live,feral_share,mean_generation";
+	}
+
+	/**
+	 * Write <code>lineage.csv</code>: for each year's census, a line for each
+	 * origin (the founders, then the breeders in order), with the number of living
+	 * domestic and feral hives descended from it and their shares of all the
+	 * living domestic and feral hives.
+	 *
+	 * @param breeders the queen breeders, whose sites are written
+	 */
+	void write(Statistics stats, List<Site> breeders) throws IOException {
+		int origins = OFFSET + breeders.size();
+		List<String> lines = new ArrayList<>();
+		for (int y = 0; y < years.size(); y++) {
+			long[][] year = years.get(y);
+			long domesticTotal = 0;
+			long feralTotal = 0;
+			for (int i = 0; i < year[0].length; i++) {
+				domesticTotal += year[0][i];
+				feralTotal += year[1][i];
+			}
+			for (int i = 0; i < origins; i++) {
+				long d = i < year[0].length ? year[0][i] : 0;
+				long f = i < year[1].length ? year[1][i] : 0;
+				long g = i < year[2].length ? year[2][i] : 0;
+				int origin = i - OFFSET;
+				Site breeder = origin >= 0 ? breeders.get(origin) : null;
+				lines.add(y + "," + origin + "," + (breeder == null ? -1 : breeder.x) + ","
+						+ (breeder == null ? -1 : breeder.y) + "," + d + ","
+						+ (domesticTotal == 0 ? 0.0 : (double) d / domesticTotal) + "," + f + ","
+						+ (feralTotal == 0 ? 0.0 : (double) f / feralTotal) + ","
+						+ (d + f == 0 ? 0.0 : (double) g / (d + f)));
+			}
+		}
+		stats.writeLines("lineage.csv", getCSVHeader(), lines.iterator());
+	}
+}
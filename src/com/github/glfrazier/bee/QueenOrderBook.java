@@ -0,0 +1,189 @@
+package com.github.glfrazier.bee;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The queen purchases of a year, made in phases so that their results do not
+ * depend upon the number of threads or how they are scheduled (the property
+ * <code>queen_purchasing=order_book</code>, the default):
+ * <ol>
+ * <li>Demand. Each domestic site decides which of its hives are replaced and,
+ * with its own random number generator, from which queen breeder hive each
+ * queen is bought, and draws the seed of each replaced hive (see
+ * {@link Site#orderQueens(QueenReplacements)}). No hive is changed, so every
+ * site sees the breeders' hives as they were after over-wintering.</li>
+ * <li>Fulfillment. The orders are grouped by queen breeder site, and each
+ * breeder raises and mates its queens in the order of the buyers in the layout
+ * (see {@link Grid#fulfillOrder(Site, QueenReplacements, int)}). A breeder's
+ * hives, their random number generators and its
+ * {@link DroneCongregationArea}s are used by one thread only.</li>
+ * <li>Installation. Each site installs its queens.</li>
+ * </ol>
+ * The worker threads each take a contiguous range of the layout, as they do
+ * with <code>queen_purchasing=direct</code>, and the breeders as they become
+ * free; they wait for each other between the phases.
+ *
+ * With <code>queen_purchasing=direct</code>, each site buys its queens and
+ * installs them in turn (see
+ * {@link Site#replaceDeadHivesOrRequeenLiveHives(QueenReplacements)}), so a
+ * site may buy from a breeder hive that was replaced earlier in the year, and
+ * with more than one thread the results depend upon the threads' scheduling.
+ *
+ * @author Greg Frazier
+ *
+ */
+class QueenOrderBook {
+
+	private final BeeHealthSimulation sim;
+
+	/**
+	 * The orders of each worker's sites, in layout order, and the site that placed
+	 * each. Kept from year to year, so that their arrays are reused.
+	 */
+	private QueenReplacements[] orders = new QueenReplacements[0];
+	private Site[][] buyers = new Site[0][];
+
+	/** The orders grouped by breeder site; built between demand and fulfillment. */
+	private final List<Batch> batches = new ArrayList<>();
+
+	QueenOrderBook(BeeHealthSimulation sim) {
+		this.sim = sim;
+	}
+
+	/**
+	 * Replace the dead hives and requeen some of the living ones at every domestic
+	 * site.
+	 *
+	 * @param partition the range of the layout of each thread (see
+	 *                  {@link SiteLayout#partition(int)})
+	 */
+	void replaceDeadHivesOrRequeenLiveHives(int[] partition) {
+		final int numberOfThreads = partition.length - 1;
+		if (orders.length != numberOfThreads) {
+			orders = new QueenReplacements[numberOfThreads];
+			buyers = new Site[numberOfThreads][];
+			for (int t = 0; t < numberOfThreads; t++) {
+				orders[t] = new QueenReplacements();
+				buyers[t] = new Site[orders[t].hive.length];
+			}
+		}
+		final AtomicInteger nextBatch = new AtomicInteger();
+		final CyclicBarrier demanded = new CyclicBarrier(numberOfThreads, this::groupByBreeder);
+		final CyclicBarrier fulfilled = new CyclicBarrier(numberOfThreads);
+		Thread[] threads = new Thread[numberOfThreads];
+		for (int t = 0; t < numberOfThreads; t++) {
+			final int TID = t;
+			threads[TID] = new Thread("Worker Thread " + TID) {
+				public void run() {
+					Instrumentation.ThreadSample sample = sim.getInstrumentation().startWorker("worker-" + TID);
+					try {
+						demand(TID, sim.domesticSites(partition[TID], partition[TID + 1]));
+						demanded.await();
+						for (int b = nextBatch.getAndIncrement(); b < batches.size(); b = nextBatch.getAndIncrement()) {
+							fulfill(batches.get(b));
+						}
+						fulfilled.await();
+						install(TID);
+					} catch (InterruptedException | BrokenBarrierException e) {
+						e.printStackTrace();
+						System.exit(-1);
+					}
+					sim.getInstrumentation().endWorker(sample);
+				}
+			};
+			threads[TID].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			try {
+				threads[i].join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
+		batches.clear();
+	}
+
+	/** Place the orders of the thread's sites. */
+	private void demand(int thread, Iterable<Site> sites) {
+		QueenReplacements order = orders[thread];
+		for (Site site : sites) {
+			int n = site.orderQueens(order);
+			if (buyers[thread].length < order.hive.length) {
+				buyers[thread] = Arrays.copyOf(buyers[thread], order.hive.length);
+			}
+			for (int i = order.size - n; i < order.size; i++) {
+				buyers[thread][i] = site;
+			}
+		}
+	}
+
+	/**
+	 * Group the orders by the breeder site of their mother hives, in the order of
+	 * the buyers in the layout. Run by the last thread to finish its demand.
+	 */
+	private void groupByBreeder() {
+		Map<Site, Batch> byBreeder = new IdentityHashMap<>();
+		for (int t = 0; t < orders.length; t++) {
+			QueenReplacements order = orders[t];
+			for (int i = 0; i < order.size; i++) {
+				Site breeder = order.mother[i].getSite();
+				Batch batch = byBreeder.get(breeder);
+				if (batch == null) {
+					batch = new Batch();
+					byBreeder.put(breeder, batch);
+					batches.add(batch);
+				}
+				batch.add(t, i);
+			}
+		}
+	}
+
+	/** Raise and mate a breeder's queens. */
+	private void fulfill(Batch batch) {
+		for (int k = 0; k < batch.size; k++) {
+			int t = batch.thread[k];
+			int i = batch.index[k];
+			sim.getGrid().fulfillOrder(buyers[t][i], orders[t], i);
+		}
+	}
+
+	/** Install the queens ordered by the thread's sites, and clear its orders. */
+	private void install(int thread) {
+		QueenReplacements order = orders[thread];
+		Site[] buyer = buyers[thread];
+		int from = 0;
+		for (int i = 1; i <= order.size; i++) {
+			if (i == order.size || buyer[i] != buyer[from]) {
+				buyer[from].replaceHives(order, from, i);
+				from = i;
+			}
+		}
+		Arrays.fill(buyer, 0, order.size, null);
+		order.clear();
+	}
+
+	/** The orders placed with one breeder site: (thread, index) pairs. */
+	private static class Batch {
+		int size = 0;
+		int[] thread = new int[16];
+		int[] index = new int[16];
+
+		void add(int t, int i) {
+			if (size == thread.length) {
+				thread = Arrays.copyOf(thread, 2 * size);
+				index = Arrays.copyOf(index, 2 * size);
+			}
+			thread[size] = t;
+			index[size] = i;
+			size++;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.github.glfrazier.bee;
+
+import java.util.Arrays;
+
+/**
+ * The queens that keepers have ordered or bought for their hives, held until
+ * they are installed (see {@link Site#replaceHives(QueenReplacements)}). Each
+ * replaced hive is reset in place to the state of a newly constructed hive, so
+ * replacing a hive allocates no objects. A worker thread reuses one instance
+ * for every site that it visits; the arrays grow to the largest number of
+ * replacements at any one site (or, in a {@link QueenOrderBook}, to the
+ * largest number ordered by the thread's sites in a year).
+ *
+ * @author Greg Frazier
+ *
+ */
+class QueenReplacements {
+
+	int size = 0;
+	Hive[] hive = new Hive[16];
+	/** The queen breeder hive that raises each queen. */
+	Hive[] mother = new Hive[16];
+	double[] queen = new double[16];
+	double[][] drones = new double[16][];
+	long[] seed = new long[16];
+	/** The lineage of each queen; see {@link QueenLineage}. */
+	int[] origin = new int[16];
+	int[] generation = new int[16];
+
+	/**
+	 * Add a hive that is to be replaced; its mother, queen, drones, seed and
+	 * lineage are filled in by the purchase.
+	 *
+	 * @return the index of the replacement
+	 */
+	int add(Hive replaced) {
+		if (size == hive.length) {
+			hive = Arrays.copyOf(hive, 2 * size);
+			mother = Arrays.copyOf(mother, 2 * size);
+			queen = Arrays.copyOf(queen, 2 * size);
+			drones = Arrays.copyOf(drones, 2 * size);
+			seed = Arrays.copyOf(seed, 2 * size);
+			origin = Arrays.copyOf(origin, 2 * size);
+			generation = Arrays.copyOf(generation, 2 * size);
+		}
+		replaced.replaced = true;
+		hive[size] = replaced;
+		return size++;
+	}
+
+	/** Forget the replacements, so that the hives and drones can be collected. */
+	void clear() {
+		Arrays.fill(hive, 0, size, null);
+		Arrays.fill(mother, 0, size, null);
+		Arrays.fill(drones, 0, size, null);
+		size = 0;
+	}
+}
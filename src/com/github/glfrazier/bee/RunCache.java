@@ -0,0 +1,332 @@
+package com.github.glfrazier.bee;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * A cache of the results of completed runs, so that re-running the same
+ * configuration (e.g., resuming a sweep, or regenerating a figure) does not
+ * simulate it again. It is enabled by the property <code>run_cache</code>, the
+ * directory that holds the cache.
+ * <p>
+ * A run is identified by the SHA-256 hash of its resolved properties (after the
+ * chain of properties files has been loaded and the seed resolved), less the
+ * properties that only name or place its output (see {@link #isOutputOnly}),
+ * and of the simulation's class files, so that a changed simulator does not
+ * return stale results. Each entry is a directory, named by the hash, holding
+ * the files of the run's results directory. On a hit, the files are hard-linked
+ * (or, where that is not possible, copied) into a new results directory, and
+ * <code>properties.txt</code> and the name/desc files are rewritten with this
+ * run's output properties; the simulation is not run.
+ * <p>
+ * The cache holds at most <code>run_cache.max_mb</code> megabytes (default
+ * 1024); when a new entry takes it over the limit, the least recently used
+ * entries are removed. Runs with <code>instrumentation=true</code> are not
+ * cached, as their timings describe the run itself. A run with
+ * <code>queen_purchasing=direct</code> and more than one thread is not exactly
+ * repeatable (see {@link QueenOrderBook}); a hit returns the run that was
+ * cached.
+ *
+ * @author Greg Frazier
+ *
+ */
+class RunCache {
+
+	/** The file in an entry that lists the output properties of the cached run. */
+	private static final String OUTPUT_PROPERTIES = "run_cache.output";
+
+	private final Properties props;
+	private final File dir;
+	private final long maxBytes;
+	private final String key;
+
+	/** The output properties of this run, before the simulation adds to them. */
+	private final Properties output = new Properties();
+
+	private RunCache(Properties props, File dir, long maxBytes, String key) {
+		this.props = props;
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		this.key = key;
+		for (String name : props.stringPropertyNames()) {
+			if (isOutputOnly(name)) {
+				output.setProperty(name, props.getProperty(name));
+			}
+		}
+	}
+
+	/**
+	 * Create the cache specified by the properties, and compute this run's key.
+	 * The seed is resolved first (see
+	 * {@link BeeHealthSimulation#resolveSeed(Properties)}), so a run without a
+	 * seed is a new run.
+	 *
+	 * @return the cache, or <code>null</code> if caching is disabled
+	 */
+	static RunCache create(Properties props) {
+		String dirName = props.getProperty("run_cache", "");
+		if (dirName.isEmpty() || Boolean.parseBoolean(props.getProperty("instrumentation", "false"))) {
+			return null;
+		}
+		long maxMB = 1024;
+		if (props.containsKey("run_cache.max_mb")) {
+			maxMB = BeeHealthSimulation.getIntProperty(props, "run_cache.max_mb");
+		}
+		if (maxMB < 0) {
+			System.err.println("'run_cache.max_mb' must not be negative. You specified " + maxMB);
+			System.exit(-1);
+		}
+		File dir = new File(dirName);
+		dir.mkdirs();
+		if (!dir.isDirectory()) {
+			System.err.println("'run_cache=" + dirName + "' is not a directory.");
+			System.exit(-1);
+		}
+		BeeHealthSimulation.resolveSeed(props);
+		return new RunCache(props, dir, maxMB << 20, key(props));
+	}
+
+	/**
+	 * @return true if the property does not affect the simulation, only where its
+	 *         results are written, how they are labeled or how the run is
+	 *         monitored
+	 */
+	static boolean isOutputOnly(String name) {
+		return name.equals("base_dir") || name.equals("results_dir") || name.equals("checkpoint_dir")
+				|| name.startsWith("name") || name.startsWith("desc") || name.startsWith("run_cache")
+				|| name.equals("logging") || name.equals("progress_interval") || name.startsWith("live_metrics");
+	}
+
+	/**
+	 * The hash of the properties that affect the simulation, and of the
+	 * simulation's code, in hex.
+	 */
+	static String key(Properties props) {
+		MessageDigest digest = null;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		SortedMap<String, String> sorted = new TreeMap<>();
+		for (String name : props.stringPropertyNames()) {
+			if (!isOutputOnly(name)) {
+				sorted.put(name, props.getProperty(name));
+			}
+		}
+		for (String name : sorted.keySet()) {
+			digest.update((name + "=" + sorted.get(name) + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+		try {
+			hashClasses(digest);
+		} catch (IOException | URISyntaxException e) {
+			System.err.println("The run cache failed to read the simulation's class files: " + e);
+			System.exit(-1);
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/** Add the simulation's class files (or the jar that holds them) to the digest. */
+	private static void hashClasses(MessageDigest digest) throws IOException, URISyntaxException {
+		Path location = Paths.get(BeeHealthSimulation.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		if (!Files.isDirectory(location)) {
+			digest.update(Files.readAllBytes(location));
+			return;
+		}
+		Path classes = location.resolve(BeeHealthSimulation.class.getPackage().getName().replace('.', '/'));
+		try (Stream<Path> files = Files.list(classes)) {
+			for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile).sorted()::iterator) {
+				digest.update(file.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+				digest.update(Files.readAllBytes(file));
+			}
+		}
+	}
+
+	/**
+	 * If this run is in the cache, create its results directory from the cached
+	 * entry.
+	 *
+	 * @return true if the results were restored, false if the run must be
+	 *         simulated
+	 */
+	boolean restore() {
+		File entry = new File(dir, key);
+		if (!entry.isDirectory()) {
+			return false;
+		}
+		File resultsDir = new Statistics(props, null, true).getResultsDir();
+		try {
+			Properties cachedOutput = load(new File(entry, OUTPUT_PROPERTIES));
+			for (File f : entry.listFiles()) {
+				String name = f.getName();
+				if (name.equals(OUTPUT_PROPERTIES) || name.equals("properties.txt")) {
+					continue;
+				}
+				if (name.endsWith(".txt") && cachedOutput.containsKey(name.substring(0, name.length() - 4))) {
+					// A name/desc file of the cached run; this run's are written below
+					continue;
+				}
+				link(f.toPath(), new File(resultsDir, name).toPath());
+			}
+			// properties.txt: the cached run's, with its output properties replaced by
+			// this run's
+			Properties recorded = load(new File(entry, "properties.txt"));
+			for (String name : cachedOutput.stringPropertyNames()) {
+				recorded.remove(name);
+			}
+			for (String name : props.stringPropertyNames()) {
+				if (isOutputOnly(name)) {
+					recorded.setProperty(name, props.getProperty(name));
+					if (name.startsWith("name") || name.startsWith("desc")) {
+						write(new File(resultsDir, name + ".txt"), props.getProperty(name) + System.lineSeparator());
+					}
+				}
+			}
+			StringBuilder lines = new StringBuilder();
+			for (Map.Entry<String, String> e : toMap(recorded).entrySet()) {
+				lines.append(e.getKey()).append('=').append(e.getValue()).append(System.lineSeparator());
+			}
+			write(new File(resultsDir, "properties.txt"), lines.toString());
+			entry.setLastModified(System.currentTimeMillis());
+		} catch (IOException e) {
+			// E.g., the entry was evicted by another run while it was being read
+			BeeHealthSimulation.LOGGER.warning("Failed to restore run " + key + " from the cache: " + e);
+			delete(resultsDir);
+			return false;
+		}
+		System.out.println("Restored the results of run " + key + " from the cache in " + resultsDir + ".");
+		return true;
+	}
+
+	/**
+	 * Add the results of this (completed) run to the cache, and evict the least
+	 * recently used entries if the cache is over its limit.
+	 *
+	 * @param resultsDir the run's results directory
+	 */
+	void store(File resultsDir) {
+		File entry = new File(dir, key);
+		if (entry.exists()) {
+			return;
+		}
+		File tmp = new File(dir, key + ".tmp-" + ProcessHandle.current().pid());
+		try {
+			tmp.mkdirs();
+			for (File f : resultsDir.listFiles()) {
+				if (f.isFile()) {
+					link(f.toPath(), new File(tmp, f.getName()).toPath());
+				}
+			}
+			try (PrintStream out = new PrintStream(new FileOutputStream(new File(tmp, OUTPUT_PROPERTIES)))) {
+				output.store(out, "The output properties of the cached run");
+			}
+			// Publish the entry atomically, so that a concurrent run sees all of it or
+			// none of it
+			Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			BeeHealthSimulation.LOGGER.warning("Failed to add run " + key + " to the cache: " + e);
+			delete(tmp);
+			return;
+		}
+		evict();
+	}
+
+	/** Remove the least recently used entries until the cache is within its limit. */
+	private void evict() {
+		List<File> entries = new ArrayList<>();
+		long total = 0;
+		for (File entry : dir.listFiles()) {
+			if (entry.isDirectory() && !entry.getName().contains(".tmp-")) {
+				entries.add(entry);
+				total += size(entry);
+			}
+		}
+		entries.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+		for (int i = 0; total > maxBytes && i < entries.size(); i++) {
+			total -= size(entries.get(i));
+			delete(entries.get(i));
+		}
+	}
+
+	private static long size(File entry) {
+		long size = 0;
+		File[] files = entry.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				size += f.length();
+			}
+		}
+		return size;
+	}
+
+	/** Hard-link the file, or copy it if it cannot be linked. */
+	private static void link(Path from, Path to) throws IOException {
+		try {
+			Files.createLink(to, from);
+		} catch (IOException | UnsupportedOperationException e) {
+			Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static void delete(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private static Properties load(File f) throws IOException {
+		Properties p = new Properties();
+		if (f.getName().equals("properties.txt")) {
+			// Written by Statistics as name=value lines, not in Properties' escaped form
+			for (String line : Files.readAllLines(f.toPath(), StandardCharsets.UTF_8)) {
+				int eq = line.indexOf('=');
+				if (eq > 0) {
+					p.setProperty(line.substring(0, eq), line.substring(eq + 1));
+				}
+			}
+			return p;
+		}
+		try (InputStream in = Files.newInputStream(f.toPath())) {
+			p.load(in);
+		}
+		return p;
+	}
+
+	private static SortedMap<String, String> toMap(Properties p) {
+		SortedMap<String, String> map = new TreeMap<>();
+		for (String name : p.stringPropertyNames()) {
+			map.put(name, p.getProperty(name));
+		}
+		return map;
+	}
+
+	private static void write(File f, String text) throws IOException {
+		Files.write(f.toPath(), text.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,137 @@
+package com.github.glfrazier.bee;
+
+import static com.github.glfrazier.bee.BeeHealthSimulation.LOGGER;
+
+import java.util.Properties;
+
+/**
+ * The data-parallel loops of the winter and the census, over batches of hives
+ * held in primitive arrays (see {@link WinterBatch} and
+ * {@link Statistics#hiveAtEndOfSummer(boolean, boolean, double, int, double)}).
+ * This class is the scalar implementation. If the property
+ * <code>vector_kernels</code> is <code>true</code> (the default) and the JVM
+ * was started with <code>--add-modules jdk.incubator.vector</code>,
+ * {@link #create(Properties)} returns {@link VectorSeasonKernels} instead,
+ * which implements the same loops with the Vector API.
+ *
+ * Both implementations produce exactly the same results. Sums of doubles are
+ * therefore always accumulated one element at a time, in order: adding them
+ * lane by lane would round differently.
+ *
+ * @author Greg Frazier
+ *
+ */
+class SeasonKernels {
+
+	/**
+	 * The census of the living hives of one kind (domestic or feral), as it is
+	 * accumulated over the batches of a year.
+	 */
+	static class Census {
+		double totalQueenStrength;
+		double minQueenStrength = Double.MAX_VALUE;
+		double maxQueenStrength;
+		int totalDrones;
+		int minDrones = Integer.MAX_VALUE;
+		int maxDrones;
+		double totalHiveStrength;
+		double minHiveStrength = Double.MAX_VALUE;
+		double maxHiveStrength;
+	}
+
+	/**
+	 * @return the vectorized kernels, if they are enabled and available, or else
+	 *         the scalar kernels
+	 */
+	static SeasonKernels create(Properties props) {
+		if (Boolean.parseBoolean(props.getProperty("vector_kernels", "true"))) {
+			try {
+				return (SeasonKernels) Class.forName("com.github.glfrazier.bee.VectorSeasonKernels")
+						.getDeclaredConstructor().newInstance();
+			} catch (Throwable t) {
+				// The jdk.incubator.vector module is not present
+				LOGGER.fine("Using the scalar season kernels: " + t);
+			}
+		}
+		return new SeasonKernels();
+	}
+
+	/**
+	 * Decide which hives of a batch survive the winter. A hive that is fed has its
+	 * probability of survival moved the fraction <code>f</code> of the way to 1.0
+	 * (see {@link HiveSurvivalProbabilityModel.CurveModel#adjust(double)}, which
+	 * cannot be overridden); it survives if its draw is less than its
+	 * probability.
+	 *
+	 * @param base     the probability of each hive surviving if it is not fed
+	 * @param fed      whether each hive is fed
+	 * @param f        the feeding factor
+	 * @param draw     each hive's uniform random draw
+	 * @param survived receives whether each hive survived
+	 * @param n        the number of hives in the batch
+	 */
+	void survive(double[] base, boolean[] fed, double f, double[] draw, boolean[] survived, int n) {
+		survive(base, fed, f, draw, survived, 0, n);
+	}
+
+	final void survive(double[] base, boolean[] fed, double f, double[] draw, boolean[] survived, int from,
+			int to) {
+		for (int i = from; i < to; i++) {
+			double p = base[i];
+			if (fed[i]) {
+				p = p + f * (1.0 - p);
+			}
+			survived[i] = draw[i] < p;
+		}
+	}
+
+	/**
+	 * Add a batch of living hives to the census.
+	 *
+	 * @param c            the census
+	 * @param queenGene    the strength of each hive's queen
+	 * @param drones       the number of drones that each queen mated with
+	 * @param hiveStrength the strength of each hive
+	 * @param n            the number of hives in the batch
+	 */
+	void census(Census c, double[] queenGene, int[] drones, double[] hiveStrength, int n) {
+		census(c, queenGene, drones, hiveStrength, 0, n);
+		c.totalQueenStrength = sum(c.totalQueenStrength, queenGene, n);
+		c.totalHiveStrength = sum(c.totalHiveStrength, hiveStrength, n);
+	}
+
+	/**
+	 * The scalar census, excluding the sums of doubles, of the hives
+	 * <code>from</code> (inclusive) to <code>to</code> (exclusive).
+	 */
+	final void census(Census c, double[] queenGene, int[] drones, double[] hiveStrength, int from, int to) {
+		for (int i = from; i < to; i++) {
+			double q = queenGene[i];
+			if (q < c.minQueenStrength)
+				c.minQueenStrength = q;
+			if (q > c.maxQueenStrength)
+				c.maxQueenStrength = q;
+
+			int d = drones[i];
+			c.totalDrones += d;
+			if (c.minDrones > d)
+				c.minDrones = d;
+			if (c.maxDrones < d)
+				c.maxDrones = d;
+
+			double h = hiveStrength[i];
+			if (c.minHiveStrength > h)
+				c.minHiveStrength = h;
+			if (c.maxHiveStrength < h)
+				c.maxHiveStrength = h;
+		}
+	}
+
+	/** Add the first <code>n</code> values to <code>total</code>, in order. */
+	static double sum(double total, double[] values, int n) {
+		for (int i = 0; i < n; i++) {
+			total += values[i];
+		}
+		return total;
+	}
+}
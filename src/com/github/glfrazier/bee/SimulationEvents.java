@@ -0,0 +1,111 @@
+package com.github.glfrazier.bee;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events that map a recording back onto the structure of
+ * the simulation: the years and their phases, queen purchases, mating flights
+ * and failed swarms. They cost next to nothing unless a recording that enables
+ * them is running, so they are always emitted. The profile
+ * <code>jfr/bee.jfc</code> enables them, along with the JDK's CPU, allocation
+ * and GC events:
+ *
+ * <pre>
+ * java -XX:StartFlightRecording:settings=jfr/bee.jfc,filename=bees.jfr -cp bin com.github.glfrazier.bee.BeeHealthSimulation ...
+ * </pre>
+ *
+ * @author Greg Frazier
+ *
+ */
+public class SimulationEvents {
+
+	private static final String CATEGORY = "Honey Bee Simulation";
+
+	@Name("com.github.glfrazier.bee.Year")
+	@Label("Simulated Year")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	public static class Year extends Event {
+		@Label("Year")
+		public int year;
+	}
+
+	@Name("com.github.glfrazier.bee.Phase")
+	@Label("Simulation Phase")
+	@Description("One phase of a simulated year")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	public static class Phase extends Event {
+		@Label("Year")
+		public int year;
+
+		@Label("Phase")
+		public String phase;
+	}
+
+	@Name("com.github.glfrazier.bee.QueenPurchase")
+	@Label("Queen Purchase")
+	@Description("A domestic site buys a mated queen; the duration is the latency of the purchase")
+	@Category(CATEGORY)
+	public static class QueenPurchase extends Event {
+		@Label("Buyer X")
+		public int buyerX;
+
+		@Label("Buyer Y")
+		public int buyerY;
+
+		@Label("Breeder X")
+		public int breederX;
+
+		@Label("Breeder Y")
+		public int breederY;
+
+		@Label("Used Mother's Drones")
+		@Description("The breeder's mating flight found no drones, so the mother hive's drones were used")
+		public boolean usedMotherDrones;
+	}
+
+	@Name("com.github.glfrazier.bee.MatingFlight")
+	@Label("Mating Flight")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	public static class MatingFlight extends Event {
+		@Label("Site X")
+		public int x;
+
+		@Label("Site Y")
+		public int y;
+
+		@Label("Directions Tried")
+		public int directionsTried;
+
+		@Label("Neighborhood Size")
+		@Description("The number of living hives that provided drones")
+		public int neighborhoodSize;
+
+		@Label("Failed")
+		@Description("No drones were found; a purchase falls back to the mother hive's drones")
+		public boolean failed;
+	}
+
+	@Name("com.github.glfrazier.bee.SwarmFailed")
+	@Label("Failed Swarm")
+	@Description("A swarm found no dead feral hive to occupy")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	public static class SwarmFailed extends Event {
+		@Label("Site X")
+		public int x;
+
+		@Label("Site Y")
+		public int y;
+
+		@Label("Domestic")
+		public boolean domestic;
+	}
+}
@@ -5,22 +5,17 @@ import static java.util.logging.Level.FINEST;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class Site implements Iterable<Hive>, Serializable {
 
 	private static final long serialVersionUID = 1L;
 	
-	private static final Set<Site> UNIQUE = new HashSet<Site>();  
 
 	/** Reference to the grid */
 	private Grid grid;
@@ -29,14 +24,23 @@ public class Site implements Iterable<Hive>, Serializable {
 	int x;
 	/** Where this site is in the grid (y) */
 	int y;
+	/** Where this site is in the grid's layout; see {@link Grid#getSite(int)}. */
+	final int index;
 	/**
 	 * The number of hives at this site. If wild, it is 1. If domestic, randomly
 	 * selected from an exponential distribution.
 	 */
 	int numberOfHives;
 
-	/** The Hive(s) at this site. */
-	private List<Hive> hives;
+	private static final Hive[] NO_HIVES = new Hive[0];
+
+	/**
+	 * The Hive(s) at this site. The array is never modified once it is published:
+	 * a change to the set of hives (which is rare) replaces it with a new array, so
+	 * readers take the current array and iterate it without locking or copying. A
+	 * feral site's single hive is an array of one.
+	 */
+	private volatile Hive[] hives = NO_HIVES;
 
 	/** Track whether this site has been initialized yet. */
 	public boolean initialized = false;
@@ -46,6 +50,18 @@ public class Site implements Iterable<Hive>, Serializable {
 
 	boolean queenBreeder;
 
+	/**
+	 * Incremented whenever a hive at this site dies, is revived, replaced or
+	 * requeened. See {@link DroneCongregationArea}.
+	 */
+	volatile int version;
+
+	/**
+	 * For a queen breeder, the drone congregation area in each direction (indexed
+	 * by {@link Direction#ordinal()}); otherwise <code>null</code>.
+	 */
+	private DroneCongregationArea[] congregationAreas;
+
 	/** The sites random number generator */
 	Random random;
 
@@ -64,19 +80,26 @@ public class Site implements Iterable<Hive>, Serializable {
 	public Site(int x, int y, long seed, Grid grid) {
 		this.x = x;
 		this.y = y;
+		this.index = grid.getLayout().index(x, y);
 		this.grid = grid;
 		this.sim = grid.getSim();
-		this.hives = new LinkedList<>();
 		this.random = new Random();
 		this.random.setSeed(seed);
-		if (UNIQUE.contains(this)) {
-			throw new IllegalArgumentException("Creating " + this + " for the second time!");
-		}
-		UNIQUE.add(this);
 	}
 
 	public void setQueenBreeder() {
 		queenBreeder = true;
+		if (grid.droneCongregationCache) {
+			congregationAreas = new DroneCongregationArea[Direction.values().length];
+		}
+	}
+
+	/**
+	 * Record that the hives at this site have changed.
+	 */
+	void changed() {
+		version++;
+		grid.activeSites.changed(index);
 	}
 	
 	public boolean isQueenBreeder() {
@@ -85,44 +108,109 @@ public class Site implements Iterable<Hive>, Serializable {
 
 	@Override
 	public Iterator<Hive> iterator() {
-		List<Hive> hiveCopy = new ArrayList<>(hives.size());
-		synchronized (this) {
-			hiveCopy.addAll(hives);
-		}
-		return hiveCopy.iterator();
+		return Arrays.asList(hives).iterator();
+	}
+
+	/**
+	 * @return the hives at this site. The array is shared, and must not be
+	 *         modified.
+	 */
+	Hive[] hives() {
+		return hives;
 	}
 
 	public void replaceDeadHivesOrRequeenLiveHives() {
+		replaceDeadHivesOrRequeenLiveHives(new QueenReplacements());
+	}
+
+	/**
+	 * Replace the dead hives and requeen some of the living ones, using (and
+	 * clearing) the given replacements.
+	 */
+	void replaceDeadHivesOrRequeenLiveHives(QueenReplacements replacements) {
 		if (LOGGER.getLevel() == FINEST) {
-			LOGGER.finest(this + " entered replaceHives, hives.size()=" + hives.size());
+			LOGGER.finest(this + " entered replaceHives, hives.size()=" + hives.length);
 		}
 		if (!this.domestic) {
 			LOGGER.severe("replaceDedHivesOrRequeenLiveHives() was invoked on a feral site.");
 			System.exit(-1);
 		}
-		// A map to hold the replacement hives
-		Map<Hive, Hive> replacementHives = new LinkedHashMap<>();
-		// Look at each hive at this site
-		List<Hive> hiveCopy = new ArrayList<>(hives.size());
-		synchronized (this) {
-			hiveCopy.addAll(hives);
+		// Look at each hive at this site. The keeper buys a queen for each hive that
+		// is dead or being requeened as it is found, so that the hives' and the
+		// breeders' random number generators are drawn in the same order as they
+		// always have been. Every purchase is made before any is installed, so the
+		// mating flights do not see this year's replacements.
+		for (Hive hive : hives) {
+			if (hive.dead || hive.requeen()) {
+				grid.purchaseMatedQueen(this, random, replacements, replacements.add(hive));
+			}
+		}
+		replaceHives(replacements);
+		if (LOGGER.getLevel() == FINEST) {
+			LOGGER.finest(this + " leaving replaceHives, hives.size()=" + hives.length);
 		}
-		for (Hive hive : hiveCopy) {
+	}
+
+	/**
+	 * Add to the replacements the hives at this (domestic) site that are dead or
+	 * are being requeened, and order a queen for each (see
+	 * {@link Grid#orderMatedQueen(Random, QueenReplacements, int)}).
+	 *
+	 * @return the number of queens ordered
+	 */
+	int orderQueens(QueenReplacements replacements) {
+		int first = replacements.size;
+		// Look at each hive at this site
+		for (Hive hive : hives) {
 			// If the hive is dead or being requeened, replace it
 			if (hive.dead || hive.requeen()) {
-				// If this is a domestic site, the keeper buys a new hive
-				replacementHives.put(hive, grid.purchaseMatedQueen(this, random));
+				replacements.add(hive);
 			}
 		}
-		for (Hive hiveToReplace : replacementHives.keySet()) {
-			hiveCopy.remove(hiveToReplace);
-			hiveCopy.add(replacementHives.get(hiveToReplace));
+		for (int i = first; i < replacements.size; i++) {
+			grid.orderMatedQueen(random, replacements, i);
 		}
-		synchronized (this) {
-			hives = hiveCopy;
+		return replacements.size - first;
+	}
+
+	/**
+	 * Install the purchased queens, and clear the replacements. Each replaced hive
+	 * is reset in place, and is moved to the end of the site's hives (in the order
+	 * of the replacements), where a newly constructed hive would have been
+	 * appended.
+	 */
+	void replaceHives(QueenReplacements replacements) {
+		replaceHives(replacements, 0, replacements.size);
+		replacements.clear();
+	}
+
+	/**
+	 * Install the purchased queens <code>[from .. to)</code> of the replacements,
+	 * which must all be for this site, as {@link #replaceHives(QueenReplacements)}
+	 * does; the replacements are not cleared.
+	 */
+	void replaceHives(QueenReplacements replacements, int from, int to) {
+		if (from == to) {
+			return;
 		}
-		if (LOGGER.getLevel() == FINEST) {
-			LOGGER.finest(this + " leaving replaceHives, hives.size()=" + hives.size());
+		synchronized (this) {
+			Hive[] current = hives;
+			Hive[] updated = new Hive[current.length];
+			int kept = 0;
+			for (Hive hive : current) {
+				if (!hive.replaced) {
+					updated[kept++] = hive;
+				}
+			}
+			for (int i = from; i < to; i++) {
+				Hive hive = replacements.hive[i];
+				hive.replaced = false;
+				hive.replaceQueen(replacements.queen[i], replacements.drones[i], replacements.seed[i],
+						replacements.origin[i], replacements.generation[i]);
+				updated[kept++] = hive;
+			}
+			hives = updated;
+			changed();
 		}
 	}
 
@@ -193,6 +281,7 @@ public class Site implements Iterable<Hive>, Serializable {
 
 		// Initialize each hive at this site. Note that ALL HIVES BEGIN WITH EQUALLY
 		// ROBUST GENES. Which is not the same as identical genes.
+		Hive[] initial = new Hive[numberOfHives];
 		for (int i = 0; i < numberOfHives; i++) {
 			double g0 = BeeHealthSimulation.getProbabilityProperty(props, "g0_feral");
 			double stddev = BeeHealthSimulation.getProbabilityProperty(props, "stddev_g");
@@ -205,8 +294,9 @@ public class Site implements Iterable<Hive>, Serializable {
 				d[j] = grid.getSim().cappedNormal(random, g0, stddev);
 			}
 			Hive h = new Hive(q, d, this, random.nextLong());
-			hives.add(h);
+			initial[i] = h;
 		}
+		hives = initial;
 		initialized = true;
 	}
 
@@ -220,7 +310,7 @@ public class Site implements Iterable<Hive>, Serializable {
 		} else {
 			mult = 25;
 		}
-		double d = random.nextGaussian();
+		double d = grid.getSim().getNormalGenerator().nextGaussian(random);
 		d = Math.abs(d);
 		int x = (int) (mult * d) + 1;
 		return x;
@@ -236,9 +326,20 @@ public class Site implements Iterable<Hive>, Serializable {
 	 *         array of drone genes
 	 */
 	public double[] matingFlight(Hive hive) {
+		sim.getInstrumentation().matingFlight();
+		SimulationEvents.MatingFlight event = new SimulationEvents.MatingFlight();
+		event.begin();
 		Direction[] dirs = Direction.getRandomDirectionArray(hive.random);
+		if (grid.droneField != null) {
+			return matingFlightFromDensityField(grid.droneField, hive, dirs, event);
+		}
+		if (congregationAreas != null) {
+			return matingFlightFromCongregationAreas(hive, dirs, event);
+		}
 		List<Hive> droneProvidingHives = null;
+		int directionsTried = 0;
 		for (Direction d : dirs) {
+			directionsTried++;
 			Site s = grid.getSiteInDirection(this, d, matingFlightDistance);
 			droneProvidingHives = grid.getNeighborhoodLivingHives(s, droneParticipationDistance);
 			droneProvidingHives.remove(hive);
@@ -246,6 +347,14 @@ public class Site implements Iterable<Hive>, Serializable {
 				break;
 			}
 		}
+		if (event.shouldCommit()) {
+			event.x = x;
+			event.y = y;
+			event.directionsTried = directionsTried;
+			event.neighborhoodSize = droneProvidingHives.size();
+			event.failed = droneProvidingHives.isEmpty();
+			event.commit();
+		}
 		if (droneProvidingHives.isEmpty()) {
 			return null;
 		}
@@ -265,6 +374,93 @@ public class Site implements Iterable<Hive>, Serializable {
 		return drones;
 	}
 
+	/**
+	 * {@link #matingFlight(Hive)} for a queen breeder: the drones are drawn from the
+	 * site's {@link DroneCongregationArea}s, which are rebuilt only when they are
+	 * out of date. The flying hive is skipped by index, so the drones are exactly
+	 * those that {@link #matingFlight(Hive)} would draw from the grid.
+	 */
+	private double[] matingFlightFromCongregationAreas(Hive hive, Direction[] dirs,
+			SimulationEvents.MatingFlight event) {
+		DroneCongregationArea area = null;
+		int excluded = -1;
+		int available = 0;
+		int directionsTried = 0;
+		for (Direction d : dirs) {
+			directionsTried++;
+			area = congregationAreas[d.ordinal()];
+			if (area == null || !area.isCurrent()) {
+				area = new DroneCongregationArea(grid, grid.getSiteInDirection(this, d, matingFlightDistance),
+						droneParticipationDistance);
+				congregationAreas[d.ordinal()] = area;
+			}
+			excluded = area.indexOf(hive);
+			available = area.size() - (excluded < 0 ? 0 : 1);
+			if (available > 0) {
+				break;
+			}
+		}
+		if (event.shouldCommit()) {
+			event.x = x;
+			event.y = y;
+			event.directionsTried = directionsTried;
+			event.neighborhoodSize = available;
+			event.failed = available == 0;
+			event.commit();
+		}
+		if (available == 0) {
+			return null;
+		}
+		int droneCount = hive.random.nextInt(1 + maxDrones - minDrones) + minDrones;
+		double[] drones = new double[droneCount];
+		for (int i = 0; i < drones.length; i++) {
+			int j = hive.random.nextInt(available);
+			if (excluded >= 0 && j >= excluded) {
+				j++;
+			}
+			drones[i] = area.genes[j];
+		}
+		return drones;
+	}
+
+	/**
+	 * {@link #matingFlight(Hive)} with the approximate mating engine: the drones are
+	 * drawn from the {@link DroneDensityField} at the destination.
+	 */
+	private double[] matingFlightFromDensityField(DroneDensityField field, Hive hive, Direction[] dirs,
+			SimulationEvents.MatingFlight event) {
+		Site destination = null;
+		int excluded = -1;
+		int available = 0;
+		int directionsTried = 0;
+		for (Direction d : dirs) {
+			directionsTried++;
+			destination = grid.getSiteInDirection(this, d, matingFlightDistance);
+			excluded = field.excludedBin(destination, hive);
+			available = field.hives(destination) - (excluded < 0 ? 0 : 1);
+			if (available > 0) {
+				break;
+			}
+		}
+		if (event.shouldCommit()) {
+			event.x = x;
+			event.y = y;
+			event.directionsTried = directionsTried;
+			event.neighborhoodSize = available;
+			event.failed = available == 0;
+			event.commit();
+		}
+		if (available == 0) {
+			return null;
+		}
+		int droneCount = hive.random.nextInt(1 + maxDrones - minDrones) + minDrones;
+		double[] drones = new double[droneCount];
+		for (int i = 0; i < drones.length; i++) {
+			drones[i] = field.drone(destination, available, excluded, hive.random);
+		}
+		return drones;
+	}
+
 	public Grid getGrid() {
 		return grid;
 	}
@@ -281,6 +477,17 @@ public class Site implements Iterable<Hive>, Serializable {
 		}
 	}
 
+	/**
+	 * Add each living hive at the site to <code>batch</code>, to be over-wintered.
+	 */
+	void overWinter(WinterBatch batch) {
+		for (Hive hive : hives) {
+			if (!hive.dead) {
+				batch.add(hive);
+			}
+		}
+	}
+
 	@Override
 	public String toString() {
 		String soubrequet = !initialized ? "(?)" : domestic ? "(D)" : "(F)";
@@ -292,6 +499,7 @@ public class Site implements Iterable<Hive>, Serializable {
 	}
 
 	public String getStateCSV() {
+		Hive[] hives = this.hives;
 		int dead = 0;
 		double totalStrength = 0;
 		double minStrength = Double.MAX_VALUE;
@@ -312,11 +520,11 @@ public class Site implements Iterable<Hive>, Serializable {
 		}
 		double avgStrength = 0;
 		if (totalStrength != 0) {
-			avgStrength = totalStrength / (hives.size() - dead);
+			avgStrength = totalStrength / (hives.length - dead);
 		}
 		StringBuffer result = new StringBuffer();
 		result.append(x).append(',').append(y).append(',').append(domestic).append(',').append(queenBreeder).append(',')
-				.append(hives.size()).append(',').append(hives.size() - dead).append(',').append(dead).append(',')
+				.append(hives.length).append(',').append(hives.length - dead).append(',').append(dead).append(',')
 				.append(avgStrength).append(',').append(maxStrength).append(',').append(minStrength);
 		return result.toString();
 	}
@@ -325,11 +533,7 @@ public class Site implements Iterable<Hive>, Serializable {
 	 * Check each hive to see if it will swarm.
 	 */
 	public void swarmIfAppropriate() {
-		List<Hive> hiveCopy = new ArrayList<>(hives.size());
-		synchronized (this) {
-			hiveCopy.addAll(hives);
-		}
-		for (Hive h : hiveCopy) {
+		for (Hive h : hives) {
 			h.swarmIfAppropriate();
 		}
 	}
@@ -342,10 +546,26 @@ public class Site implements Iterable<Hive>, Serializable {
 		return available.get(random.nextInt(available.size()));
 	}
 
-	public synchronized List<Hive> syncCopyHives() {
-		List<Hive> result = new ArrayList<>(hives.size());
-		result.addAll(hives);
-		return result;
+	int hiveCount() {
+		return hives.length;
+	}
+
+	int livingHiveCount() {
+		int living = 0;
+		for (Hive hive : hives) {
+			if (!hive.dead) {
+				living++;
+			}
+		}
+		return living;
+	}
+
+	/**
+	 * @return a copy of the list of hives at this site, which the caller may
+	 *         modify. Readers that only iterate should use {@link #hives()}.
+	 */
+	public List<Hive> syncCopyHives() {
+		return new ArrayList<>(Arrays.asList(hives));
 	}
 
 	public boolean equals(Object o) {
@@ -358,7 +578,7 @@ public class Site implements Iterable<Hive>, Serializable {
 
 	@Override
 	public int hashCode() {
-		return Integer.hashCode(x) + Integer.hashCode(y);
+		return 31 * x + y;
 	}
 
 }
@@ -0,0 +1,393 @@
+package com.github.glfrazier.bee;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The contents of a <code>sites.csv</code> file (see
+ * {@link Site#getStateCSVHeader()}), held in primitive columns rather than as
+ * one object per row. The file is memory-mapped and parsed in place, without
+ * creating a String per line or per token. Each column is indexed by
+ * {@link #index(int, int)}, so the columns are in grid order regardless of the
+ * order of the rows in the file.
+ *
+ * @see Analysis
+ *
+ * @author Greg Frazier
+ *
+ */
+public class SiteColumns {
+
+	/**
+	 * The largest window of the file that is mapped at one time. Files larger than
+	 * this are parsed in successive windows.
+	 */
+	private static final long WINDOW_SIZE = 1L << 30;
+
+	/** The number of columns in a sites.csv row. */
+	private static final int NUMBER_OF_COLUMNS = 10;
+
+	/** Powers of ten that are exactly representable as doubles. */
+	private static final double[] POWERS_OF_TEN = new double[23];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	public final int edgeLength;
+	public final boolean[] domestic;
+	public final boolean[] queenBreeder;
+	public final int[] numberHives;
+	public final int[] numberLiveHives;
+	public final int[] numberDeadHives;
+	public final double[] avgLiveHiveStrength;
+	public final double[] maxLiveHiveStrength;
+	public final double[] minLiveHiveStrength;
+
+	private SiteColumns(int edgeLength) {
+		this.edgeLength = edgeLength;
+		int n = edgeLength * edgeLength;
+		domestic = new boolean[n];
+		queenBreeder = new boolean[n];
+		numberHives = new int[n];
+		numberLiveHives = new int[n];
+		numberDeadHives = new int[n];
+		avgLiveHiveStrength = new double[n];
+		maxLiveHiveStrength = new double[n];
+		minLiveHiveStrength = new double[n];
+	}
+
+	/** The number of sites (rows) in the columns. */
+	public int size() {
+		return edgeLength * edgeLength;
+	}
+
+	/** The column index of the site at (x, y). */
+	public int index(int x, int y) {
+		return x * edgeLength + y;
+	}
+
+	/** The x coordinate of the site at the specified column index. */
+	public int x(int index) {
+		return index / edgeLength;
+	}
+
+	/** The y coordinate of the site at the specified column index. */
+	public int y(int index) {
+		return index % edgeLength;
+	}
+
+	/** True if the site at the specified column index has at least one live hive. */
+	public boolean hasLiveHives(int index) {
+		return numberLiveHives[index] > 0;
+	}
+
+	/**
+	 * Load a sites.csv file. The header row, if present, is skipped. The grid is
+	 * square, so the edge length is inferred from the number of rows.
+	 *
+	 * @param sitesFile the file to load
+	 * @return the columns
+	 * @throws IOException if the file cannot be read or is malformed
+	 */
+	public static SiteColumns load(File sitesFile) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(sitesFile, "r"); FileChannel channel = raf.getChannel()) {
+			long fileSize = channel.size();
+			Parser parser = new Parser(countRows(channel, fileSize));
+			long position = 0;
+			while (position < fileSize) {
+				long length = Math.min(WINDOW_SIZE, fileSize - position);
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				boolean lastWindow = position + length == fileSize;
+				int consumed = parser.parse(buffer, lastWindow);
+				if (consumed == 0) {
+					throw new IOException(sitesFile + " has a line longer than " + WINDOW_SIZE + " bytes.");
+				}
+				position += consumed;
+			}
+			return parser.result(sitesFile);
+		}
+	}
+
+	/** Count the data rows (non-empty lines that do not start with the header). */
+	private static int countRows(FileChannel channel, long fileSize) throws IOException {
+		long rows = 0;
+		long position = 0;
+		boolean lineHasContent = false;
+		boolean firstLine = true;
+		boolean firstLineIsHeader = false;
+		while (position < fileSize) {
+			long length = Math.min(WINDOW_SIZE, fileSize - position);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+			for (int i = 0; i < length; i++) {
+				byte b = buffer.get(i);
+				if (b == '\n') {
+					if (lineHasContent) {
+						rows++;
+					}
+					lineHasContent = false;
+					firstLine = false;
+				} else if (b != '\r') {
+					if (firstLine && !lineHasContent) {
+						firstLineIsHeader = b == 'x';
+					}
+					lineHasContent = true;
+				}
+			}
+			position += length;
+		}
+		if (lineHasContent) {
+			rows++;
+		}
+		if (firstLineIsHeader) {
+			rows--;
+		}
+		if (rows > Integer.MAX_VALUE) {
+			throw new IOException("Too many sites: " + rows);
+		}
+		return (int) rows;
+	}
+
+	/**
+	 * Parses rows into columns. Rows are first parsed into flat arrays in file
+	 * order, and then scattered into grid order by {@link #result(File)}.
+	 */
+	private static class Parser {
+		private final int[] xs;
+		private final int[] ys;
+		private final boolean[] domestic;
+		private final boolean[] queenBreeder;
+		private final int[] numberHives;
+		private final int[] numberLiveHives;
+		private final int[] numberDeadHives;
+		private final double[] avg;
+		private final double[] max;
+		private final double[] min;
+		private int row = 0;
+		private int maxX = -1;
+
+		/** Scratch space for a line that the fast number parsing cannot handle. */
+		private final byte[] scratch = new byte[64];
+
+		Parser(int rows) {
+			xs = new int[rows];
+			ys = new int[rows];
+			domestic = new boolean[rows];
+			queenBreeder = new boolean[rows];
+			numberHives = new int[rows];
+			numberLiveHives = new int[rows];
+			numberDeadHives = new int[rows];
+			avg = new double[rows];
+			max = new double[rows];
+			min = new double[rows];
+		}
+
+		/**
+		 * Parse every complete line in the buffer.
+		 *
+		 * @return the number of bytes consumed
+		 */
+		int parse(MappedByteBuffer buffer, boolean lastWindow) throws IOException {
+			int limit = buffer.limit();
+			int lineStart = 0;
+			while (lineStart < limit) {
+				int lineEnd = lineStart;
+				while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+					lineEnd++;
+				}
+				if (lineEnd == limit && !lastWindow) {
+					// An incomplete line; it is parsed with the next window
+					break;
+				}
+				int end = lineEnd;
+				if (end > lineStart && buffer.get(end - 1) == '\r') {
+					end--;
+				}
+				if (end > lineStart && buffer.get(lineStart) != 'x') {
+					parseLine(buffer, lineStart, end);
+				}
+				lineStart = lineEnd + 1;
+			}
+			return Math.min(lineStart, limit);
+		}
+
+		private void parseLine(MappedByteBuffer buffer, int start, int end) throws IOException {
+			if (row == xs.length) {
+				throw new IOException("More rows than were counted.");
+			}
+			int tokenStart = start;
+			for (int column = 0; column < NUMBER_OF_COLUMNS; column++) {
+				int tokenEnd = tokenStart;
+				while (tokenEnd < end && buffer.get(tokenEnd) != ',') {
+					tokenEnd++;
+				}
+				if (tokenEnd == tokenStart) {
+					throw new IOException("Row " + row + " has an empty or missing column " + column);
+				}
+				switch (column) {
+				case 0:
+					xs[row] = parseInt(buffer, tokenStart, tokenEnd);
+					if (xs[row] > maxX) {
+						maxX = xs[row];
+					}
+					break;
+				case 1:
+					ys[row] = parseInt(buffer, tokenStart, tokenEnd);
+					break;
+				case 2:
+					domestic[row] = parseBoolean(buffer, tokenStart, tokenEnd);
+					break;
+				case 3:
+					queenBreeder[row] = parseBoolean(buffer, tokenStart, tokenEnd);
+					break;
+				case 4:
+					numberHives[row] = parseInt(buffer, tokenStart, tokenEnd);
+					break;
+				case 5:
+					numberLiveHives[row] = parseInt(buffer, tokenStart, tokenEnd);
+					break;
+				case 6:
+					numberDeadHives[row] = parseInt(buffer, tokenStart, tokenEnd);
+					break;
+				case 7:
+					avg[row] = parseDouble(buffer, tokenStart, tokenEnd);
+					break;
+				case 8:
+					max[row] = parseDouble(buffer, tokenStart, tokenEnd);
+					break;
+				case 9:
+					min[row] = parseDouble(buffer, tokenStart, tokenEnd);
+					break;
+				}
+				tokenStart = tokenEnd + 1;
+			}
+			row++;
+		}
+
+		private static int parseInt(MappedByteBuffer buffer, int start, int end) throws IOException {
+			while (start < end && buffer.get(start) == ' ') {
+				start++;
+			}
+			boolean negative = false;
+			if (start < end && buffer.get(start) == '-') {
+				negative = true;
+				start++;
+			}
+			if (start == end) {
+				throw new IOException("Expected an integer.");
+			}
+			int value = 0;
+			for (int i = start; i < end; i++) {
+				int digit = buffer.get(i) - '0';
+				if (digit < 0 || digit > 9) {
+					throw new IOException("Expected an integer, found '" + (char) buffer.get(i) + "'");
+				}
+				value = value * 10 + digit;
+			}
+			return negative ? -value : value;
+		}
+
+		private static boolean parseBoolean(MappedByteBuffer buffer, int start, int end) {
+			while (start < end && buffer.get(start) == ' ') {
+				start++;
+			}
+			byte b = buffer.get(start);
+			return b == 't' || b == 'T';
+		}
+
+		/**
+		 * Parse a decimal number. Numbers with at most 15 significant digits and a
+		 * small exponent are converted exactly with a single multiplication or
+		 * division by a power of ten; anything else falls back to
+		 * {@link Double#parseDouble(String)}.
+		 */
+		private double parseDouble(MappedByteBuffer buffer, int start, int end) throws IOException {
+			while (start < end && buffer.get(start) == ' ') {
+				start++;
+			}
+			int i = start;
+			boolean negative = false;
+			if (i < end && buffer.get(i) == '-') {
+				negative = true;
+				i++;
+			}
+			long mantissa = 0;
+			int digits = 0;
+			int exponent = 0;
+			boolean seenPoint = false;
+			boolean fastPath = true;
+			for (; i < end; i++) {
+				byte b = buffer.get(i);
+				if (b >= '0' && b <= '9') {
+					if (digits > 0 || b != '0') {
+						digits++;
+					}
+					if (digits > 15) {
+						fastPath = false;
+						break;
+					}
+					mantissa = mantissa * 10 + (b - '0');
+					if (seenPoint) {
+						exponent--;
+					}
+				} else if (b == '.' && !seenPoint) {
+					seenPoint = true;
+				} else if (b == 'E' || b == 'e') {
+					int e = parseInt(buffer, i + 1, end);
+					exponent += e;
+					i = end;
+				} else {
+					fastPath = false;
+					break;
+				}
+			}
+			if (fastPath && exponent >= -22 && exponent <= 22) {
+				double value = mantissa;
+				value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+				return negative ? -value : value;
+			}
+			int length = end - start;
+			if (length > scratch.length) {
+				throw new IOException("Malformed number in row " + row);
+			}
+			for (int j = 0; j < length; j++) {
+				scratch[j] = buffer.get(start + j);
+			}
+			try {
+				return Double.parseDouble(new String(scratch, 0, length, "US-ASCII"));
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed number in row " + row + ": " + e);
+			}
+		}
+
+		SiteColumns result(File sitesFile) throws IOException {
+			if (row != xs.length) {
+				throw new IOException("Parsed " + row + " rows, but counted " + xs.length);
+			}
+			int edgeLength = maxX + 1;
+			if ((long) edgeLength * edgeLength != row) {
+				throw new IOException(sitesFile + " has " + row + " rows, which is not the size of a " + edgeLength
+						+ "x" + edgeLength + " grid.");
+			}
+			SiteColumns columns = new SiteColumns(edgeLength);
+			for (int r = 0; r < row; r++) {
+				int index = columns.index(xs[r], ys[r]);
+				columns.domestic[index] = domestic[r];
+				columns.queenBreeder[index] = queenBreeder[r];
+				columns.numberHives[index] = numberHives[r];
+				columns.numberLiveHives[index] = numberLiveHives[r];
+				columns.numberDeadHives[index] = numberDeadHives[r];
+				columns.avgLiveHiveStrength[index] = avg[r];
+				columns.maxLiveHiveStrength[index] = max[r];
+				columns.minLiveHiveStrength[index] = min[r];
+			}
+			return columns;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package com.github.glfrazier.bee;
+
+/**
+ * The order in which a {@link Grid} holds its sites in memory (and so, the
+ * order in which the simulation's phases visit them). Every phase walks the
+ * sites in this order, while every neighborhood query reaches out in both
+ * directions; a layout that keeps neighbors close together in memory keeps
+ * those queries in cache. The property 'grid_layout' selects the layout:
+ * <dl>
+ * <dt>row_major</dt>
+ * <dd>Row by row (the default).</dd>
+ * <dt>tiled</dt>
+ * <dd>Square blocks of 'grid_tile_size' x 'grid_tile_size' sites (default 32),
+ * each stored row by row, with the blocks themselves stored row by row.</dd>
+ * <dt>morton</dt>
+ * <dd>Z-order: the bits of x and y are interleaved, so that every aligned
+ * power-of-two square is contiguous. If the edge length is not a power of two,
+ * the sites are packed in Z-order, skipping the coordinates outside the
+ * grid.</dd>
+ * </dl>
+ * The queen breeders and the initial hives do not depend upon the layout, but
+ * the order of the visits does (e.g., the order in which the sites requeen,
+ * and the list of hives that is shuffled into the swarming order), so each
+ * layout produces different results.
+ *
+ * @author Greg Frazier
+ *
+ */
+public abstract class SiteLayout {
+
+	protected final int edgeLength;
+
+	protected SiteLayout(int edgeLength) {
+		this.edgeLength = edgeLength;
+	}
+
+	/**
+	 * The position of the site (x, y) in the layout, in the range
+	 * <code>[0..edgeLength^2)</code>.
+	 */
+	public abstract int index(int x, int y);
+
+	/**
+	 * The number of consecutive positions that make up one spatially compact block
+	 * of the layout. Work that is divided among threads should be divided on
+	 * multiples of this size.
+	 */
+	public abstract int blockSize();
+
+	/**
+	 * Divide the layout into <code>parts</code> contiguous ranges of (nearly)
+	 * equal size, with each boundary on a {@link #blockSize()} boundary. (On a
+	 * grid too small to give each part several blocks, the blocks are quartered
+	 * until it does.)
+	 *
+	 * @return <code>parts + 1</code> boundaries; part <code>i</code> is the
+	 *         positions <code>[b[i]..b[i+1])</code>
+	 */
+	public int[] partition(int parts) {
+		int size = edgeLength * edgeLength;
+		int blockSize = blockSize();
+		while (blockSize > 1 && size / blockSize < 4L * parts) {
+			blockSize = Math.max(1, blockSize / 4);
+		}
+		int blocks = (size + blockSize - 1) / blockSize;
+		int[] boundaries = new int[parts + 1];
+		for (int i = 0; i <= parts; i++) {
+			boundaries[i] = (int) Math.min(size, (long) blocks * i / parts * blockSize);
+		}
+		return boundaries;
+	}
+
+	/**
+	 * Obtain the layout specified by the properties 'grid_layout' and
+	 * 'grid_tile_size'.
+	 */
+	public static SiteLayout getLayout(BeeHealthSimulation sim, int edgeLength) {
+		String layout = sim.getProperties().getProperty("grid_layout", "row_major");
+		if (layout.equals("row_major")) {
+			return new RowMajor(edgeLength);
+		}
+		if (layout.equals("tiled")) {
+			int tileSize = 32;
+			if (sim.getProperties().containsKey("grid_tile_size")) {
+				tileSize = sim.getIntProperty("grid_tile_size");
+			}
+			if (tileSize < 1) {
+				System.err.println("'grid_tile_size' must be positive. You specified " + tileSize);
+				System.exit(-1);
+			}
+			return new Tiled(edgeLength, tileSize);
+		}
+		if (layout.equals("morton")) {
+			return new Morton(edgeLength);
+		}
+		System.err.println("'grid_layout=" + layout + "' is not supported. Use row_major, tiled or morton.");
+		System.exit(-1);
+		// unreachable code
+		return null;
+	}
+
+	/**
+	 * <code>grid_layout=row_major</code>
+	 */
+	public static class RowMajor extends SiteLayout {
+
+		public RowMajor(int edgeLength) {
+			super(edgeLength);
+		}
+
+		@Override
+		public int index(int x, int y) {
+			return x * edgeLength + y;
+		}
+
+		@Override
+		public int blockSize() {
+			return edgeLength;
+		}
+	}
+
+	/**
+	 * <code>grid_layout=tiled</code> The index is computed arithmetically. The
+	 * tiles along the bottom and right edges are truncated if the tile size does
+	 * not divide the edge length.
+	 */
+	public static class Tiled extends SiteLayout {
+
+		private final int tileSize;
+
+		public Tiled(int edgeLength, int tileSize) {
+			super(edgeLength);
+			this.tileSize = Math.min(tileSize, edgeLength);
+		}
+
+		@Override
+		public int index(int x, int y) {
+			int tx = x / tileSize;
+			int ty = y / tileSize;
+			// Every tile in this row of tiles has the same height...
+			int height = Math.min(tileSize, edgeLength - tx * tileSize);
+			// ...but the last tile in the row may be narrower
+			int width = Math.min(tileSize, edgeLength - ty * tileSize);
+			int base = tx * tileSize * edgeLength + ty * tileSize * height;
+			return base + (x - tx * tileSize) * width + (y - ty * tileSize);
+		}
+
+		@Override
+		public int blockSize() {
+			return tileSize * tileSize;
+		}
+	}
+
+	/**
+	 * <code>grid_layout=morton</code> When the edge length is a power of two, the
+	 * index is the interleaving of the bits of x and y. Otherwise, a table maps
+	 * each site to its rank in Z-order.
+	 */
+	public static class Morton extends SiteLayout {
+
+		private final int[] rank;
+
+		public Morton(int edgeLength) {
+			super(edgeLength);
+			if (Integer.bitCount(edgeLength) == 1) {
+				rank = null;
+			} else {
+				rank = new int[edgeLength * edgeLength];
+				int side = Integer.highestOneBit(edgeLength - 1) << 1;
+				int next = 0;
+				for (long code = 0; code < (long) side * side; code++) {
+					int x = compact((int) (code >>> 1));
+					int y = compact((int) code);
+					if (x < edgeLength && y < edgeLength) {
+						rank[x * edgeLength + y] = next++;
+					}
+				}
+			}
+		}
+
+		@Override
+		public int index(int x, int y) {
+			if (rank != null) {
+				return rank[x * edgeLength + y];
+			}
+			return (spread(x) << 1) | spread(y);
+		}
+
+		@Override
+		public int blockSize() {
+			// The largest power-of-four square that fits in a 32x32 tile
+			return Math.min(1024, Integer.highestOneBit(edgeLength * edgeLength));
+		}
+
+		/** Spread the low 16 bits of v so that there is a zero between each bit. */
+		static int spread(int v) {
+			v &= 0x0000ffff;
+			v = (v | (v << 8)) & 0x00ff00ff;
+			v = (v | (v << 4)) & 0x0f0f0f0f;
+			v = (v | (v << 2)) & 0x33333333;
+			v = (v | (v << 1)) & 0x55555555;
+			return v;
+		}
+
+		/** The inverse of {@link #spread(int)}: gather the even bits of v. */
+		static int compact(int v) {
+			v &= 0x55555555;
+			v = (v | (v >>> 1)) & 0x33333333;
+			v = (v | (v >>> 2)) & 0x0f0f0f0f;
+			v = (v | (v >>> 4)) & 0x00ff00ff;
+			v = (v | (v >>> 8)) & 0x0000ffff;
+			return v;
+		}
+	}
+}
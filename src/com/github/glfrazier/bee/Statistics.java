@@ -2,14 +2,19 @@ package com.github.glfrazier.bee;
 
 import static com.github.glfrazier.bee.BeeHealthSimulation.LOGGER;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Serializable;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -24,20 +29,69 @@ public class Statistics implements Serializable {
 	public static final String DEFAULT_RESULTS_DIR = "results";
 
 	private BeeHealthSimulation sim;
+	private Properties props;
 	private List<PerYearStatistics> statistics;
 	private PerYearStatistics thisYearStats;
 	private int thisYear;
 
+	/**
+	 * The living hives of this year's end-of-summer census that have not yet been
+	 * added to {@link #thisYearStats}; see {@link #flushCensus()}.
+	 */
+	private transient CensusBatch domesticCensus;
+	private transient CensusBatch feralCensus;
+	private transient SeasonKernels kernels;
+
+	/**
+	 * The accuracy of the census's quantile sketches (the property
+	 * 'census_percentiles.k'), or 0 if 'census_percentiles' is false and there are
+	 * none.
+	 */
+	private int sketchK = 0;
+
+	/** The percentiles written for each sketch of the census. */
+	private static final double[] PERCENTILES = { 0.01, 0.1, 0.5, 0.9, 0.99 };
+
+	/** The living hives by lineage; <code>null</code> unless lineage tracking is enabled. */
+	private QueenLineage lineage;
+
 	private File baseDir;
 	private File checkpointDir;
 	private File resultsDir;
 
 	public Statistics(Properties props, BeeHealthSimulation sim) {
+		this(props, sim, true);
+	}
+
+	/**
+	 * @param props         the simulation's properties
+	 * @param sim           the simulation; may be <code>null</code> if the
+	 *                      statistics are assembled from
+	 *                      {@link #takeYearStatistics()} of other Statistics
+	 *                      objects (see {@link DistributedSimulation})
+	 * @param recordResults if <code>false</code>, no results directory is
+	 *                      created and nothing is written to disk
+	 */
+	public Statistics(Properties props, BeeHealthSimulation sim, boolean recordResults) {
 		this.sim = sim;
+		this.props = props;
 		statistics = new ArrayList<>();
-		thisYearStats = new PerYearStatistics();
+		if (Boolean.parseBoolean(props.getProperty("census_percentiles", "false"))) {
+			sketchK = QuantileSketch.DEFAULT_K;
+			if (props.containsKey("census_percentiles.k")) {
+				sketchK = BeeHealthSimulation.getIntProperty(props, "census_percentiles.k");
+			}
+			if (sketchK < 8) {
+				System.err.println("'census_percentiles.k' must be at least 8. You specified " + sketchK);
+				System.exit(-1);
+			}
+		}
+		thisYearStats = newYearStatistics();
 		thisYear = 0;
-		initialize(props);
+		lineage = QueenLineage.create(props);
+		if (recordResults) {
+			initialize(props);
+		}
 	}
 
 	private void initialize(Properties props) {
@@ -60,22 +114,76 @@ public class Statistics implements Serializable {
 		resultsDir = subdir;
 	}
 
+	/**
+	 * @return the directory (<code>base_dir/results_dir/NNN</code>) to which the
+	 *         results are written, or <code>null</code> if they are not recorded
+	 */
+	public File getResultsDir() {
+		return resultsDir;
+	}
+
 	/**
 	 * Write the statistics to disk.
 	 * 
 	 * @throws IOException if statistics cannot be saved
 	 */
 	public void endSimulation() throws IOException {
-		Properties props = sim.getProperties();
-		do {
-			File f = new File(resultsDir, "sites.csv");
-			PrintStream out = new PrintStream(new FileOutputStream(f));
-			out.println(Site.getStateCSVHeader());
-			for (Site s : sim.getGrid()) {
-				out.println(s.getStateCSV());
+		writeSites("sites.csv", siteStates(sim.getGrid()));
+		if (lineage != null) {
+			lineage.write(this, sim.getGrid().queenBreeders);
+		}
+		writeResults();
+	}
+
+	/**
+	 * Write a sites CSV file to the results directory.
+	 * 
+	 * @param filename  the name of the file
+	 * @param siteLines the {@link Site#getStateCSV()} of every site
+	 * @throws IOException if the file cannot be written
+	 */
+	public void writeSites(String filename, Iterator<String> siteLines) throws IOException {
+		writeLines(filename, Site.getStateCSVHeader(), siteLines);
+	}
+
+	/**
+	 * Write a CSV file to the results directory.
+	 * 
+	 * @param filename the name of the file
+	 * @param header   the first line of the file
+	 * @param lines    the remaining lines
+	 * @throws IOException if the file cannot be written
+	 */
+	public void writeLines(String filename, String header, Iterator<String> lines) throws IOException {
+		File f = new File(resultsDir, filename);
+		PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(f)));
+		out.println(header);
+		while (lines.hasNext()) {
+			out.println(lines.next());
+		}
+		out.close();
+	}
+
+	private static Iterator<String> siteStates(Grid grid) {
+		final Iterator<Site> sites = grid.rowMajorIterator();
+		return new Iterator<String>() {
+			public boolean hasNext() {
+				return sites.hasNext();
 			}
-			out.close();
-		} while (false);
+
+			public String next() {
+				return sites.next().getStateCSV();
+			}
+		};
+	}
+
+	/**
+	 * Write the name/description files and the per-year series to the results
+	 * directory.
+	 * 
+	 * @throws IOException if the results cannot be saved
+	 */
+	public void writeResults() throws IOException {
 		for (Object key : props.keySet()) {
 			String name = key.toString();
 			if (name.startsWith("name") || name.startsWith("desc")) {
@@ -92,6 +200,12 @@ public class Statistics implements Serializable {
 				if (!name.contains("omestic") && !name.contains("eral")) {
 					continue;
 				}
+				if (field.getType().equals(QuantileSketch.class)) {
+					if (sketchK > 0) {
+						savePercentiles(name.replace("Sketch", "Percentiles"), field);
+					}
+					continue;
+				}
 				if (name.startsWith("max") || name.startsWith("min")) {
 					continue;
 				}
@@ -152,6 +266,24 @@ public class Statistics implements Serializable {
 		out.close();
 	}
 
+	/**
+	 * Write the {@link #PERCENTILES} of each year's sketch: a line per year, of
+	 * the year and the percentiles in order.
+	 */
+	private void savePercentiles(String name, Field sketchField) throws IOException, IllegalAccessException {
+		File f = new File(resultsDir, name + ".csv");
+		PrintStream out = new PrintStream(new FileOutputStream(f));
+		for (int i = 0; i < statistics.size(); i++) {
+			QuantileSketch sketch = (QuantileSketch) sketchField.get(statistics.get(i));
+			StringBuilder line = new StringBuilder(Integer.toString(i));
+			for (double p : PERCENTILES) {
+				line.append(String.format(" \t%.4f", sketch.quantile(p)));
+			}
+			out.println(line);
+		}
+		out.close();
+	}
+
 	private void saveData(String name, double[] values) throws IOException {
 		File f = new File(resultsDir, name + ".csv");
 		PrintStream out = new PrintStream(new FileOutputStream(f));
@@ -167,6 +299,10 @@ public class Statistics implements Serializable {
 
 	public void endOfSummer() {
 		// Do whatever aggregation needs to be done at the end of a summer.
+		flushCensus();
+		if (lineage != null) {
+			lineage.endOfSummer();
+		}
 		LOGGER.fine("Ending summer " + thisYear);
 		LOGGER.fine("\tdomesticLiveHives=" + thisYearStats.domesticLiveHives);
 		LOGGER.fine("\tdomesticDeadHives=" + thisYearStats.domesticDeadHives);
@@ -185,7 +321,7 @@ public class Statistics implements Serializable {
 			System.exit(-1);
 		}
 		statistics.add(thisYearStats);
-		thisYearStats = new PerYearStatistics();
+		thisYearStats = newYearStatistics();
 		thisYear++;
 		if (thisYear != statistics.size()) {
 			System.err.println("ERROR: thisYear does not agree with statistics.");
@@ -193,7 +329,88 @@ public class Statistics implements Serializable {
 		}
 	}
 
-	private class PerYearStatistics {
+	/**
+	 * The statistics of the most recently completed year, by the names of their
+	 * series (e.g., <code>domesticLiveHives</code>); empty if no year has been
+	 * completed. The totals are included as they are, not averaged.
+	 */
+	public Map<String, Double> getLatestYearStatistics() {
+		Map<String, Double> values = new LinkedHashMap<>();
+		if (statistics.isEmpty()) {
+			return values;
+		}
+		PerYearStatistics latest = statistics.get(statistics.size() - 1);
+		try {
+			for (Field field : PerYearStatistics.class.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers())) {
+					continue;
+				}
+				if (field.getType().equals(double.class) || field.getType().equals(int.class)) {
+					values.put(field.getName(), field.getDouble(latest));
+				}
+			}
+		} catch (IllegalAccessException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+		return values;
+	}
+
+	/**
+	 * Remove and return the statistics gathered so far this year, and start a new
+	 * (empty) year. The year is not ended: see {@link #addYearStatistics(Object)}.
+	 * The returned object is opaque, but it is {@link Serializable}.
+	 */
+	public Object takeYearStatistics() {
+		flushCensus();
+		PerYearStatistics result = thisYearStats;
+		thisYearStats = newYearStatistics();
+		return result;
+	}
+
+	/**
+	 * Merge statistics obtained from {@link #takeYearStatistics()} (typically, from
+	 * another process) into this year's statistics. Counts and totals are summed,
+	 * minimums and maximums are combined, and quantile sketches are merged.
+	 */
+	public void addYearStatistics(Object yearStatistics) {
+		flushCensus();
+		PerYearStatistics other = (PerYearStatistics) yearStatistics;
+		try {
+			for (Field field : PerYearStatistics.class.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers())) {
+					continue;
+				}
+				String name = field.getName();
+				if (field.getType().equals(double.class)) {
+					double a = field.getDouble(thisYearStats);
+					double b = field.getDouble(other);
+					field.setDouble(thisYearStats,
+							name.startsWith("min") ? Math.min(a, b) : name.startsWith("max") ? Math.max(a, b) : a + b);
+				} else if (field.getType().equals(int.class)) {
+					int a = field.getInt(thisYearStats);
+					int b = field.getInt(other);
+					field.setInt(thisYearStats,
+							name.startsWith("min") ? Math.min(a, b) : name.startsWith("max") ? Math.max(a, b) : a + b);
+				} else if (field.getType().equals(QuantileSketch.class)) {
+					QuantileSketch a = (QuantileSketch) field.get(thisYearStats);
+					QuantileSketch b = (QuantileSketch) field.get(other);
+					if (a == null) {
+						field.set(thisYearStats, b);
+					} else if (b != null) {
+						a.merge(b);
+					}
+				}
+			}
+		} catch (IllegalAccessException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+
+	private static class PerYearStatistics implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		public int domesticHivesCreated;
 		public int domesticDeadHives;
 		public int domesticLiveHives;
@@ -235,11 +452,21 @@ public class Statistics implements Serializable {
 		public int maxFeralDrones;
 		public double minFeralHiveStrength;
 		public double maxFeralHiveStrength;
+		/**
+		 * The distributions of the census, if 'census_percentiles' is true; otherwise
+		 * <code>null</code>.
+		 */
+		public QuantileSketch domesticQueenStrengthSketch;
+		public QuantileSketch domesticHiveStrengthSketch;
+		public QuantileSketch domesticDronesSketch;
+		public QuantileSketch feralQueenStrengthSketch;
+		public QuantileSketch feralHiveStrengthSketch;
+		public QuantileSketch feralDronesSketch;
 
 		public PerYearStatistics() {
 			for (Field field : PerYearStatistics.class.getDeclaredFields()) {
 				try {
-					if (field.getName().startsWith("min")) {
+					if (field.getName().startsWith("min") && !Modifier.isStatic(field.getModifiers())) {
 						if (field.getType().equals(double.class)) {
 							field.set(this, Double.MAX_VALUE);
 						}
@@ -257,7 +484,7 @@ public class Statistics implements Serializable {
 	}
 
 	public void hivesAtEndOfSummer(Site site) {
-		List<Hive> hives = site.syncCopyHives();
+		Hive[] hives = site.hives();
 		if (LOGGER.getLevel() == Level.FINEST) {
 			LOGGER.finest("Logging site " + site + " at end of summer, year " + thisYear);
 			for (Hive h : hives) {
@@ -265,76 +492,231 @@ public class Statistics implements Serializable {
 			}
 		}
 		for (Hive h : hives) {
-			if (site.domestic) {
-				if (h.dead) {
-					thisYearStats.domesticDeadHives++;
-				} else {
-//					if (LOGGER.getLevel() == Level.FINEST) {
-//						LOGGER.finest(h + " is alive, queen strength = " + h.queenGene);
-//					}
-					thisYearStats.domesticLiveHives++;
-
-					thisYearStats.totalDomesticQueenStrength += h.queenGene;
-					if (h.queenGene < thisYearStats.minDomesticQueenStrength)
-						thisYearStats.minDomesticQueenStrength = h.queenGene;
-					if (h.queenGene > thisYearStats.maxDomesticQueenStrength)
-						thisYearStats.maxDomesticQueenStrength = h.queenGene;
-
-					thisYearStats.totalDomesticDrones += h.droneGenes.length;
-					if (thisYearStats.minDomesticDrones > h.droneGenes.length)
-						thisYearStats.minDomesticDrones = h.droneGenes.length;
-					if (thisYearStats.maxDomesticDrones < h.droneGenes.length)
-						thisYearStats.maxDomesticDrones = h.droneGenes.length;
-
-					thisYearStats.totalDomesticHiveStrength += h.getHiveStrength();
-					if (thisYearStats.minDomesticHiveStrength > h.getHiveStrength())
-						thisYearStats.minDomesticHiveStrength = h.getHiveStrength();
-					if (thisYearStats.maxDomesticHiveStrength < h.getHiveStrength())
-						thisYearStats.maxDomesticHiveStrength = h.getHiveStrength();
-				}
+			if (h.dead) {
+				hiveAtEndOfSummer(site.domestic, true, 0, 0, 0);
 			} else {
-				if (h.dead) {
-					thisYearStats.feralDeadHives++;
-				} else {
-					thisYearStats.feralLiveHives++;
-
-					thisYearStats.totalFeralQueenStrength += h.queenGene;
-					if (h.queenGene < thisYearStats.minFeralQueenStrength)
-						thisYearStats.minFeralQueenStrength = h.queenGene;
-					if (h.queenGene > thisYearStats.maxFeralQueenStrength)
-						thisYearStats.maxFeralQueenStrength = h.queenGene;
-
-					thisYearStats.totalFeralDrones += h.droneGenes.length;
-					if (thisYearStats.minFeralDrones > h.droneGenes.length)
-						thisYearStats.minFeralDrones = h.droneGenes.length;
-					if (thisYearStats.maxFeralDrones < h.droneGenes.length)
-						thisYearStats.maxFeralDrones = h.droneGenes.length;
-
-					thisYearStats.totalFeralHiveStrength += h.getHiveStrength();
-					if (thisYearStats.minFeralHiveStrength > h.getHiveStrength())
-						thisYearStats.minFeralHiveStrength = h.getHiveStrength();
-					if (thisYearStats.maxFeralHiveStrength < h.getHiveStrength())
-						thisYearStats.maxFeralHiveStrength = h.getHiveStrength();
+				hiveAtEndOfSummer(site.domestic, false, h.queenGene, h.droneGenes.length, h.getHiveStrength());
+				if (lineage != null) {
+					lineage.count(h, site.domestic);
 				}
 			}
 		}
 	}
 
-	public void hivesAtEndOfWinter(Site site) {
-		List<Hive> hives = site.syncCopyHives();
-		for (Hive h : hives) {
-			if (site.domestic) {
-				if (h.dead) {
-					thisYearStats.domesticEowDeadHives++;
-				} else {
-					thisYearStats.domesticEowLiveHives++;
+	/**
+	 * Record the living hives at a site in the end-of-summer census. The dead hives
+	 * are recorded by {@link #deadHivesAtEndOfSummer(boolean, int)}.
+	 */
+	public void livingHivesAtEndOfSummer(Site site) {
+		for (Hive h : site.hives()) {
+			if (!h.dead) {
+				hiveAtEndOfSummer(site.domestic, false, h.queenGene, h.droneGenes.length, h.getHiveStrength());
+				if (lineage != null) {
+					lineage.count(h, site.domestic);
 				}
+			}
+		}
+	}
+
+	/**
+	 * Record <code>count</code> dead hives in the end-of-summer census.
+	 */
+	public void deadHivesAtEndOfSummer(boolean domestic, int count) {
+		if (domestic) {
+			thisYearStats.domesticDeadHives += count;
+		} else {
+			thisYearStats.feralDeadHives += count;
+		}
+	}
+
+	/**
+	 * Record one hive in the end-of-summer census. The living hives' strengths and
+	 * drones are added to the year's totals in batches, which are complete once
+	 * {@link #endOfSummer()} is called.
+	 * 
+	 * @param domestic     true if the hive is at a domestic site
+	 * @param dead         true if the hive is dead; if so, the remaining arguments
+	 *                     are ignored
+	 * @param queenGene    the strength of the queen's genes
+	 * @param drones       the number of drones that the queen mated with
+	 * @param hiveStrength the gene strength of the hive (see
+	 *                     {@link InheritanceModel#getHiveStrength(double, double[])})
+	 */
+	public void hiveAtEndOfSummer(boolean domestic, boolean dead, double queenGene, int drones,
+			double hiveStrength) {
+		if (domestic) {
+			if (dead) {
+				thisYearStats.domesticDeadHives++;
 			} else {
-				if (h.dead) {
-					thisYearStats.feralEowDeadHives++;
-				} else {
-					thisYearStats.feralEowLiveHives++;
-				}
+				thisYearStats.domesticLiveHives++;
+			}
+		} else {
+			if (dead) {
+				thisYearStats.feralDeadHives++;
+			} else {
+				thisYearStats.feralLiveHives++;
+			}
+		}
+		if (!dead) {
+			CensusBatch batch = censusBatch(domestic);
+			batch.queenGene[batch.n] = queenGene;
+			batch.drones[batch.n] = drones;
+			batch.hiveStrength[batch.n] = hiveStrength;
+			if (++batch.n == CensusBatch.CAPACITY) {
+				flushCensus(domestic);
+			}
+		}
+	}
+
+	/**
+	 * The living hives of the census are added to the strength and drone totals,
+	 * minimums and maximums in batches, by the {@link SeasonKernels}.
+	 */
+	private static class CensusBatch {
+		static final int CAPACITY = 4096;
+
+		final double[] queenGene = new double[CAPACITY];
+		final int[] drones = new int[CAPACITY];
+		final double[] hiveStrength = new double[CAPACITY];
+		int n;
+	}
+
+	private CensusBatch censusBatch(boolean domestic) {
+		if (domesticCensus == null) {
+			kernels = sim != null ? sim.getSeasonKernels() : SeasonKernels.create(props);
+			domesticCensus = new CensusBatch();
+			feralCensus = new CensusBatch();
+		}
+		return domestic ? domesticCensus : feralCensus;
+	}
+
+	/**
+	 * Add the pending living hives of the census to {@link #thisYearStats}.
+	 */
+	private void flushCensus() {
+		if (domesticCensus != null) {
+			flushCensus(true);
+			flushCensus(false);
+		}
+	}
+
+	private void flushCensus(boolean domestic) {
+		CensusBatch batch = censusBatch(domestic);
+		if (batch.n == 0) {
+			return;
+		}
+		PerYearStatistics y = thisYearStats;
+		SeasonKernels.Census c = new SeasonKernels.Census();
+		if (domestic) {
+			c.totalQueenStrength = y.totalDomesticQueenStrength;
+			c.minQueenStrength = y.minDomesticQueenStrength;
+			c.maxQueenStrength = y.maxDomesticQueenStrength;
+			c.totalDrones = y.totalDomesticDrones;
+			c.minDrones = y.minDomesticDrones;
+			c.maxDrones = y.maxDomesticDrones;
+			c.totalHiveStrength = y.totalDomesticHiveStrength;
+			c.minHiveStrength = y.minDomesticHiveStrength;
+			c.maxHiveStrength = y.maxDomesticHiveStrength;
+		} else {
+			c.totalQueenStrength = y.totalFeralQueenStrength;
+			c.minQueenStrength = y.minFeralQueenStrength;
+			c.maxQueenStrength = y.maxFeralQueenStrength;
+			c.totalDrones = y.totalFeralDrones;
+			c.minDrones = y.minFeralDrones;
+			c.maxDrones = y.maxFeralDrones;
+			c.totalHiveStrength = y.totalFeralHiveStrength;
+			c.minHiveStrength = y.minFeralHiveStrength;
+			c.maxHiveStrength = y.maxFeralHiveStrength;
+		}
+		kernels.census(c, batch.queenGene, batch.drones, batch.hiveStrength, batch.n);
+		if (sketchK > 0) {
+			if (domestic) {
+				sketch(batch, y.domesticQueenStrengthSketch, y.domesticHiveStrengthSketch, y.domesticDronesSketch);
+			} else {
+				sketch(batch, y.feralQueenStrengthSketch, y.feralHiveStrengthSketch, y.feralDronesSketch);
+			}
+		}
+		batch.n = 0;
+		if (domestic) {
+			y.totalDomesticQueenStrength = c.totalQueenStrength;
+			y.minDomesticQueenStrength = c.minQueenStrength;
+			y.maxDomesticQueenStrength = c.maxQueenStrength;
+			y.totalDomesticDrones = c.totalDrones;
+			y.minDomesticDrones = c.minDrones;
+			y.maxDomesticDrones = c.maxDrones;
+			y.totalDomesticHiveStrength = c.totalHiveStrength;
+			y.minDomesticHiveStrength = c.minHiveStrength;
+			y.maxDomesticHiveStrength = c.maxHiveStrength;
+		} else {
+			y.totalFeralQueenStrength = c.totalQueenStrength;
+			y.minFeralQueenStrength = c.minQueenStrength;
+			y.maxFeralQueenStrength = c.maxQueenStrength;
+			y.totalFeralDrones = c.totalDrones;
+			y.minFeralDrones = c.minDrones;
+			y.maxFeralDrones = c.maxDrones;
+			y.totalFeralHiveStrength = c.totalHiveStrength;
+			y.minFeralHiveStrength = c.minHiveStrength;
+			y.maxFeralHiveStrength = c.maxHiveStrength;
+		}
+	}
+
+	private static void sketch(CensusBatch batch, QuantileSketch queenStrength, QuantileSketch hiveStrength,
+			QuantileSketch drones) {
+		for (int i = 0; i < batch.n; i++) {
+			queenStrength.update(batch.queenGene[i]);
+			hiveStrength.update(batch.hiveStrength[i]);
+			drones.update(batch.drones[i]);
+		}
+	}
+
+	/** A new year's statistics, with empty sketches if the census has them. */
+	private PerYearStatistics newYearStatistics() {
+		PerYearStatistics y = new PerYearStatistics();
+		if (sketchK > 0) {
+			y.domesticQueenStrengthSketch = new QuantileSketch(sketchK);
+			y.domesticHiveStrengthSketch = new QuantileSketch(sketchK);
+			y.domesticDronesSketch = new QuantileSketch(sketchK);
+			y.feralQueenStrengthSketch = new QuantileSketch(sketchK);
+			y.feralHiveStrengthSketch = new QuantileSketch(sketchK);
+			y.feralDronesSketch = new QuantileSketch(sketchK);
+		}
+		return y;
+	}
+
+	public void hivesAtEndOfWinter(Site site) {
+		for (Hive h : site.hives()) {
+			hiveAtEndOfWinter(site.domestic, h.dead);
+		}
+	}
+
+	/**
+	 * Record the hives of one kind (domestic or feral) in the end-of-winter census.
+	 */
+	public void hivesAtEndOfWinter(boolean domestic, int living, int dead) {
+		if (domestic) {
+			thisYearStats.domesticEowLiveHives += living;
+			thisYearStats.domesticEowDeadHives += dead;
+		} else {
+			thisYearStats.feralEowLiveHives += living;
+			thisYearStats.feralEowDeadHives += dead;
+		}
+	}
+
+	/**
+	 * Record one hive in the end-of-winter census.
+	 */
+	public void hiveAtEndOfWinter(boolean domestic, boolean dead) {
+		if (domestic) {
+			if (dead) {
+				thisYearStats.domesticEowDeadHives++;
+			} else {
+				thisYearStats.domesticEowLiveHives++;
+			}
+		} else {
+			if (dead) {
+				thisYearStats.feralEowDeadHives++;
+			} else {
+				thisYearStats.feralEowLiveHives++;
 			}
 		}
 	}
@@ -344,37 +726,35 @@ public class Statistics implements Serializable {
 	 */
 	public void startSimulation() {
 		try {
-			Properties props = sim.getProperties();
-			do {
-				File f = new File(resultsDir, "properties.txt");
-				PrintStream out = new PrintStream(new FileOutputStream(f));
-				SortedSet<String> keys = new TreeSet<>();
-				for (Object key : props.keySet()) {
-					keys.add(key.toString());
-				}
-				for (String key : keys) {
-					out.print(key);
-					out.print("=");
-					out.println(props.getProperty(key));
-				}
-				out.close();
-			} while (false);
-			do {
-				File f = new File(resultsDir, "sim_start_sites.csv");
-				PrintStream out = new PrintStream(new FileOutputStream(f));
-				out.println(Site.getStateCSVHeader());
-				for (Site s : sim.getGrid()) {
-					out.println(s.getStateCSV());
-				}
-				out.close();
-			} while (false);
+			writeProperties();
+			writeSites("sim_start_sites.csv", siteStates(sim.getGrid()));
 		} catch (Exception e) {
 			System.err.println("Encountered a problem recording the state of the simulation at its start.");
 			System.exit(-1);
 		}
 	}
 
-	public void newHiveCreated(boolean domestic) {
+	/**
+	 * Record the properties in the results directory.
+	 * 
+	 * @throws IOException if the file cannot be written
+	 */
+	public void writeProperties() throws IOException {
+		File f = new File(resultsDir, "properties.txt");
+		PrintStream out = new PrintStream(new FileOutputStream(f));
+		SortedSet<String> keys = new TreeSet<>();
+		for (Object key : props.keySet()) {
+			keys.add(key.toString());
+		}
+		for (String key : keys) {
+			out.print(key);
+			out.print("=");
+			out.println(props.getProperty(key));
+		}
+		out.close();
+	}
+
+	public synchronized void newHiveCreated(boolean domestic) {
 		if (domestic) {
 			thisYearStats.domesticHivesCreated++;
 		} else {
@@ -434,6 +814,22 @@ public class Statistics implements Serializable {
 		}
 	}
 
+	/**
+	 * A swarm that was counted as having found a site (see
+	 * {@link #swarmFoundSite(boolean)}) lost that site to another swarm before it
+	 * could move in. Used by {@link TileWorker}, where the swarm and its
+	 * destination may be simulated by different processes.
+	 */
+	public void swarmLostSite(boolean domestic) {
+		if (domestic) {
+			thisYearStats.domesticSwarmsThatFoundSite--;
+			thisYearStats.domesticSwarmsThatCouldNotFindSite++;
+		} else {
+			thisYearStats.feralSwarmsThatFoundSite--;
+			thisYearStats.feralSwarmsThatCouldNotFindSite++;
+		}
+	}
+
 	public void hiveIsRequeened() {
 		thisYearStats.domesticHiveRequeened++;
 	}
@@ -0,0 +1,266 @@
+package com.github.glfrazier.bee;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Coarse maps of the grid at the end of each summer (the property
+ * <code>tile_aggregates</code>): the grid is divided into square blocks, and
+ * for each block the living and dead hives and the mean and standard deviation
+ * of the living hives' strength are written, for domestic and feral hives
+ * separately. There are <code>tile_aggregates.levels</code> levels, like a
+ * pyramid: the blocks of the first level are <code>tile_aggregates</code>
+ * sites on a side, and each level's blocks are twice the size of the previous
+ * level's. The blocks at the far edges of the grid are truncated if the edge
+ * length is not a multiple of the block size.
+ * <p>
+ * Each level is written to <code>tiles_B.csv</code> in the results directory,
+ * where B is its block size, a year at a time, so that the maps of a long run
+ * can be plotted while it runs. The year is that of the other per-year series:
+ * 0 is the initial grid.
+ * <p>
+ * The first level is computed by worker threads, each of which takes a band of
+ * block rows, while the simulation's thread takes the census (see
+ * {@link BeeHealthSimulation#census(boolean)}); the hives are only read. Each
+ * block is summed by one thread, in row-major order, so the results do not
+ * depend upon the number of threads. The higher levels are summed from the
+ * blocks of the level below.
+ *
+ * @author Greg Frazier
+ *
+ */
+class TileAggregates {
+
+	private final BeeHealthSimulation sim;
+	private final int edgeLength;
+	private final Level[] levels;
+	private final PrintStream[] out;
+
+	/** The census year of the next aggregation. */
+	private int year = 0;
+
+	private Thread[] workers;
+
+	private TileAggregates(BeeHealthSimulation sim, int edgeLength, int block, int numberOfLevels, File resultsDir)
+			throws IOException {
+		this.sim = sim;
+		this.edgeLength = edgeLength;
+		levels = new Level[numberOfLevels];
+		out = new PrintStream[numberOfLevels];
+		int blocks = (edgeLength + block - 1) / block;
+		for (int l = 0; l < numberOfLevels; l++) {
+			levels[l] = new Level(block, blocks);
+			out[l] = new PrintStream(
+					new BufferedOutputStream(new FileOutputStream(new File(resultsDir, "tiles_" + block + ".csv"))));
+			out[l].println(getCSVHeader());
+			block *= 2;
+			blocks = (blocks + 1) / 2;
+		}
+	}
+
+	/**
+	 * Create the aggregates specified by the properties 'tile_aggregates' (the
+	 * block size of the first level; 0, the default, disables them) and
+	 * 'tile_aggregates.levels' (default 3).
+	 *
+	 * @param resultsDir the directory in which to write the aggregates; if
+	 *                   <code>null</code>, there are none
+	 * @return the aggregates, or <code>null</code> if they are disabled
+	 */
+	static TileAggregates create(Properties props, BeeHealthSimulation sim, File resultsDir) {
+		int block = 0;
+		if (props.containsKey("tile_aggregates")) {
+			block = BeeHealthSimulation.getIntProperty(props, "tile_aggregates");
+		}
+		if (block == 0 || resultsDir == null) {
+			return null;
+		}
+		int edgeLength = BeeHealthSimulation.getIntProperty(props, "edge_length");
+		if (block < 0 || block > edgeLength) {
+			System.err.println("'tile_aggregates' must be between 0 and edge_length. You specified " + block);
+			System.exit(-1);
+		}
+		int numberOfLevels = 3;
+		if (props.containsKey("tile_aggregates.levels")) {
+			numberOfLevels = BeeHealthSimulation.getIntProperty(props, "tile_aggregates.levels");
+		}
+		if (numberOfLevels < 1) {
+			System.err.println("'tile_aggregates.levels' must be at least 1. You specified " + numberOfLevels);
+			System.exit(-1);
+		}
+		try {
+			return new TileAggregates(sim, edgeLength, block, numberOfLevels, resultsDir);
+		} catch (IOException e) {
+			System.err.println("Failed to create the tile aggregates: " + e);
+			System.exit(-1);
+		}
+		// unreachable code
+		return null;
+	}
+
+	public static String getCSVHeader() {
+		return "year,block_x,block_y,domestic_live,domestic_dead,domestic_mean_strength,domestic_sd_strength,"
+				+ "feral_live,feral_dead,feral_mean_strength,feral_sd_strength";
+	}
+
+	/**
+	 * Start the worker threads that compute the first level. Returns at once; see
+	 * {@link #finish()}.
+	 */
+	void start(int numberOfThreads) {
+		final Level first = levels[0];
+		final int threads = Math.max(1, Math.min(numberOfThreads, first.blocks));
+		workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int TID = t;
+			final int from = first.blocks * t / threads;
+			final int to = first.blocks * (t + 1) / threads;
+			workers[TID] = new Thread("Tile Thread " + TID) {
+				public void run() {
+					Instrumentation.ThreadSample sample = sim.getInstrumentation().startWorker("tiles-" + TID);
+					aggregate(first, from, to);
+					sim.getInstrumentation().endWorker(sample);
+				}
+			};
+			workers[TID].start();
+		}
+	}
+
+	/**
+	 * Wait for the worker threads, sum the higher levels and write this year's
+	 * blocks.
+	 */
+	void finish() {
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
+		workers = null;
+		for (int l = 1; l < levels.length; l++) {
+			levels[l].sumOf(levels[l - 1]);
+		}
+		for (int l = 0; l < levels.length; l++) {
+			levels[l].write(year, out[l]);
+		}
+		year++;
+	}
+
+	/** Close the files. */
+	void close() throws IOException {
+		for (PrintStream o : out) {
+			o.close();
+			if (o.checkError()) {
+				throw new IOException("Failed to write the tile aggregates.");
+			}
+		}
+	}
+
+	/** Sum the sites of the block rows <code>[from, to)</code> of the first level. */
+	private void aggregate(Level level, int from, int to) {
+		Grid grid = sim.getGrid();
+		int xEnd = Math.min(edgeLength, to * level.size);
+		for (int x = from * level.size; x < xEnd; x++) {
+			int row = (x / level.size) * level.blocks;
+			if (x % level.size == 0) {
+				level.clear(row, row + level.blocks);
+			}
+			for (int y = 0; y < edgeLength; y++) {
+				Site site = grid.getSite(x, y);
+				int b = row + y / level.size;
+				for (Hive h : site.hives()) {
+					level.add(b, site.domestic, h.dead, h.dead ? 0 : h.getHiveStrength());
+				}
+			}
+		}
+	}
+
+	/**
+	 * The blocks of one level, in row-major order (block (bx, by) is at index
+	 * <code>bx * blocks + by</code>), with the domestic hives at index 0 and the
+	 * feral at index 1 of each array.
+	 */
+	private static class Level {
+		/** The size of a block, and the number of blocks on a side. */
+		final int size;
+		final int blocks;
+		final long[][] live;
+		final long[][] dead;
+		final double[][] sum;
+		final double[][] sumOfSquares;
+
+		Level(int size, int blocks) {
+			this.size = size;
+			this.blocks = blocks;
+			live = new long[2][blocks * blocks];
+			dead = new long[2][blocks * blocks];
+			sum = new double[2][blocks * blocks];
+			sumOfSquares = new double[2][blocks * blocks];
+		}
+
+		void clear(int from, int to) {
+			for (int k = 0; k < 2; k++) {
+				Arrays.fill(live[k], from, to, 0);
+				Arrays.fill(dead[k], from, to, 0);
+				Arrays.fill(sum[k], from, to, 0);
+				Arrays.fill(sumOfSquares[k], from, to, 0);
+			}
+		}
+
+		void add(int b, boolean domestic, boolean isDead, double strength) {
+			int k = domestic ? 0 : 1;
+			if (isDead) {
+				dead[k][b]++;
+			} else {
+				live[k][b]++;
+				sum[k][b] += strength;
+				sumOfSquares[k][b] += strength * strength;
+			}
+		}
+
+		/** Set each block to the sum of the (up to) four blocks of the level below that it covers. */
+		void sumOf(Level below) {
+			clear(0, blocks * blocks);
+			for (int bx = 0; bx < below.blocks; bx++) {
+				for (int by = 0; by < below.blocks; by++) {
+					int from = bx * below.blocks + by;
+					int to = (bx / 2) * blocks + by / 2;
+					for (int k = 0; k < 2; k++) {
+						live[k][to] += below.live[k][from];
+						dead[k][to] += below.dead[k][from];
+						sum[k][to] += below.sum[k][from];
+						sumOfSquares[k][to] += below.sumOfSquares[k][from];
+					}
+				}
+			}
+		}
+
+		void write(int year, PrintStream out) {
+			StringBuilder line = new StringBuilder();
+			for (int bx = 0; bx < blocks; bx++) {
+				for (int by = 0; by < blocks; by++) {
+					int b = bx * blocks + by;
+					line.setLength(0);
+					line.append(year).append(',').append(bx).append(',').append(by);
+					for (int k = 0; k < 2; k++) {
+						long n = live[k][b];
+						double mean = n == 0 ? 0 : sum[k][b] / n;
+						// The population variance; rounding may make it slightly negative
+						double variance = n == 0 ? 0 : Math.max(0, sumOfSquares[k][b] / n - mean * mean);
+						line.append(',').append(n).append(',').append(dead[k][b]).append(',').append(mean).append(',')
+								.append(Math.sqrt(variance));
+					}
+					out.println(line);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,609 @@
+package com.github.glfrazier.bee;
+
+import static com.github.glfrazier.bee.BeeHealthSimulation.LOGGER;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Level;
+
+/**
+ * One process of a {@link DistributedSimulation}. The worker owns a band of
+ * rows of the grid (its tile) and simulates only the sites in that band. It
+ * constructs and initializes only the sites of its tile and of its halo, each
+ * from the seed that a single-process simulation would give it, so that every
+ * worker agrees on the initial state without holding the whole grid (see
+ * {@link Grid#Grid(int, BeeHealthSimulation, Random, boolean[])}).
+ *
+ * Each simulated year is a fixed sequence of phases separated by message
+ * exchanges, which the coordinator relays ({@link #RELAYS_PER_YEAR} of them):
+ * <ol>
+ * <li>over-winter the tile, then send the halo rows to the workers that need
+ * them;</li>
+ * <li>broadcast which queen breeder hives in the tile are alive;</li>
+ * <li>decide which domestic hives are replaced and which breeder hive each
+ * replacement queen is bought from, and send the purchase orders to the
+ * breeders' owners;</li>
+ * <li>raise and mate the ordered queens, and send them back;</li>
+ * <li>install the purchased queens, then send the (changed) halo rows;</li>
+ * <li>swarm, sending swarms whose destination is in another tile to its owner,
+ * and then move the received swarms into their destinations.</li>
+ * </ol>
+ *
+ * @author Greg Frazier
+ *
+ */
+public class TileWorker implements Grid.SwarmCourier {
+
+	/** The number of message exchanges in each simulated year. */
+	static final int RELAYS_PER_YEAR = 6;
+
+	private final DistributedSimulation.Connection coordinator;
+	private final int index;
+	private final int numberOfWorkers;
+	private final Properties props;
+
+	private BeeHealthSimulation sim;
+	private Grid grid;
+	private Statistics stats;
+	private int edgeLength;
+	private int haloWidth;
+
+	/** This worker's tile is the rows [rowStart..rowEnd). */
+	private int rowStart;
+	private int rowEnd;
+
+	/**
+	 * Every queen breeder site in the grid, in the order that every worker agrees
+	 * on. The breeders outside the halo are stand-ins, with no hives.
+	 */
+	private List<Site> allQueenBreeders;
+	/** For each queen breeder, which of its hives are alive (after over-wintering). */
+	private boolean[][] queenBreederHiveAlive;
+	/** For each queen breeder in this tile, its hives as of the end of winter. */
+	private List<List<Hive>> queenBreederHives = new ArrayList<>();
+
+	/** The number of live queen breeder hives in this tile, as last reported. */
+	private int liveQueenBreederHives;
+
+	/** Randomizes the order in which this tile's hives swarm. */
+	private Random swarmOrderRandom;
+
+	/** Swarms leaving this tile, by destination worker. */
+	private SwarmArrivals[] outgoingSwarms;
+
+	TileWorker(DistributedSimulation.Connection coordinator, int index, int numberOfWorkers, Properties props) {
+		this.coordinator = coordinator;
+		this.index = index;
+		this.numberOfWorkers = numberOfWorkers;
+		this.props = props;
+	}
+
+	/** The worker that owns row <code>x</code>. */
+	private int ownerOf(int x) {
+		// The inverse of rowStartOf
+		int w = (int) (((long) (x + 1) * numberOfWorkers - 1) / edgeLength);
+		while (rowStartOf(w) > x) {
+			w--;
+		}
+		while (rowStartOf(w + 1) <= x) {
+			w++;
+		}
+		return w;
+	}
+
+	private int rowStartOf(int worker) {
+		return (int) ((long) worker * edgeLength / numberOfWorkers);
+	}
+
+	private boolean owns(Site site) {
+		return site.x >= rowStart && site.x < rowEnd;
+	}
+
+	/** The distance, around the torus, from row <code>x</code> to the tile of <code>worker</code>. */
+	private int rowDistanceToTile(int x, int worker) {
+		int start = rowStartOf(worker);
+		int end = rowStartOf(worker + 1);
+		if (x >= start && x < end) {
+			return 0;
+		}
+		int toStart = Math.floorMod(start - x, edgeLength);
+		int fromEnd = Math.floorMod(x - (end - 1), edgeLength);
+		return Math.min(toStart, fromEnd);
+	}
+
+	private void initialize() throws IOException {
+		edgeLength = BeeHealthSimulation.getIntProperty(props, "edge_length");
+		rowStart = rowStartOf(index);
+		rowEnd = rowStartOf(index + 1);
+		haloWidth = Math.max(
+				BeeHealthSimulation.getIntProperty(props, "mating_flight_distance")
+						+ BeeHealthSimulation.getIntProperty(props, "drone_participation_distance"),
+				BeeHealthSimulation.getIntProperty(props, "swarm_distance"));
+		boolean[] rows = new boolean[edgeLength];
+		for (int x = 0; x < edgeLength; x++) {
+			rows[x] = rowDistanceToTile(x, index) <= haloWidth;
+		}
+		sim = new BeeHealthSimulation();
+		sim.initialize(props, false, rows);
+		grid = sim.getGrid();
+		stats = sim.getSimulationStatistics();
+		swarmOrderRandom = new Random(Long.parseLong(props.getProperty("seed")) * 31 + index);
+
+		// The halo's hives were counted too; count only this tile's hives.
+		stats.takeYearStatistics();
+		for (int x = rowStart; x < rowEnd; x++) {
+			for (int y = 0; y < edgeLength; y++) {
+				Site site = grid.getSite(x, y);
+				for (int i = 0; i < site.hiveCount(); i++) {
+					stats.newHiveCreated(site.domestic);
+				}
+			}
+		}
+		// The grid's own list of queen breeders is used to protect the last living
+		// queen breeder hive; it must hold only this tile's breeders.
+		allQueenBreeders = new ArrayList<>(grid.queenBreeders);
+		List<Site> localQueenBreeders = new ArrayList<>();
+		for (Site qb : allQueenBreeders) {
+			if (owns(qb)) {
+				localQueenBreeders.add(qb);
+			}
+		}
+		grid.queenBreeders = localQueenBreeders;
+		queenBreederHiveAlive = new boolean[allQueenBreeders.size()][];
+		grid.swarmCourier = this;
+		LOGGER.fine("Worker " + index + " owns rows [" + rowStart + ".." + rowEnd + ")");
+	}
+
+	/**
+	 * Run the simulation, in lock-step with the coordinator.
+	 */
+	public void run() throws IOException {
+		initialize();
+		for (Site site : tileSites()) {
+			stats.hivesAtEndOfSummer(site);
+		}
+		reportYear();
+		coordinator.send(siteStates());
+		receiveQueenBreederCount();
+
+		int simLength = sim.getIntProperty("sim_length");
+		for (int year = 0; year < simLength; year++) {
+			process();
+			reportYear();
+			receiveQueenBreederCount();
+		}
+		coordinator.send(siteStates());
+	}
+
+	private void process() throws IOException {
+		List<Site> tile = tileSites();
+		sim.overWinter(tile);
+		for (Site site : tile) {
+			stats.hivesAtEndOfWinter(site);
+		}
+		stats.endOfWinter();
+		applyHalo(relay(haloOutbox()));
+
+		// Which queen breeder hives can sell queens this year?
+		exchangeQueenBreederLiveness();
+
+		// Demand: decide which hives are replaced, and who supplies each queen
+		PurchaseOrders[] orders = new PurchaseOrders[numberOfWorkers];
+		List<List<PendingPurchase>> pending = new ArrayList<>();
+		for (int w = 0; w < numberOfWorkers; w++) {
+			orders[w] = new PurchaseOrders();
+			pending.add(new ArrayList<>());
+		}
+		for (Site site : tile) {
+			if (!site.domestic) {
+				continue;
+			}
+			for (Hive hive : hivesToReplace(site)) {
+				// The same draws, in the same order, as Grid.purchaseMatedQueen
+				int[] breederHive = randomBreedingHive(site.random);
+				long seed = site.random.nextLong();
+				int owner = ownerOf(allQueenBreeders.get(breederHive[0]).x);
+				orders[owner].add(breederHive[0], breederHive[1]);
+				pending.get(owner).add(new PendingPurchase(site, hive, seed));
+			}
+		}
+		Object[] incomingOrders = relay(orders);
+
+		// Fulfillment: raise and mate the queens that were ordered from this tile
+		MatedQueens[] queens = new MatedQueens[numberOfWorkers];
+		for (int src = 0; src < numberOfWorkers; src++) {
+			PurchaseOrders o = (PurchaseOrders) incomingOrders[src];
+			queens[src] = new MatedQueens(o.size);
+			for (int i = 0; i < o.size; i++) {
+				Hive motherHive = queenBreederHives.get(o.breeder[i]).get(o.hive[i]);
+				double queen = motherHive.getBabyQueen();
+				double[] drones = motherHive.getSite().matingFlight(motherHive);
+				if (drones == null) {
+					// As Grid.fulfillOrder does, use the mother hive's drones; logged rather than
+					// printed, as every worker process would print it
+					LOGGER.fine("Using the mother-hive's drones.");
+					drones = motherHive.droneGenes;
+				}
+				queens[src].queen[i] = queen;
+				queens[src].drones[i] = drones;
+			}
+		}
+		Object[] deliveries = relay(queens);
+
+		// Install the purchased queens
+		Map<Site, QueenReplacements> replacements = new LinkedHashMap<>();
+		for (int w = 0; w < numberOfWorkers; w++) {
+			MatedQueens q = (MatedQueens) deliveries[w];
+			List<PendingPurchase> p = pending.get(w);
+			for (int i = 0; i < p.size(); i++) {
+				PendingPurchase purchase = p.get(i);
+				QueenReplacements r = replacements.computeIfAbsent(purchase.site, s -> new QueenReplacements());
+				int j = r.add(purchase.hive);
+				r.queen[j] = q.queen[i];
+				r.drones[j] = q.drones[i];
+				r.seed[j] = purchase.seed;
+			}
+		}
+		for (Map.Entry<Site, QueenReplacements> entry : replacements.entrySet()) {
+			entry.getKey().replaceHives(entry.getValue());
+		}
+		applyHalo(relay(haloOutbox()));
+
+		// Swarm
+		List<Hive> hiveList = new ArrayList<>();
+		for (Site site : tile) {
+			hiveList.addAll(Arrays.asList(site.hives()));
+		}
+		Collections.shuffle(hiveList, swarmOrderRandom);
+		outgoingSwarms = new SwarmArrivals[numberOfWorkers];
+		for (int w = 0; w < numberOfWorkers; w++) {
+			outgoingSwarms[w] = new SwarmArrivals();
+		}
+		for (Hive h : hiveList) {
+			h.swarmIfAppropriate();
+		}
+		Object[] arrivals = relay(outgoingSwarms);
+		outgoingSwarms = null;
+		for (int src = 0; src < numberOfWorkers; src++) {
+			SwarmArrivals a = (SwarmArrivals) arrivals[src];
+			for (int i = 0; i < a.size; i++) {
+				Hive destination = grid.getSite(a.x[i], a.y[i]).hives()[0];
+				if (destination.dead) {
+					// Lineage is not tracked in a distributed simulation
+					destination.receiveSwarm(a.queen[i], a.drones[i], QueenLineage.FERAL_FOUNDER, 0);
+				} else {
+					// A swarm from this tile (or from another tile) got here first
+					stats.swarmLostSite(a.sourceDomestic[i]);
+				}
+			}
+		}
+		for (Site site : tile) {
+			stats.hivesAtEndOfSummer(site);
+		}
+	}
+
+	/**
+	 * The hives at a (domestic) site that are dead or are being requeened, in the
+	 * order that they are held by the site. Unlike
+	 * {@link Site#replaceDeadHivesOrRequeenLiveHives(QueenReplacements)}, every
+	 * hive is examined before any queen is ordered, because the orders are
+	 * fulfilled by other workers; so the site's draws are not interleaved with the
+	 * breeders' as they are in a single process.
+	 */
+	private static List<Hive> hivesToReplace(Site site) {
+		List<Hive> result = new ArrayList<>();
+		for (Hive hive : site.syncCopyHives()) {
+			// If the hive is dead or being requeened, replace it
+			if (hive.dead || hive.requeen()) {
+				result.add(hive);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public boolean forward(Hive source, Hive destination, double queen, double[] drones) {
+		Site site = destination.getSite();
+		if (owns(site)) {
+			return false;
+		}
+		outgoingSwarms[ownerOf(site.x)].add(site.x, site.y, queen, drones, source.getSite().domestic);
+		// Keep this worker's copy current, so that no other swarm from this tile
+		// claims the same hive.
+		destination.receiveSwarm(queen, drones, QueenLineage.FERAL_FOUNDER, 0);
+		return true;
+	}
+
+	/**
+	 * Select a living queen breeder hive. This follows
+	 * <code>Grid.randomBreedingHive</code> exactly, but uses the liveness table
+	 * rather than the hives themselves.
+	 *
+	 * @return the index of the queen breeder and the index of the hive at that
+	 *         breeder
+	 */
+	private int[] randomBreedingHive(Random siteRandom) {
+		int lastSiteIndex = siteRandom.nextInt(allQueenBreeders.size());
+		for (int i = lastSiteIndex + 1; true; i++) {
+			if (i == allQueenBreeders.size()) {
+				i = 0;
+			}
+			boolean[] alive = queenBreederHiveAlive[i];
+			int lastHiveIndex = siteRandom.nextInt(alive.length);
+			for (int j = lastHiveIndex + 1; true; j++) {
+				if (j == alive.length) {
+					j = 0;
+				}
+				if (alive[j]) {
+					return new int[] { i, j };
+				}
+				if (j == lastHiveIndex) {
+					break;
+				}
+			}
+			if (i == lastSiteIndex) {
+				break;
+			}
+		}
+		LOGGER.severe("EVERY Queen-Breeder hive is dead.");
+		System.exit(-1);
+		// unreachable code
+		return null;
+	}
+
+	private void exchangeQueenBreederLiveness() throws IOException {
+		queenBreederHives = new ArrayList<>(Collections.nCopies(allQueenBreeders.size(), (List<Hive>) null));
+		List<Integer> local = new ArrayList<>();
+		for (int i = 0; i < allQueenBreeders.size(); i++) {
+			if (owns(allQueenBreeders.get(i))) {
+				local.add(i);
+			}
+		}
+		QueenBreederLiveness liveness = new QueenBreederLiveness(local.size());
+		for (int k = 0; k < local.size(); k++) {
+			int i = local.get(k);
+			List<Hive> hives = allQueenBreeders.get(i).syncCopyHives();
+			queenBreederHives.set(i, hives);
+			liveness.breeder[k] = i;
+			liveness.alive[k] = new boolean[hives.size()];
+			for (int j = 0; j < liveness.alive[k].length; j++) {
+				liveness.alive[k][j] = !hives.get(j).dead;
+			}
+		}
+		Object[] outbox = new Object[numberOfWorkers];
+		Arrays.fill(outbox, liveness);
+		for (Object o : relay(outbox)) {
+			QueenBreederLiveness l = (QueenBreederLiveness) o;
+			for (int k = 0; k < l.breeder.length; k++) {
+				queenBreederHiveAlive[l.breeder[k]] = l.alive[k];
+			}
+		}
+	}
+
+	/** The rows of this tile that each other worker holds in its halo. */
+	private HaloRows[] haloOutbox() {
+		HaloRows[] outbox = new HaloRows[numberOfWorkers];
+		for (int w = 0; w < numberOfWorkers; w++) {
+			if (w == index) {
+				continue;
+			}
+			List<Integer> rows = new ArrayList<>();
+			for (int x = rowStart; x < rowEnd; x++) {
+				if (rowDistanceToTile(x, w) <= haloWidth) {
+					rows.add(x);
+				}
+			}
+			if (rows.isEmpty()) {
+				continue;
+			}
+			List<Hive> hives = new ArrayList<>();
+			HaloRows halo = new HaloRows();
+			halo.rows = new int[rows.size()];
+			for (int r = 0; r < rows.size(); r++) {
+				halo.rows[r] = rows.get(r);
+				for (int y = 0; y < edgeLength; y++) {
+					hives.addAll(Arrays.asList(grid.getSite(rows.get(r), y).hives()));
+				}
+			}
+			halo.dead = new boolean[hives.size()];
+			halo.queen = new double[hives.size()];
+			for (int i = 0; i < hives.size(); i++) {
+				halo.dead[i] = hives.get(i).dead;
+				halo.queen[i] = hives.get(i).queenGene;
+			}
+			outbox[w] = halo;
+		}
+		return outbox;
+	}
+
+	/**
+	 * Update this worker's copies of the halo sites. Only the state that
+	 * neighbors read (whether a hive is dead, and its queen's genes, which are
+	 * also its drones' genes) is copied.
+	 */
+	private void applyHalo(Object[] inbox) {
+		for (Object o : inbox) {
+			if (o == null) {
+				continue;
+			}
+			HaloRows halo = (HaloRows) o;
+			int i = 0;
+			for (int x : halo.rows) {
+				for (int y = 0; y < edgeLength; y++) {
+					Site site = grid.getSite(x, y);
+					for (Hive h : site.hives()) {
+						h.dead = halo.dead[i];
+						h.queenGene = halo.queen[i];
+						i++;
+					}
+					site.changed();
+				}
+			}
+		}
+	}
+
+	private Object[] relay(Object[] outbox) throws IOException {
+		coordinator.send(outbox);
+		return (Object[]) coordinator.receive();
+	}
+
+	private void reportYear() throws IOException {
+		int liveQueenBreederHives = 0;
+		for (Site qb : grid.queenBreeders) {
+			for (Hive h : qb.hives()) {
+				if (!h.dead) {
+					liveQueenBreederHives++;
+				}
+			}
+		}
+		coordinator.send(new DistributedSimulation.YearReport(stats.takeYearStatistics(), liveQueenBreederHives));
+		this.liveQueenBreederHives = liveQueenBreederHives;
+	}
+
+	private void receiveQueenBreederCount() throws IOException {
+		int total = (Integer) coordinator.receive();
+		grid.externalLiveQueenBreederHives = total - liveQueenBreederHives;
+	}
+
+	private List<Site> tileSites() {
+		List<Site> result = new ArrayList<>((rowEnd - rowStart) * edgeLength);
+		for (int x = rowStart; x < rowEnd; x++) {
+			for (int y = 0; y < edgeLength; y++) {
+				result.add(grid.getSite(x, y));
+			}
+		}
+		return result;
+	}
+
+	private String[] siteStates() {
+		List<Site> tile = tileSites();
+		String[] result = new String[tile.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = tile.get(i).getStateCSV();
+		}
+		return result;
+	}
+
+	private static class PendingPurchase {
+		final Site site;
+		final Hive hive;
+		final long seed;
+
+		PendingPurchase(Site site, Hive hive, long seed) {
+			this.site = site;
+			this.hive = hive;
+			this.seed = seed;
+		}
+	}
+
+	/** Queens ordered from one worker's queen breeders. */
+	private static class PurchaseOrders implements Serializable {
+		private static final long serialVersionUID = 1L;
+		int size = 0;
+		int[] breeder = new int[16];
+		int[] hive = new int[16];
+
+		void add(int b, int h) {
+			if (size == breeder.length) {
+				breeder = Arrays.copyOf(breeder, 2 * size);
+				hive = Arrays.copyOf(hive, 2 * size);
+			}
+			breeder[size] = b;
+			hive[size] = h;
+			size++;
+		}
+	}
+
+	/** The mated queens that fill a {@link PurchaseOrders}, in the same order. */
+	private static class MatedQueens implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final double[] queen;
+		final double[][] drones;
+
+		MatedQueens(int size) {
+			queen = new double[size];
+			drones = new double[size][];
+		}
+	}
+
+	private static class QueenBreederLiveness implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final int[] breeder;
+		final boolean[][] alive;
+
+		QueenBreederLiveness(int size) {
+			breeder = new int[size];
+			alive = new boolean[size][];
+		}
+	}
+
+	private static class HaloRows implements Serializable {
+		private static final long serialVersionUID = 1L;
+		int[] rows;
+		boolean[] dead;
+		double[] queen;
+	}
+
+	private static class SwarmArrivals implements Serializable {
+		private static final long serialVersionUID = 1L;
+		int size = 0;
+		int[] x = new int[16];
+		int[] y = new int[16];
+		double[] queen = new double[16];
+		double[][] drones = new double[16][];
+		boolean[] sourceDomestic = new boolean[16];
+
+		void add(int destX, int destY, double swarmQueen, double[] swarmDrones, boolean domestic) {
+			if (size == x.length) {
+				x = Arrays.copyOf(x, 2 * size);
+				y = Arrays.copyOf(y, 2 * size);
+				queen = Arrays.copyOf(queen, 2 * size);
+				drones = Arrays.copyOf(drones, 2 * size);
+				sourceDomestic = Arrays.copyOf(sourceDomestic, 2 * size);
+			}
+			x[size] = destX;
+			y[size] = destY;
+			queen[size] = swarmQueen;
+			drones[size] = swarmDrones;
+			sourceDomestic[size] = domestic;
+			size++;
+		}
+	}
+
+	/**
+	 * Start a worker. It connects to the coordinator, which supplies its tile and
+	 * the simulation's properties.
+	 *
+	 * @param args the coordinator's host and port
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: TileWorker <coordinator host> <coordinator port>");
+			System.exit(-1);
+		}
+		try {
+			DistributedSimulation.Connection coordinator = new DistributedSimulation.Connection(
+					new Socket(args[0], Integer.parseInt(args[1])));
+			int index = (Integer) coordinator.receive();
+			int numberOfWorkers = (Integer) coordinator.receive();
+			Properties props = (Properties) coordinator.receive();
+			if (props.containsKey("logging")) {
+				LOGGER.setLevel(Level.parse(props.getProperty("logging")));
+			}
+			new TileWorker(coordinator, index, numberOfWorkers, props).run();
+			coordinator.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(-1);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.github.glfrazier.bee;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The {@link SeasonKernels}, implemented with the Vector API
+ * (<code>jdk.incubator.vector</code>). The JVM must be started with
+ * <code>--add-modules jdk.incubator.vector</code>; otherwise this class cannot
+ * be loaded, and the simulation uses the scalar kernels.
+ *
+ * The winter comparison, the minimums and maximums, and the sum of the drone
+ * counts (an int, so the order of the additions does not matter) are computed
+ * a vector at a time. The gene strengths (which are never NaN) are summed in
+ * order, as the scalar kernels do.
+ *
+ * @author Greg Frazier
+ *
+ */
+class VectorSeasonKernels extends SeasonKernels {
+
+	private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+	@Override
+	void survive(double[] base, boolean[] fed, double f, double[] draw, boolean[] survived, int n) {
+		int bound = DOUBLES.loopBound(n);
+		int i = 0;
+		for (; i < bound; i += DOUBLES.length()) {
+			DoubleVector p = DoubleVector.fromArray(DOUBLES, base, i);
+			VectorMask<Double> isFed = VectorMask.fromArray(DOUBLES, fed, i);
+			p = p.blend(p.add(p.broadcast(1.0).sub(p).mul(f)), isFed);
+			DoubleVector.fromArray(DOUBLES, draw, i).lt(p).intoArray(survived, i);
+		}
+		survive(base, fed, f, draw, survived, i, n);
+	}
+
+	@Override
+	void census(Census c, double[] queenGene, int[] drones, double[] hiveStrength, int n) {
+		int bound = DOUBLES.loopBound(n);
+		DoubleVector minQueen = DoubleVector.broadcast(DOUBLES, c.minQueenStrength);
+		DoubleVector maxQueen = DoubleVector.broadcast(DOUBLES, c.maxQueenStrength);
+		DoubleVector minHive = DoubleVector.broadcast(DOUBLES, c.minHiveStrength);
+		DoubleVector maxHive = DoubleVector.broadcast(DOUBLES, c.maxHiveStrength);
+		int i = 0;
+		for (; i < bound; i += DOUBLES.length()) {
+			DoubleVector q = DoubleVector.fromArray(DOUBLES, queenGene, i);
+			minQueen = minQueen.min(q);
+			maxQueen = maxQueen.max(q);
+			DoubleVector h = DoubleVector.fromArray(DOUBLES, hiveStrength, i);
+			minHive = minHive.min(h);
+			maxHive = maxHive.max(h);
+		}
+		c.minQueenStrength = minQueen.reduceLanes(VectorOperators.MIN);
+		c.maxQueenStrength = maxQueen.reduceLanes(VectorOperators.MAX);
+		c.minHiveStrength = minHive.reduceLanes(VectorOperators.MIN);
+		c.maxHiveStrength = maxHive.reduceLanes(VectorOperators.MAX);
+		int doublesDone = i;
+
+		bound = INTS.loopBound(n);
+		IntVector total = IntVector.zero(INTS);
+		IntVector minDrones = IntVector.broadcast(INTS, c.minDrones);
+		IntVector maxDrones = IntVector.broadcast(INTS, c.maxDrones);
+		for (i = 0; i < bound; i += INTS.length()) {
+			IntVector d = IntVector.fromArray(INTS, drones, i);
+			total = total.add(d);
+			minDrones = minDrones.min(d);
+			maxDrones = maxDrones.max(d);
+		}
+		c.totalDrones += total.reduceLanes(VectorOperators.ADD);
+		c.minDrones = minDrones.reduceLanes(VectorOperators.MIN);
+		c.maxDrones = maxDrones.reduceLanes(VectorOperators.MAX);
+		int intsDone = i;
+
+		// The tails. The scalar census of the elements that both loops covered
+		// would count their drones twice, so finish the shorter loop first.
+		if (doublesDone <= intsDone) {
+			census(c, queenGene, drones, hiveStrength, intsDone, n);
+			tailDoubles(c, queenGene, hiveStrength, doublesDone, intsDone);
+		} else {
+			census(c, queenGene, drones, hiveStrength, doublesDone, n);
+			tailInts(c, drones, intsDone, doublesDone);
+		}
+		c.totalQueenStrength = sum(c.totalQueenStrength, queenGene, n);
+		c.totalHiveStrength = sum(c.totalHiveStrength, hiveStrength, n);
+	}
+
+	private static void tailDoubles(Census c, double[] queenGene, double[] hiveStrength, int from, int to) {
+		for (int i = from; i < to; i++) {
+			c.minQueenStrength = Math.min(c.minQueenStrength, queenGene[i]);
+			c.maxQueenStrength = Math.max(c.maxQueenStrength, queenGene[i]);
+			c.minHiveStrength = Math.min(c.minHiveStrength, hiveStrength[i]);
+			c.maxHiveStrength = Math.max(c.maxHiveStrength, hiveStrength[i]);
+		}
+	}
+
+	private static void tailInts(Census c, int[] drones, int from, int to) {
+		for (int i = from; i < to; i++) {
+			c.totalDrones += drones[i];
+			c.minDrones = Math.min(c.minDrones, drones[i]);
+			c.maxDrones = Math.max(c.maxDrones, drones[i]);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.github.glfrazier.bee;
+
+/**
+ * Over-winters hives in batches. The living hives are gathered, in the order in
+ * which the sites are visited, {@link #CAPACITY} at a time, along with their
+ * strengths and their draws from their own random number generators (see
+ * {@link Hive#winterDraw()}). The {@link HiveSurvivalProbabilityModel} computes
+ * the survival probabilities of the whole batch in one call, the
+ * {@link SeasonKernels} compare them with the draws, and then each hive, in
+ * order, lives or dies. As each hive's draw is unchanged, the results are
+ * exactly those of over-wintering the hives one at a time.
+ *
+ * A batch is used by one thread at a time; each {@link TileWorker} has its own.
+ *
+ * @author Greg Frazier
+ *
+ */
+class WinterBatch {
+
+	static final int CAPACITY = 4096;
+
+	private final HiveSurvivalProbabilityModel model;
+	private final SeasonKernels kernels;
+	private final boolean feralIsFed;
+
+	private final Hive[] hives = new Hive[CAPACITY];
+	private final double[] strength = new double[CAPACITY];
+	private final boolean[] fed = new boolean[CAPACITY];
+	private final double[] draw = new double[CAPACITY];
+	private final double[] probability = new double[CAPACITY];
+	private final boolean[] survived = new boolean[CAPACITY];
+	private int n;
+
+	WinterBatch(BeeHealthSimulation sim) {
+		this.model = sim.getSurvivalModel();
+		this.kernels = sim.getSeasonKernels();
+		this.feralIsFed = sim.feralUsesDomesticSurvivalModel;
+	}
+
+	/**
+	 * Over-winter every hive at the sites.
+	 */
+	void overWinter(Iterable<Site> sites) {
+		for (Site site : sites) {
+			site.overWinter(this);
+		}
+		flush();
+	}
+
+	/**
+	 * Add a living hive to the batch, over-wintering the batch if it is full.
+	 */
+	void add(Hive hive) {
+		hives[n] = hive;
+		strength[n] = hive.getHiveStrength();
+		// domestic hives are fed, so probability of survival is boosted.
+		fed[n] = hive.site.domestic || feralIsFed;
+		draw[n] = hive.winterDraw();
+		if (++n == CAPACITY) {
+			flush();
+		}
+	}
+
+	private void flush() {
+		if (model instanceof HiveSurvivalProbabilityModel.CurveModel) {
+			// The feeding adjustment of a CurveModel cannot be overridden, so the kernels
+			// apply it
+			((HiveSurvivalProbabilityModel.CurveModel) model).baseProbabilities(strength, probability, n);
+			kernels.survive(probability, fed, model.F, draw, survived, n);
+		} else {
+			// The model applies the feeding adjustment itself
+			model.survivalProbabilities(strength, fed, probability, n);
+			kernels.survive(probability, fed, 0, draw, survived, n);
+		}
+		for (int i = 0; i < n; i++) {
+			hives[i].endWinter(survived[i]);
+			hives[i] = null;
+		}
+		n = 0;
+	}
+}